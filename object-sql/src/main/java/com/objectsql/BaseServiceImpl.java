@@ -16,12 +16,17 @@
 package com.objectsql;
 
 import com.objectsql.annotation.RdId;
+import com.objectsql.exception.ORMBatchException;
 import com.objectsql.exception.ORMException;
 import com.objectsql.exception.ORMSQLException;
 import com.objectsql.listener.*;
+import com.objectsql.handler.IQueryConvert;
+import com.objectsql.query.PreparedQuery;
 import com.objectsql.query.QueryUtils;
 import com.objectsql.support.*;
 import com.objectsql.utils.ORMUtils;
+import com.objectsql.helper.RowIterator;
+import com.objectsql.helper.RowMapper;
 import com.objectsql.helper.SQLHelperCreator;
 import com.objectsql.helper.SQLHelper;
 
@@ -30,14 +35,22 @@ import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.BeanFactoryUtils;
 import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
+import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBaseService<T>, BeanFactoryAware{
 
@@ -66,15 +79,15 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 //        return thisClass;
 //    }
 
-    private List<IORMListener> listeners = new ArrayList<IORMListener>();
+    private CopyOnWriteArrayList<IORMListener> listeners = new CopyOnWriteArrayList<IORMListener>();
 
-    private List<IDefaultListener> defaultListeners = new ArrayList<IDefaultListener>();
+    private CopyOnWriteArrayList<IDefaultListener> defaultListeners = new CopyOnWriteArrayList<IDefaultListener>();
 
-    private List<IChangeListener> changeListeners = new ArrayList<IChangeListener>();
+    private CopyOnWriteArrayList<IChangeListener> changeListeners = new CopyOnWriteArrayList<IChangeListener>();
 
-    private List<IChangedListener> changedListeners = new ArrayList<IChangedListener>();
+    private CopyOnWriteArrayList<IChangedListener> changedListeners = new CopyOnWriteArrayList<IChangedListener>();
 
-    private List<IQueryListener> queryListeners = new ArrayList<IQueryListener>();
+    private CopyOnWriteArrayList<IQueryListener> queryListeners = new CopyOnWriteArrayList<IQueryListener>();
 
     public List<IORMListener> getListeners() {
         return listeners;
@@ -142,62 +155,42 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     public void addDefaultListener(IDefaultListener listener){
-        if(!defaultListeners.contains(listener)) {
-            defaultListeners.add(listener);
-        }
+        defaultListeners.addIfAbsent(listener);
     }
 
     public void removeDefaultListener(IDefaultListener listener){
-        if(defaultListeners.contains(listener)) {
-            defaultListeners.remove(listener);
-        }
+        defaultListeners.remove(listener);
     }
 
     public void addChangeListener(IChangeListener listener){
-        if(!changeListeners.contains(listener)){
-            changeListeners.add(listener);
-        }
+        changeListeners.addIfAbsent(listener);
     }
 
     public void removeChangeListener(IChangeListener listener){
-        if(changeListeners.contains(listener)){
-            changeListeners.remove(listener);
-        }
+        changeListeners.remove(listener);
     }
 
     public void addChangedListener(IChangedListener listener){
-        if(!changedListeners.contains(listener)){
-            changedListeners.add(listener);
-        }
+        changedListeners.addIfAbsent(listener);
     }
 
     public void removeChangedListener(IChangedListener listener){
-        if(changedListeners.contains(listener)){
-            changedListeners.remove(listener);
-        }
+        changedListeners.remove(listener);
     }
 
 
     public void addORMListener(IORMListener listener){
-        if(!listeners.contains(listener)){
-            listeners.add(listener);
-        }
+        listeners.addIfAbsent(listener);
     }
     public void removeORMListener(IORMListener listener){
-        if(listeners.contains(listener)){
-            listeners.remove(listener);
-        }
+        listeners.remove(listener);
     }
 
     public void addQueryListener(IQueryListener listener){
-        if(!queryListeners.contains(listener)){
-            queryListeners.add(listener);
-        }
+        queryListeners.addIfAbsent(listener);
     }
     public void removeQueryListener(IQueryListener listener){
-        if(queryListeners.contains(listener)){
-            queryListeners.remove(listener);
-        }
+        queryListeners.remove(listener);
     }
 
     private <S> void sortAddListeners(List<S> result, Class<S> clazz){
@@ -274,8 +267,24 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         }
     }
 
+    //配置了 ChangedDispatcher 时异步通知，同一实体按顺序执行
     @Override
-    public void changed(ORMType ormType, ORMOption option) {
+    public void changed(final ORMType ormType, final ORMOption option) {
+        ChangedDispatcher dispatcher = resolveChangedDispatcher();
+        if(dispatcher == null || changedListeners.isEmpty()){
+            notifyChangedListeners(ormType, option);
+            return;
+        }
+        Object entity = option.getCurrent() != null ? option.getCurrent() : option.getOriginal();
+        dispatcher.dispatch(Arrays.asList(thisClass, entityId(entity)), new Runnable() {
+            @Override
+            public void run() {
+                notifyChangedListeners(ormType, option);
+            }
+        });
+    }
+
+    private void notifyChangedListeners(ORMType ormType, ORMOption option) {
         for (final IChangedListener listener : changedListeners) {
             try {
                 if(listener.useDefault()) {
@@ -326,7 +335,20 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 
     public void triggerChangedListenerWhenTransactionFinish(IServiceChangedListener serviceChangedListener, ORMType ormType, T original, T current, boolean updateNull, String[] nullColumns) {
         if(!changedListeners.isEmpty()){//只保留最后一个操作对象
-            ChangeHolder.cache(new PreChangeCache(serviceChangedListener, ormType, new ORMOption(updateNull, nullColumns, original, current)));
+            final PreChangeCache cache = new PreChangeCache(serviceChangedListener, ormType, new ORMOption(updateNull, nullColumns, original, current));
+            Object id = null;
+            if(resolveCoalesceChanges()){
+                id = entityId(current != null ? current : original);
+            }
+            //非 TransactionManager 开启的 Spring 事务，提交后触发
+            if(!ChangeHolder.cache(cache, thisClass, id) && TransactionSynchronizationManager.isSynchronizationActive()){
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        cache.changed();
+                    }
+                });
+            }
         }
     }
 
@@ -357,16 +379,16 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     private boolean insert(T t, boolean enableListener) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
+            conn = getConnection(context);
             if(enableListener) {
                 triggerDefaultListener(ORMType.INSERT, t);
             }
-            Options options = getOptions();
-            helper = SQLHelperCreator.insert(t, options);
+            helper = SQLHelperCreator.insert(t, context);
 
             ORMUtils.handleDebugInfo(serviceClass, "insert(object)", helper);
 
@@ -382,7 +404,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             //ps = conn.prepareStatement(sql);
             //ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             //ps = conn.prepareStatement(sql, new String[]{idCols.getFirst()});
-            SQLHelperCreator.setParameter(options, ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             boolean flag =  ps.executeUpdate() > 0;
             try {
                 if(rdId != null && rdId.autoIncrement()) {
@@ -396,6 +418,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             }catch (Exception e){
                 throw new ORMSQLException(e, "Insert, Get id error").put("object", t).put("enableListener", enableListener);
             }
+            if(flag){
+                Object id = entityId(t);
+                if(id != null){
+                    evictEntityCache(thisClass, id, conn);
+                    evictIdentityMap(thisClass, id);
+                }
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(flag && enableListener) {
                 triggerORMListener(ORMType.INSERT, t);
                 triggerChangeListener(ORMType.INSERT, null, t);
@@ -411,10 +441,89 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                 throw new ORMSQLException(e, "Insert").put("object", t).put("enableListener", enableListener).put("helper", helper);
             }
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
+        }
+    }
+
+
+    //批量插入或更新时每批执行的条数
+    private static final int UPSERT_BATCH_SIZE = 1000;
+
+    public boolean upsert(T t) {
+        ExecutionContext context = context();
+        PreparedStatement ps = null;
+        Connection conn = null;
+        SQLHelper helper = null;
+        try {
+            List<T> ts = new ArrayList<T>();
+            ts.add(t);
+            boolean byPrimaryKey = SQLHelperCreator.upsertByPrimaryKey(t, context.getOptions(), null);
+            helper = SQLHelperCreator.upserts(ts, context, null).get(0);
+            ORMUtils.handleDebugInfo(serviceClass, "upsert(object)", helper);
+            conn = getConnection(context);
+            ps = conn.prepareStatement(helper.getSql());
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
+            boolean result = ps.executeUpdate() > 0;
+            if(byPrimaryKey){
+                evictEntityCache(thisClass, entityId(t), conn);
+                evictIdentityMap(thisClass, entityId(t));
+            }else{
+                //按唯一键冲突时无法得知被更新行的主键，清空该类
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+            }
+            invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            return result;
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "Upsert").put("object", t).put("helper", helper);
+        } finally{
+            closeConnection(context, null, ps, conn);
         }
     }
 
+    public boolean batchUpserts(List<T> ts, String ... conflictColumns) {
+        ExecutionContext context = context();
+        if(ts == null || ts.isEmpty()){
+            return false;
+        }
+        PreparedStatement ps = null;
+        Connection conn = null;
+        int index = 0;
+        try {
+            //冲突列按第一个对象确定
+            boolean byPrimaryKey = SQLHelperCreator.upsertByPrimaryKey(ts.get(0), context.getOptions(), conflictColumns);
+            List<SQLHelper> helpers = SQLHelperCreator.upserts(ts, context, conflictColumns);
+            SQLHelper helper = helpers.get(0);
+            ORMUtils.handleDebugInfo(serviceClass, "batchUpserts", helper, ts.size());
+            conn = getConnection(context);
+            ps = conn.prepareStatement(helper.getSql());
+            for (int i = 0; i < helpers.size(); i += UPSERT_BATCH_SIZE){
+                index = i;
+                int lastIndex = Math.min(i + UPSERT_BATCH_SIZE, helpers.size());
+                for(int j = i; j < lastIndex; j++){
+                    SQLHelperCreator.setParameter(context, ps, helpers.get(j).getParameters(), conn);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                ps.clearBatch();
+            }
+            if(byPrimaryKey){
+                for(T t : ts){
+                    evictEntityCache(thisClass, entityId(t), conn);
+                    evictIdentityMap(thisClass, entityId(t));
+                }
+            }else{
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+            }
+            invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            return true;
+        } catch (SQLException e) {
+            throw new ORMBatchException(e, ts.size(), index);
+        } finally{
+            closeConnection(context, null, ps, conn);
+        }
+    }
 
     public boolean update(T t) {
         return update(t, false, true, null);
@@ -447,16 +556,17 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     private boolean update(T t, boolean updateNull, boolean enableListener, String [] nullColumns) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
 
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
+            conn = getConnection(context);
             if(enableListener) {
                 triggerDefaultListener(ORMType.UPDATE, t);
             }
-            helper = SQLHelperCreator.update(getOptions(), t, null, updateNull, nullColumns);
+            helper = SQLHelperCreator.update(context, t, null, updateNull, nullColumns);
             T original = null;
             if(helper.getPair() != null && (!changeListeners.isEmpty()||!changedListeners.isEmpty())) {
                 original = get(helper.getPair().getValue());
@@ -465,9 +575,19 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             ORMUtils.handleDebugInfo(serviceClass, "update(object)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                //一级缓存替换为合并了更新字段的对象
+                IdentityMap identityMap = identityMap();
+                Object id = entityId(t);
+                if(identityMap != null && id != null){
+                    identityMap.update(thisClass, entityCacheKey(id), t, updateNull, nullColumns);
+                }
+                evictEntityCache(thisClass, id, conn);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && enableListener) {
                 triggerORMListener(ORMType.UPDATE, t, updateNull, nullColumns);
                 triggerChangeListener(ORMType.UPDATE, original, t, updateNull, nullColumns);
@@ -493,7 +613,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
@@ -525,13 +645,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     private boolean updates(T t, Expression [] expressions, boolean updateNull, boolean enableListener, String [] forNullColumns) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
 
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.update(getOptions(), t, expressions, updateNull, forNullColumns);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.update(context, t, expressions, updateNull, forNullColumns);
             List<T> originals = null;
             if(helper.getIdValue() == null && helper.getIdField() != null && expressions != null && (expressions.length > 0) && (!changeListeners.isEmpty()||!changedListeners.isEmpty()||!defaultListeners.isEmpty())) {
                 originals = list(expressions);
@@ -545,9 +666,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             ORMUtils.handleDebugInfo(serviceClass, "updates(object)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && enableListener &&  (originals != null)) {
                 for(T original : originals) {//updates重新注入id
                     Object idValue = ORMUtils.getFieldValue(original, helper.getIdField());
@@ -579,7 +705,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
@@ -614,19 +740,25 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     public boolean updatesWithoutListener(Expression [] values, Expression [] conditions){
+        ExecutionContext context = context();
         PreparedStatement ps = null;
 
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.updateExpress(thisClass, getOptions(), values, conditions);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.updateExpress(thisClass, context.getOptions(), values, conditions);
 
             ORMUtils.handleDebugInfo(serviceClass, "updatesWithoutListener", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             return result;
         } catch (SQLException e) {
             throw new ORMSQLException(e, "updatesWithoutListener")
@@ -639,17 +771,18 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("values", values).put("expression", conditions).put("helper", helper);
             }
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
     private boolean updates(T t, Condition condition, boolean updateNull, boolean enableListener, String [] forNullColumns) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
 
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.updateTerms(getOptions(), t, condition, updateNull, forNullColumns);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.updateTerms(context, t, condition, updateNull, forNullColumns);
             List<T> originals = null;
             if(helper.getIdValue() == null && helper.getIdField() != null && condition != null && (!changeListeners.isEmpty()||!changedListeners.isEmpty()||!defaultListeners.isEmpty())) {
                 originals = list(condition);
@@ -663,9 +796,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             ORMUtils.handleDebugInfo(serviceClass, "updates(object,condition)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && enableListener &&  (originals != null)) {
                 for(T original : originals) {
                     Object idValue = ORMUtils.getFieldValue(original, helper.getIdField());
@@ -697,7 +835,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
@@ -711,13 +849,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     private boolean delete(Object t, boolean enableListener) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
 
         Connection conn = null;
         SQLHelper helper = null;
         try {
             T now = null;
-            conn = getConnection();
+            conn = getConnection(context);
             if(thisClass.isInstance(t)){
                 helper = SQLHelperCreator.delete(t);
                 now = (T)t;
@@ -736,9 +875,18 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             }
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                Object id = thisClass.isInstance(t) ? entityId(t) : t;
+                IdentityMap identityMap = identityMap();
+                if(identityMap != null && id != null){
+                    identityMap.delete(thisClass, entityCacheKey(id));
+                }
+                evictEntityCache(thisClass, id, conn);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && enableListener) {
                 triggerORMListener(ORMType.DELETE, now);
                 triggerChangeListener(ORMType.DELETE, now, null);
@@ -760,7 +908,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         }  finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
@@ -781,6 +929,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     private boolean deletes(Condition condition, boolean enableListener) {
+        ExecutionContext context = context();
         if(condition == null){
             throw new ORMException("TABLE_DELETE_WITHOUT_EXPRESS, DELETE(Conditions) : " + serviceClass);
         }
@@ -791,8 +940,8 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         SQLHelper helper = null;
         try {
             List<T> nows = null;
-            conn = getConnection();
-            helper = SQLHelperCreator.deleteBy(thisClass,getOptions(), condition);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.deleteBy(thisClass,context.getOptions(), condition);
             if(enableListener && (!changeListeners.isEmpty()||!changedListeners.isEmpty()||!defaultListeners.isEmpty())) {
                 nows = list(condition);
                 if(nows != null) {
@@ -805,9 +954,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             ORMUtils.handleDebugInfo(serviceClass, "deletes(condition)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(),conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(),conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && nows != null) {
                 for(T t : nows) {
                     triggerORMListener(ORMType.DELETE, t);
@@ -831,11 +985,12 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         }  finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
     private boolean deletes(boolean enableListener, Expression ... expressions) {
+        ExecutionContext context = context();
 
         if(expressions == null || expressions.length == 0){
             throw new ORMException("TABLE_DELETE_WITHOUT_EXPRESS, DELETE(Expressions) : " + serviceClass);
@@ -847,8 +1002,8 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         SQLHelper helper = null;
         try {
             List<T> nows = null;
-            conn = getConnection();
-            helper = SQLHelperCreator.deleteBy(thisClass, getOptions(), expressions);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.deleteBy(thisClass, context.getOptions(), expressions);
             if(enableListener && (!changeListeners.isEmpty()||!changedListeners.isEmpty()||!defaultListeners.isEmpty())) {
                 nows = list(expressions);
                 if(nows != null) {
@@ -861,9 +1016,14 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             ORMUtils.handleDebugInfo(serviceClass, "deletes(expressions)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(),conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(),conn);
 
             boolean result = ps.executeUpdate() > 0;
+            if(result){
+                evictEntityCache(thisClass, null, conn);
+                evictIdentityMap(thisClass, null);
+                invalidateResultCache(ORMUtils.getTableName(thisClass), conn);
+            }
             if(result && nows != null) {
                 for(T t : nows) {
                     triggerORMListener(ORMType.DELETE, t);
@@ -887,7 +1047,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         }  finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
@@ -906,8 +1066,9 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 
             ps = conn.prepareStatement(helper.getSql());
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(thisClass, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(thisClass, rs, getResultSetHandler());
+                T tmp = mapper.map(rs, getResultSetHandler());
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -941,8 +1102,9 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 
             ps = conn.prepareStatement(helper.getSql());
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(thisClass, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(thisClass, rs,getResultSetHandler());
+                T tmp = mapper.map(rs, getResultSetHandler());
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -964,6 +1126,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     public List<T> list(int start, int size) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         List<T> temp = new ArrayList<T>();
@@ -971,16 +1134,17 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = getOptions().doQuery(thisClass, null, null, null, start, size);
+            conn = getConnection(context);
+            helper = context.getOptions().doQuery(thisClass, null, null, null, start, size);
 
             ORMUtils.handleDebugInfo(serviceClass, "list(start,size)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(thisClass, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(thisClass, rs, getResultSetHandler());
+                T tmp = mapper.map(rs, getResultSetHandler());
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -998,12 +1162,13 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
     public List<T> list(Expression ... expressions) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         List<T> temp = new ArrayList<T>();
@@ -1011,16 +1176,17 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.query(getOptions(), thisClass, expressions);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.query(context.getOptions(), thisClass, expressions);
 
             ORMUtils.handleDebugInfo(serviceClass, "list(expressions)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(thisClass, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(thisClass, rs, getResultSetHandler());
+                T tmp = mapper.map(rs, getResultSetHandler());
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -1036,7 +1202,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
@@ -1068,24 +1234,44 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
     }
 
     @Override
-    public List<T> list(Names names, Condition condition, MultiOrder multiOrder, Integer limit) {
+    public List<T> list(final Names names, final Condition condition, final MultiOrder multiOrder, final Integer limit) {
+        //ObjectSQLManager.cached 作用域内缓存结果
+        long ttl = resolveResultCacheTtl(0);
+        if(ttl <= 0){
+            return doList(names, condition, multiOrder, limit, null);
+        }
+        final SQLHelper helper = getOptions().doQuery(thisClass, names != null? names.names():null, condition, multiOrder, 0, limit);
+        return resultCache(ttl, ResultCache.tables(thisClass, condition), thisClass, helper.getSql(), helper.getParameters(), null,
+                new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return doList(names, condition, multiOrder, limit, helper);
+            }
+        });
+    }
+
+    private List<T> doList(Names names, Condition condition, MultiOrder multiOrder, Integer limit, SQLHelper prepared) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         List<T> temp = new ArrayList<T>();
 
         Connection conn = null;
-        SQLHelper helper = null;
+        SQLHelper helper = prepared;
         try {
-            conn = getConnection();
-            helper = getOptions().doQuery(thisClass, names != null? names.names():null, condition, multiOrder, 0, limit);
+            conn = getConnection(context);
+            if(helper == null) {
+                helper = context.getOptions().doQuery(thisClass, names != null ? names.names() : null, condition, multiOrder, 0, limit);
+            }
 
             ORMUtils.handleDebugInfo(serviceClass, "list(names, condition, multiOrder, limit)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(thisClass, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(thisClass, rs, getResultSetHandler());
+                T tmp = mapper.map(rs, getResultSetHandler());
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -1107,33 +1293,30 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
 
     public boolean exists(Condition condition) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
 
         Connection conn = null;
         SQLHelper helper = null;
+        boolean exists = false;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.queryCount(getOptions(), this.thisClass, condition);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.exists(context.getOptions(), this.thisClass, condition);
 
             ORMUtils.handleDebugInfo(serviceClass, "exists(condition)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
-            if (rs.next()) {
-                Object tmp = rs.getObject(1);
-                if(tmp != null) {
-                    return Integer.parseInt(tmp.toString()) > 0;
-                }
-            }
+            exists = rs.next();
         } catch (SQLException e) {
             throw new ORMSQLException(e, "exists")
                     .put("condition", condition)
@@ -1147,32 +1330,29 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
-        return false;
+        return exists;
     }
 
     public boolean exists(Expression ... expressions) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
 
         Connection conn = null;
         SQLHelper helper = null;
+        boolean exists = false;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.queryCountExpress(getOptions(), this.thisClass, expressions);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.exists(context.getOptions(), this.thisClass, expressions);
 
             ORMUtils.handleDebugInfo(serviceClass, "exists(expressions)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
-            if (rs.next()) {
-                Object tmp = rs.getObject(1);
-                if(tmp != null) {
-                    return Integer.parseInt(tmp.toString()) > 0;
-                }
-            }
+            exists = rs.next();
         } catch (SQLException e) {
             throw new ORMSQLException(e, "exists")
                     .put("expressions", expressions)
@@ -1186,25 +1366,75 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
+        }
+        return exists;
+    }
+
+    public boolean [] existsEach(Condition ... conditions) {
+        ExecutionContext context = context();
+        boolean [] result = new boolean[conditions == null ? 0 : conditions.length];
+        if(result.length == 0){
+            return result;
+        }
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        Connection conn = null;
+        SQLHelper helper = SQLHelperCreator.exists(context.getOptions(), this.thisClass, conditions);
+        if(helper.getSql() == null){
+            //方言不支持一次判断多个条件
+            for(int i = 0; i < result.length; i++){
+                result[i] = exists(conditions[i]);
+            }
+            return result;
+        }
+        try {
+            conn = getConnection(context);
+
+            ORMUtils.handleDebugInfo(serviceClass, "existsEach(conditions)", helper);
+
+            ps = conn.prepareStatement(helper.getSql());
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
+            rs = ps.executeQuery();
+            if (rs.next()) {
+                for(int i = 0; i < result.length; i++){
+                    result[i] = rs.getInt(i + 1) > 0;
+                }
+            }
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "existsEach")
+                    .put("conditions", conditions)
+                    .put("helper", helper);
+        } catch (Exception e) {
+            if (e instanceof ORMException){
+                throw (ORMException)e;
+            }else{
+                throw new ORMSQLException(e, "existsEach")
+                        .put("conditions", conditions)
+                        .put("helper", helper);
+            }
+        } finally{
+            closeConnection(context, rs, ps, conn);
         }
-        return false;
+        return result;
     }
 
     public int count(Expression ... expressions){
+        ExecutionContext context = context();
 
         PreparedStatement ps = null;
         ResultSet rs = null;
         Connection conn = null;
         SQLHelper helper = null;
         try {
-            conn = getConnection();
-            helper = SQLHelperCreator.queryCountExpress(getOptions(), this.thisClass, expressions);
+            conn = getConnection(context);
+            helper = SQLHelperCreator.queryCountExpress(context.getOptions(), this.thisClass, expressions);
 
             ORMUtils.handleDebugInfo(serviceClass, "count(expressions)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
             if (rs.next()) {
                 Object tmp = rs.getObject(1);
@@ -1225,26 +1455,113 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return 0;
     }
 
+    public long estimateCount(Expression ... expressions){
+        ExecutionContext context = context();
+        boolean whole = true;
+        if(expressions != null){
+            for(Expression expression : expressions){
+                if(expression != null){
+                    whole = false;
+                    break;
+                }
+            }
+        }
+        String sql = null;
+        List<Pair> values = null;
+        if(!whole){
+            SQLHelper helper = SQLHelperCreator.query(context.getOptions(), thisClass, expressions);
+            sql = helper.getSql();
+            values = helper.getParameters();
+        }
+        Connection conn = null;
+        long estimate = -1;
+        try {
+            conn = getConnection(context);
+            estimate = estimateRows(context, conn, thisClass, sql, values);
+        } finally {
+            closeConnection(context, null, null, conn);
+        }
+        if(estimate >= resolveEstimateCountThreshold()){
+            return estimate;
+        }
+        return count(expressions);
+    }
+
+    public long estimateCount(IQuery query){
+        ExecutionContext context = context();
+        Connection conn = null;
+        long estimate = -1;
+        try {
+            conn = getConnection(context);
+            query.setOptions(context.getOptions());
+            triggerQueryListener(query);
+            if (!query.dataPermission()){
+                return 0;
+            }
+            estimate = estimateRows(context, conn, query);
+        } finally {
+            closeConnection(context, null, null, conn);
+        }
+        if(estimate >= resolveEstimateCountThreshold()){
+            return estimate;
+        }
+        return queryCount(query);
+    }
+
+    //单表无条件时取表统计行数，否则取查询（不分页）的执行计划估算
+    private long estimateRows(ExecutionContext context, Connection conn, IQuery query){
+        if(query instanceof IBaseQuery && query.getConditions().isEmpty() && query.getGroups().isEmpty()
+                && query.getHavings().isEmpty() && !query.isDistinct()){
+            return estimateRows(context, conn, query.getTable(), null, null);
+        }
+        Pageable page = query.getPageable();
+        query.setPageable(null);
+        try {
+            QueryInfo qinfo = query.doQuery();
+            return estimateRows(context, conn, query.getTable(), qinfo.getSql(), qinfo.getValues());
+        } finally {
+            query.setPageable(page);
+        }
+    }
+
+    private long estimateRows(ExecutionContext context, Connection conn, Class<?> clazz, String sql, List<Pair> values){
+        String table = clazz == null ? null : ORMUtils.getTableName(clazz);
+        if(sql == null && table == null){
+            return -1;
+        }
+        try {
+            long estimate = context.getOptions().estimateCount(conn, table, sql, values);
+            ORMUtils.handleDebugInfo(serviceClass, "estimateCount", table, sql, estimate);
+            return estimate;
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "estimateCount")
+                    .put("table", table)
+                    .put("sql", sql)
+                    .put("values", values);
+        }
+    }
+
     private <S> S getQuery(IQuery query){
+        ExecutionContext context = context();
         S s = null;
 
-        Connection conn = getConnection();
-        query.setOptions(getOptions());
+        Connection conn = getConnection(context);
+        query.setOptions(context.getOptions());
 
         triggerQueryListener(query);
 
         if (!query.dataPermission()){
-            closeConnection(null, null, conn);
+            closeConnection(context, null, null, conn);
             return null;
         }
 
         //setClob通用
-        QueryInfo qinfo = getOptions().doQuery(query, null);// = queryString(names, false);
+        QueryInfo qinfo = context.getOptions().doQuery(query, null);// = queryString(names, false);
 
         ORMUtils.handleDebugInfo(serviceClass, "getQuery(query)", qinfo);
 
@@ -1252,7 +1569,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         ResultSet rs = null;
         try {
             ps = conn.prepareStatement(qinfo.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, qinfo.getValues(), conn);
+            SQLHelperCreator.setParameter(context, ps, qinfo.getValues(), conn);
             rs = ps.executeQuery();
 
             if(rs.next()){
@@ -1271,7 +1588,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("queryInfo", qinfo);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return s;
     }
@@ -1286,24 +1603,82 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             return getQuery((IQuery)object);
         }
 
+        //一级缓存（事务内，按主键）
+        IdentityMap identityMap = thisClass.isInstance(object) ? null : identityMap();
+        Object identityKey = null;
+        if(identityMap != null){
+            identityKey = entityCacheKey(object);
+            if(identityMap.contains(thisClass, identityKey)){
+                return (S)identityMap.get(thisClass, identityKey);
+            }
+        }
+
+        //二级缓存（按主键）
+        EntityCache cache = thisClass.isInstance(object) ? null : readEntityCache(thisClass);
+        Object cacheKey = null;
+        long generation = 0;
+        if(cache != null){
+            cacheKey = entityCacheKey(object);
+            Object value = cache.get(cacheKey);
+            if(value != null){
+                return (S)value;
+            }
+            generation = cache.generation();
+        }
+
+        //批量加载作用域内，与已登记的 load(id) 合并查询
+        BatchScope scope = BatchScope.current();
+        if(scope != null && !thisClass.isInstance(object)){
+            T result = (T)scope.get(this, object);
+            if(identityMap != null){
+                identityMap.put(thisClass, identityKey, result);
+            }
+            return (S)result;
+        }
+
+        final SQLHelper helper;
+        if(thisClass.isInstance(object)){
+            helper = SQLHelperCreator.get(object);
+        }else{
+            helper = SQLHelperCreator.get(thisClass, object);
+        }
+
+        T result;
+        //相同的并发读取合并执行
+        if(resolveSingleFlight()){
+            final Object target = object;
+            result = singleFlight(thisClass, helper.getSql(), helper.getParameters(), null, new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return doGet(target, helper);
+                }
+            });
+        }else{
+            result = doGet(object, helper);
+        }
+        if(cache != null && result != null){
+            cache.put(cacheKey, result, generation);
+        }
+        if(identityMap != null){
+            identityMap.put(thisClass, identityKey, result);
+        }
+        return (S)result;
+    }
+
+    private T doGet(Object object, SQLHelper helper){
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         T temp = null;
 
         Connection conn = null;
-        SQLHelper helper = null;
         try {
-            conn = getConnection();
-            if(thisClass.isInstance(object)){
-                helper = SQLHelperCreator.get(object);
-            }else{
-                helper = SQLHelperCreator.get(thisClass, object);
-            }
+            conn = getConnection(context);
 
             ORMUtils.handleDebugInfo(serviceClass, "get(object)", helper);
 
             ps = conn.prepareStatement(helper.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, helper.getParameters(), conn);
+            SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
             rs = ps.executeQuery();
             if (rs.next()) {
                 temp = SQLHelperCreator.newClass(thisClass, rs, getResultSetHandler());
@@ -1321,9 +1696,124 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("helper", helper);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
+        }
+        return temp;
+    }
+
+    public CompletableFuture<T> load(Object id) {
+        BatchScope scope = BatchScope.current();
+        if(scope == null){
+            return CompletableFuture.completedFuture((T)get(id));
+        }
+        return scope.load(this, id);
+    }
+
+    public <K> Map<K, T> getAll(Collection<K> ids) {
+        Map<K, Object> found = loadAll(ids, false);
+        Map<K, T> result = new LinkedHashMap<K, T>();
+        if(found.isEmpty()){
+            return result;
+        }
+        for(K id : ids){
+            Object value = found.get(id);
+            if(value != null){
+                result.put(id, (T)value);
+            }
+        }
+        return result;
+    }
+
+    public <K> Set<K> existsAll(Collection<K> ids) {
+        Map<K, Object> found = loadAll(ids, true);
+        Set<K> result = new LinkedHashSet<K>();
+        if(found.isEmpty()){
+            return result;
+        }
+        for(K id : ids){
+            if(found.containsKey(id)){
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    //按主键分段 IN 查询，返回传入的 id -> 对象（idOnly 时为数据库中的主键值）；id 按字符串形式匹配，兼容 Integer/Long 等类型差异
+    private <K> Map<K, Object> loadAll(Collection<K> ids, boolean idOnly){
+        ExecutionContext context = context();
+        Map<K, Object> found = new HashMap<K, Object>();
+        Map<String, K> keys = new LinkedHashMap<String, K>();
+        if(ids != null) {
+            for (K id : ids) {
+                if (id != null && !keys.containsKey(String.valueOf(id))) {
+                    keys.put(String.valueOf(id), id);
+                }
+            }
+        }
+        if(keys.isEmpty()){
+            return found;
+        }
+        List<K> list = new ArrayList<K>(keys.values());
+        Options options = context.getOptions();
+        int maxSize = Math.max(1, options.maxInListSize());
+        String name = idOnly ? "existsAll" : "getAll";
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Connection conn = null;
+        SQLHelper helper = null;
+        String sql = null;
+        try {
+            conn = getConnection(context);
+            for (int i = 0; i < list.size(); i += maxSize) {
+                helper = SQLHelperCreator.getAll(thisClass, list.subList(i, Math.min(i + maxSize, list.size())), maxSize, idOnly);
+                ORMUtils.handleDebugInfo(serviceClass, name, helper);
+                //整段的 SQL 相同，复用语句
+                if(ps == null || !helper.getSql().equals(sql)){
+                    if(ps != null){
+                        ps.close();
+                    }
+                    sql = helper.getSql();
+                    ps = conn.prepareStatement(sql);
+                }
+                SQLHelperCreator.setParameter(context, ps, helper.getParameters(), conn);
+                rs = ps.executeQuery();
+                Field idField = helper.getIdField();
+                idField.setAccessible(true);
+                RowMapper<T> mapper = idOnly ? null : RowMapper.<T>create(thisClass, rs);
+                while (rs.next()) {
+                    Object id = null;
+                    Object value = null;
+                    if(idOnly){
+                        id = rs.getObject(1);
+                        value = id;
+                    }else{
+                        value = mapper.map(rs, null, getResultSetHandler());
+                        id = idField.get(value);
+                    }
+                    K key = keys.get(String.valueOf(id));
+                    if(key != null && value != null){
+                        found.put(key, value);
+                    }
+                }
+                rs.close();
+                rs = null;
+            }
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, name)
+                    .put("ids", ids)
+                    .put("helper", helper);
+        } catch (Exception e) {
+            if (e instanceof ORMException){
+                throw (ORMException)e;
+            }else{
+                throw new ORMSQLException(e, name)
+                        .put("ids", ids)
+                        .put("helper", helper);
+            }
+        } finally{
+            closeConnection(context, rs, ps, conn);
         }
-        return (S)temp;
+        return found;
     }
 
 
@@ -1349,18 +1839,19 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 
 
     private <S> List<S> innerQuery(IQuery query){
+        ExecutionContext context = context();
 
         //setClob通用
         List<S> temp = new ArrayList<S>();
 
-        Connection conn = getConnection();
+        Connection conn = getConnection(context);
 
-        query.setOptions(getOptions());
+        query.setOptions(context.getOptions());
 
         triggerQueryListener(query);
 
         if (!query.dataPermission()){
-            closeConnection(null, null, conn);
+            closeConnection(context, null, null, conn);
             return temp;
         }
 
@@ -1368,16 +1859,91 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
 
         ORMUtils.handleDebugInfo(serviceClass, "innerQuery(query)", qinfo);
 
+        return executeQuery(context, conn, qinfo, query.getQueryConvert(), query.getFetchMode(), query.getFetchSize(), query);
+    }
+
+    //IQueryListener 按调用方修改查询（租户、数据权限），编译后的 SQL 无法复用，不支持预编译
+    public <S> PreparedQuery<S> prepare(IQuery query){
+        checkPreparable();
+        query.setOptions(getOptions());
+        return PreparedQuery.compile(this, query);
+    }
+
+    private void checkPreparable(){
+        if(!queryListeners.isEmpty()){
+            throw new ORMException("PreparedQuery is not supported when IQueryListener registered, service : " + serviceClass);
+        }
+    }
+
+    public <S> List<S> query(PreparedQuery<S> query, Map<String, Object> params){
+        ExecutionContext context = context();
+        checkPreparable();
+        if(!query.isAllowed()){
+            return new ArrayList<S>();
+        }
+        QueryInfo qinfo = query.bind(params);
+        ORMUtils.handleDebugInfo(serviceClass, "query(preparedQuery, params)", qinfo);
+        Connection conn = getConnection(context);
+        return executeQuery(context, conn, qinfo, query.getQueryConvert(), query.getFetchMode(), query.getFetchSize(), query);
+    }
+
+    private <S> List<S> executeQuery(final ExecutionContext context, final Connection conn, final QueryInfo qinfo, final IQueryConvert queryConvert,
+                                     final FetchMode fetchMode, final int fetchSize, final Object query){
+        //查询结果缓存，自定义转换的结果不缓存
+        long ttl = 0;
+        Set<String> tables = null;
+        if(queryConvert == null && query instanceof IQuery){
+            ttl = resolveResultCacheTtl(((IQuery) query).getCacheTtl());
+            tables = ttl > 0 ? ResultCache.tables((IQuery) query) : null;
+        }else if(queryConvert == null && query instanceof PreparedQuery){
+            ttl = resolveResultCacheTtl(((PreparedQuery) query).getCacheTtl());
+            tables = ((PreparedQuery) query).getTables();
+        }
+        if(ttl > 0){
+            return resultCache(ttl, tables, qinfo.getClazz(), qinfo.getSql(), qinfo.getValues(), conn, new Callable<List<S>>() {
+                @Override
+                public List<S> call() throws Exception {
+                    return loadQuery(context, conn, qinfo, queryConvert, fetchMode, fetchSize, query);
+                }
+            });
+        }
+        return loadQuery(context, conn, qinfo, queryConvert, fetchMode, fetchSize, query);
+    }
+
+    private <S> List<S> loadQuery(final ExecutionContext context, final Connection conn, final QueryInfo qinfo, final IQueryConvert queryConvert,
+                                  final FetchMode fetchMode, final int fetchSize, final Object query){
+        //相同的并发读取合并执行，自定义转换的结果不共享
+        if(queryConvert == null && resolveSingleFlight()){
+            return singleFlight(qinfo.getClazz(), qinfo.getSql(), qinfo.getValues(), conn, new Callable<List<S>>() {
+                @Override
+                public List<S> call() throws Exception {
+                    return doExecuteQuery(context, conn, qinfo, queryConvert, fetchMode, fetchSize, query);
+                }
+            }, new Callable<List<S>>() {
+                @Override
+                public List<S> call() throws Exception {
+                    return doExecuteQuery(context, getConnection(context), qinfo, queryConvert, fetchMode, fetchSize, query);
+                }
+            });
+        }
+        return doExecuteQuery(context, conn, qinfo, queryConvert, fetchMode, fetchSize, query);
+    }
+
+    private <S> List<S> doExecuteQuery(ExecutionContext context, Connection conn, QueryInfo qinfo, IQueryConvert queryConvert,
+                                     FetchMode fetchMode, int fetchSize, Object query){
+        List<S> temp = new ArrayList<S>();
         PreparedStatement ps = null;
         ResultSet rs = null;
+        boolean autoCommitChanged = false;
         try {
 
             ps = conn.prepareStatement(qinfo.getSql());
-            SQLHelperCreator.setParameter(getOptions(), ps, qinfo.getValues(), conn);
+            autoCommitChanged = prepareFetch(context, conn, ps, fetchMode, fetchSize);
+            SQLHelperCreator.setParameter(context, ps, qinfo.getValues(), conn);
             rs = ps.executeQuery();
-
-            while(rs.next()){
-                S t = SQLHelperCreator.newClass(qinfo.getClazz(), rs, query.getQueryConvert(), getResultSetHandler());
+            RowMapper<S> mapper = RowMapper.create(qinfo.getClazz(), rs);
+            while (rs.next()) {
+                S t = mapper.map(rs, queryConvert, getResultSetHandler());
                 temp.add(t);
             }
         } catch (SQLException e) {
@@ -1393,12 +1959,54 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("queryInfo", qinfo);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn, autoCommitChanged);
         }
         return temp;
     }
 
+    @Override
+    public <S> Stream<S> stream(IQuery query) {
+        return stream(query, 0);
+    }
+
+    @Override
+    public <S> Stream<S> stream(IQuery query, int fetchSize) {
+        RowIterator<S> iterator = iterate(query, fetchSize);
+        return iterator.stream();
+    }
+
+    @Override
+    public <S> RowIterator<S> iterate(IQuery query) {
+        return iterate(query, 0);
+    }
+
+    @Override
+    public <S> RowIterator<S> iterate(IQuery query, int fetchSize) {
+        query.setOptions(getOptions());
+        triggerQueryListener(query);
+        if (!query.dataPermission()){
+            return RowIterator.empty();
+        }
+        QueryInfo qinfo = query.doQuery();
+        ORMUtils.handleDebugInfo(serviceClass, "iterate(query)", qinfo);
+        return openIterator(qinfo.getClazz(), qinfo.getSql(), qinfo.getValues(), query.getQueryConvert(),
+                query.getFetchMode(), fetchSize > 0 ? fetchSize : query.getFetchSize());
+    }
+
+    @Override
+    public RowIterator<T> iterate(Condition condition) {
+        return iterate(condition, null);
+    }
+
+    @Override
+    public RowIterator<T> iterate(Condition condition, MultiOrder multiOrder) {
+        SQLHelper helper = getOptions().doQuery(thisClass, null, condition, multiOrder, 0, null);
+        ORMUtils.handleDebugInfo(serviceClass, "iterate(condition, multiOrder)", helper);
+        return openIterator(thisClass, helper.getSql(), helper.getParameters(), null, null, 0);
+    }
+
     public int queryCount(IQuery q){
+        ExecutionContext context = context();
         //setClob通用
         int count = 0;
 
@@ -1408,11 +2016,11 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         ResultSet rs = null;
         QueryInfo qinfo = null;
         try {
-            conn = getConnection();
-            q.setOptions(getOptions());
+            conn = getConnection(context);
+            q.setOptions(context.getOptions());
             triggerQueryListener(q);
             if (!q.dataPermission()){
-                closeConnection(null, null, conn);
+                closeConnection(context, null, null, conn);
                 return count;
             }
             qinfo = q.doQueryCount();
@@ -1422,7 +2030,7 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
             String query = qinfo.getSql();// = queryString(names, false);
 
             ps = conn.prepareStatement(query);
-            SQLHelperCreator.setParameter(getOptions(), ps, qinfo.getValues(), conn);
+            SQLHelperCreator.setParameter(context, ps, qinfo.getValues(), conn);
             rs = ps.executeQuery();
 
             if(rs.next()){
@@ -1442,12 +2050,13 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
                         .put("queryInfo", qinfo);
             }
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return count;
     }
 
     public <S> Pageable<S> queryPage(IQuery query, Pageable page){
+        ExecutionContext context = context();
         if(page == null){
             page = new Pageable();
         }
@@ -1455,96 +2064,273 @@ public abstract class BaseServiceImpl<T> extends SQLServiceImpl implements IBase
         //setClob通用
         List<S> temp = new ArrayList<S>();
 
-        Connection conn = getConnection();
+        Connection conn = getConnection(context);
 
-        query.setOptions(getOptions());
+        query.setOptions(context.getOptions());
 
         triggerQueryListener(query);
 
         if (!query.dataPermission()){
             page.setRows(temp);
             page.setTotal(temp.size());
-            closeConnection(null, null, conn);
+            closeConnection(context, null, null, conn);
             return page;
         }
 
-        QueryInfo qinfo =  null;
+        PageCountMode mode = resolvePageCountMode(page);
+        //游标分页的窗口总数只统计游标之后的行，与 COUNT 的总数含义不同
+        if(mode == PageCountMode.WINDOW && (!context.getOptions().windowCount() || query.isDistinct() || page.isKeyset())){
+            mode = PageCountMode.COUNT;
+        }
+        //事务中 COUNT 需与数据查询使用同一连接
+        if(mode == PageCountMode.PARALLEL && TransactionSynchronizationManager.isActualTransactionActive()){
+            mode = PageCountMode.COUNT;
+        }
+        int size = page.getSize() == null ? 10 : page.getSize().intValue();
+        Integer total = null;
+        page.setEstimated(null);
+        try{
+            //估算值不小于阈值时使用估算值，不再精确统计
+            boolean estimated = false;
+            if(page.isEstimate() && mode != PageCountMode.NONE){
+                long estimate = estimateRows(context, conn, query);
+                if(estimate >= resolveEstimateCountThreshold()){
+                    total = (int)Math.min(estimate, Integer.MAX_VALUE);
+                    page.setEstimated(true);
+                    estimated = true;
+                    //不附加窗口总数列，调用方的 countMode 可能为 WINDOW
+                    temp = executePage(context, conn, renderPage(query, page, size, null), query, page, null);
+                }
+            }
+            if(!estimated){
+                switch (mode){
+                    case NONE:
+                        temp = executePage(context, conn, renderPage(query, page, size + 1, null), query, page, null);
+                        boolean hasNext = temp.size() > size;
+                        if(hasNext){
+                            temp = new ArrayList<S>(temp.subList(0, size));
+                        }
+                        page.setHasNext(hasNext);
+                        break;
+                    case WINDOW:
+                        int [] window = new int[]{-1};
+                        temp = executePage(context, conn, renderPage(query, page, size, PageCountMode.WINDOW), query, page, window);
+                        if(window[0] >= 0){
+                            total = window[0];
+                        }else if(temp.isEmpty() && page.getOffset() == 0){
+                            total = 0;
+                        }else{
+                            //超出末页或方言未附加总数列
+                            total = executeCount(context, conn, query.doQueryCount(), query, page);
+                        }
+                        break;
+                    case PARALLEL:
+                        //在当前线程生成 SQL，查询对象不跨线程使用
+                        QueryInfo countInfo = query.doQueryCount();
+                        QueryInfo dataInfo = query.doQuery();
+                        FutureTask<Integer> countTask = submitCount(context, countInfo, query, page);
+                        boolean success = false;
+                        try {
+                            temp = executePage(context, conn, dataInfo, query, page, null);
+                            success = true;
+                        } finally {
+                            //数据查询失败时取消 COUNT，抛出数据查询的异常
+                            if(!success){
+                                countTask.cancel(true);
+                            }
+                        }
+                        total = waitCount(countTask);
+                        break;
+                    default:
+                        total = executeCount(context, conn, query.doQueryCount(), query, page);
+                        if(total > 0) {
+                            temp = executePage(context, conn, query.doQuery(), query, page, null);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            closeConnection(context, null, null, conn);
+        }
+        page.setRows(temp);
+        page.setTotal(total);
+        if(total != null){
+            if(page.isKeyset() || Boolean.TRUE.equals(page.getEstimated())){
+                page.setHasNext(temp.size() >= size && temp.size() < total);
+            }else{
+                page.setHasNext(page.getOffset() + temp.size() < total);
+            }
+        }
+        if(page.isKeyset()){
+            //有下一页时以最后一行生成下一页游标
+            String next = null;
+            if(!temp.isEmpty() && Boolean.TRUE.equals(page.getHasNext())){
+                next = Keyset.next(temp.get(temp.size() - 1), Keyset.orders(query));
+            }
+            page.setNextCursor(next);
+        }
+        return page;
+    }
+
+    //按指定行数与统计方式生成分页 SQL，不修改调用方的 Pageable
+    private QueryInfo renderPage(IQuery query, Pageable page, int size, PageCountMode mode){
+        Pageable render = new Pageable(page.getPage(), size);
+        render.setOffset(page.getOffset());
+        render.setKeyset(page.getKeyset());
+        render.setCursor(page.getCursor());
+        render.setCountMode(mode);
+        query.setPageable(render);
+        try {
+            return query.doQuery();
+        } finally {
+            query.setPageable(page);
+        }
+    }
+
+    private FutureTask<Integer> submitCount(final ExecutionContext context, final QueryInfo countInfo, final IQuery query, final Pageable page){
+        final String lookupKey = DynamicDataSource.getDataSource();
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                String current = DynamicDataSource.getDataSource();
+                DynamicDataSource.setDataSource(lookupKey);
+                Connection countConn = null;
+                try {
+                    countConn = getConnection(context);
+                    return executeCount(context, countConn, countInfo, query, page);
+                } finally {
+                    closeConnection(context, null, null, countConn);
+                    DynamicDataSource.setDataSource(current);
+                }
+            }
+        });
+        try {
+            objectSQLManager.getPageExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return task;
+    }
+
+    private Integer waitCount(FutureTask<Integer> task){
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ORMException("Query page count interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new ORMException("Query page count error", (Exception) cause);
+        }
+    }
+
+    private int executeCount(ExecutionContext context, Connection conn, QueryInfo qinfo, IQuery query, Pageable page){
         PreparedStatement ps = null;
         ResultSet rs = null;
         int total = 0;
-        try{
-            try {
-                qinfo = query.doQueryCount();
-
-                ORMUtils.handleDebugInfo(serviceClass, "queryPage(query, page)", qinfo);
+        try {
+            ORMUtils.handleDebugInfo(serviceClass, "queryPage(query, page)", qinfo);
 
-                String countSQL = qinfo.getSql();// = queryString(names, false);
+            String countSQL = qinfo.getSql();// = queryString(names, false);
 
-                ps = conn.prepareStatement(countSQL);
-                SQLHelperCreator.setParameter(getOptions(), ps, qinfo.getValues(), conn);
-                rs = ps.executeQuery();
+            ps = conn.prepareStatement(countSQL);
+            SQLHelperCreator.setParameter(context, ps, qinfo.getValues(), conn);
+            rs = ps.executeQuery();
 
-                if(rs.next()){
-                    total = rs.getInt(1);
-                }
-            } catch (SQLException e) {
+            if(rs.next()){
+                total = rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "queryPage")
+                    .put("type", "count")
+                    .put("query", query)
+                    .put("page", page)
+                    .put("queryInfo", qinfo);
+        } catch (Exception e) {
+            if (e instanceof ORMException) {
+                throw (ORMException) e;
+            } else {
                 throw new ORMSQLException(e, "queryPage")
                         .put("type", "count")
                         .put("query", query)
                         .put("page", page)
                         .put("queryInfo", qinfo);
-            } catch (Exception e) {
-                if (e instanceof ORMException) {
-                    throw (ORMException) e;
-                } else {
-                    throw new ORMSQLException(e, "queryPage")
-                            .put("type", "count")
-                            .put("query", query)
-                            .put("page", page)
-                            .put("queryInfo", qinfo);
-                }
-            } finally {
-                closeConnection(rs, ps, null);
             }
-            if(total > 0) {
-                qinfo = query.doQuery(); //getQueryPage().doQuery(q, page);// = queryString(names, false);
+        } finally {
+            closeConnection(context, rs, ps, null);
+        }
+        return total;
+    }
 
-                ORMUtils.handleDebugInfo(serviceClass, "queryPage(query, page)", qinfo);
+    //window 不为空时读取 WINDOW 总数列，并从 Map 结果中移除
+    private <S> List<S> executePage(ExecutionContext context, Connection conn, QueryInfo qinfo, IQuery query, Pageable page, int [] window){
+        List<S> temp = new ArrayList<S>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
 
-                try {
-                    ps = conn.prepareStatement(qinfo.getSql());
-                    SQLHelperCreator.setParameter(getOptions(), ps, qinfo.getValues(), conn);
-                    rs = ps.executeQuery();
-                    while (rs.next()) {
-                        S t = SQLHelperCreator.newClass(qinfo.getClazz(), rs, query.getQueryConvert(), getResultSetHandler());
-                        temp.add(t);
+        ORMUtils.handleDebugInfo(serviceClass, "queryPage(query, page)", qinfo);
+
+        try {
+            ps = conn.prepareStatement(qinfo.getSql());
+            SQLHelperCreator.setParameter(context, ps, qinfo.getValues(), conn);
+            rs = ps.executeQuery();
+            int windowIndex = 0;
+            if(window != null){
+                ResultSetMetaData metaData = rs.getMetaData();
+                for(int i = metaData.getColumnCount(); i > 0; i--){
+                    if(PageCountMode.WINDOW_COLUMN.equalsIgnoreCase(metaData.getColumnLabel(i))){
+                        windowIndex = i;
+                        break;
                     }
-                } catch (SQLException e) {
-                    throw new ORMSQLException(e, "queryPage")
-                            .put("type", "data")
-                            .put("query", query)
-                            .put("page", page)
-                            .put("queryInfo", qinfo);
-                } catch (Exception e) {
-                    if (e instanceof ORMException) {
-                        throw (ORMException) e;
-                    } else {
-                        throw new ORMSQLException(e, "queryPage")
-                                .put("type", "data")
-                                .put("query", query)
-                                .put("page", page)
-                                .put("queryInfo", qinfo);
+                }
+            }
+            RowMapper<S> mapper = RowMapper.create(qinfo.getClazz(), rs);
+            while (rs.next()) {
+                S t = mapper.map(rs, query.getQueryConvert(), getResultSetHandler());
+                if(windowIndex > 0){
+                    if(window[0] < 0){
+                        window[0] = rs.getInt(windowIndex);
+                    }
+                    if(t instanceof Map){
+                        //Map 的键可能已转为驼峰，忽略下划线与大小写比较
+                        Iterator<?> iterator = ((Map<?, ?>) t).keySet().iterator();
+                        while (iterator.hasNext()){
+                            String key = String.valueOf(iterator.next()).replace("_", "");
+                            if(PageCountMode.WINDOW_COLUMN.replace("_", "").equalsIgnoreCase(key)){
+                                iterator.remove();
+                            }
+                        }
                     }
-                } finally {
-                    closeConnection(rs, ps, null);
                 }
+                temp.add(t);
+            }
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "queryPage")
+                    .put("type", "data")
+                    .put("query", query)
+                    .put("page", page)
+                    .put("queryInfo", qinfo);
+        } catch (Exception e) {
+            if (e instanceof ORMException) {
+                throw (ORMException) e;
+            } else {
+                throw new ORMSQLException(e, "queryPage")
+                        .put("type", "data")
+                        .put("query", query)
+                        .put("page", page)
+                        .put("queryInfo", qinfo);
             }
         } finally {
-            closeConnection(null, null, conn);
+            closeConnection(context, rs, ps, null);
         }
-        page.setRows(temp);
-        page.setTotal(total);
-        return page;
+        return temp;
     }
 
     @Override
@@ -17,10 +17,17 @@ package com.objectsql;
 
 
 import com.objectsql.exception.ORMException;
+import com.objectsql.helper.RowIterator;
 import com.objectsql.listener.*;
+import com.objectsql.query.PreparedQuery;
 import com.objectsql.support.*;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface IBaseService<T> extends IServiceChangedListener<T>, ISQLService{
 
@@ -95,12 +102,38 @@ public interface IBaseService<T> extends IServiceChangedListener<T>, ISQLService
     */
     <S> S get(Object object);
 
+    /*  按主键批量查询，IN 按数据库上限分段，在同一连接中执行
+        返回 id -> 对象，顺序同传入的 ids（重复 id 只查一次，不存在的 id 不包含）
+        Map<Long, Test> tests = testService.getAll(ids);
+    */
+    <K> Map<K, T> getAll(Collection<K> ids);
+    //返回存在的 id
+    <K> Set<K> existsAll(Collection<K> ids);
+
+    /*  按主键延迟加载，在 ObjectSQLManager.batchScope 中合并为一次 getAll，作用域外直接查询
+        ObjectSQLManager.batchScope(() -> {
+            for(Order order : orders){
+                testService.load(order.getTestId()).thenAccept(test -> ...);
+            }
+            return null;
+        });
+    */
+    CompletableFuture<T> load(Object id);
+
     /*  保存
         testService.save(test);
     */
     boolean insert(T t);
     boolean insertWithoutListener(T t);
 
+    /*  插入或更新（一次执行，不触发监听器，不回填自增主键）
+        冲突列默认取有值的主键，否则取第一个 @RdUniqueKey
+        testService.upsert(test);
+        testService.batchUpserts(tests, "code");
+    */
+    boolean upsert(T t);
+    boolean batchUpserts(List<T> ts, String ... conflictColumns);
+
     /*  更新（按主键), 若对象字段为空则不更新
         testService.update(test);
     */
@@ -161,7 +194,16 @@ public interface IBaseService<T> extends IServiceChangedListener<T>, ISQLService
     //查询该表总数据
     int count(Expression ... expressions);
     boolean exists(Condition condition);
+
+    /*  估算总数：按数据库统计信息（无条件时取表统计行数，否则取执行计划估算），
+        估算值不小于阈值（setEstimateCountThreshold）时直接返回，否则精确统计
+        long total = testService.estimateCount();
+    */
+    long estimateCount(Expression ... expressions);
+    long estimateCount(IQuery query);
     boolean exists(Expression ... expressions);
+    //多个条件一次查询，返回值与条件顺序一致
+    boolean [] existsEach(Condition ... conditions);
 
     //简单的查询(单表）
     List<T> listNames(String ...names);
@@ -183,6 +225,18 @@ public interface IBaseService<T> extends IServiceChangedListener<T>, ISQLService
     int queryCount(IQuery query);
     <S> Pageable<S> queryPage(IQuery query, Pageable page);
 
+    //预编译查询，编译一次后可多线程重复执行，参数使用 PreparedQuery.param("name") 占位；注册了 IQueryListener 的服务不支持
+    <S> PreparedQuery<S> prepare(IQuery query);
+    <S> List<S> query(PreparedQuery<S> query, Map<String, Object> params);
+
+    //流式查询（游标），使用完需关闭 Stream/RowIterator 以释放连接；STREAM/CURSOR 通过 IQuery.setFetchMode 或 setFetchMode 开启
+    <S> Stream<S> stream(IQuery query);
+    <S> Stream<S> stream(IQuery query, int fetchSize);
+    <S> RowIterator<S> iterate(IQuery query);
+    <S> RowIterator<S> iterate(IQuery query, int fetchSize);
+    RowIterator<T> iterate(Condition condition);
+    RowIterator<T> iterate(Condition condition, MultiOrder multiOrder);
+
     String tableName() throws ORMException;
     void createOrUpdate() throws ORMException;
 }
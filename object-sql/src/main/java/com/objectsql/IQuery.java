@@ -77,4 +77,14 @@ public interface IQuery{
 
     void setQueryConvert(IQueryConvert queryConvert);
     IQueryConvert getQueryConvert();
+
+    //游标读取方式与批次大小，未设置时使用 service/ObjectSQLManager 的配置
+    void setFetchMode(FetchMode fetchMode);
+    FetchMode getFetchMode();
+    void setFetchSize(int fetchSize);
+    int getFetchSize();
+
+    //查询结果缓存时间（秒），0 不缓存（作用域 ObjectSQLManager.cached 内使用作用域的设置）
+    void setCacheTtl(long cacheTtl);
+    long getCacheTtl();
 }
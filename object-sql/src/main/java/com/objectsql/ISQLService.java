@@ -17,6 +17,7 @@ package com.objectsql;
 
 import com.objectsql.exception.ORMException;
 import com.objectsql.handler.ResultSetFunction;
+import com.objectsql.helper.RowIterator;
 import com.objectsql.support.*;
 
 import javax.sql.DataSource;
@@ -24,6 +25,7 @@ import java.sql.Connection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public interface ISQLService {
 
@@ -57,6 +59,38 @@ public interface ISQLService {
 
     List<Map<String, Object>> queryMapList(String sql, Object ... params);
 
+    //流式查询，需关闭 Stream/RowIterator 以释放连接
+    <T> Stream<T> stream(Class<T> clazz, String sql, Object ... params);
+
+    <T> RowIterator<T> iterate(Class<T> clazz, String sql, Object ... params);
+
+    FetchMode getFetchMode();
+
+    void setFetchMode(FetchMode fetchMode);
+
+    int getFetchSize();
+
+    void setFetchSize(int fetchSize);
+
+    BatchInsertMode getBatchInsertMode();
+
+    void setBatchInsertMode(BatchInsertMode batchInsertMode);
+
+    //queryPage 总数统计方式，为 null 时使用 ObjectSQLManager 的配置
+    PageCountMode getPageCountMode();
+
+    void setPageCountMode(PageCountMode pageCountMode);
+
+    //estimateCount 与 Pageable.estimate：估算行数不小于该值时不再精确统计
+    Long getEstimateCountThreshold();
+
+    void setEstimateCountThreshold(Long estimateCountThreshold);
+
+    //相同的并发读取（get/query）合并执行，事务中不合并
+    Boolean getSingleFlight();
+
+    void setSingleFlight(Boolean singleFlight);
+
     int queryCount(String sql, Object ... params);
 
     Object queryResult(String sql, Object ... params);
@@ -86,6 +120,16 @@ public interface ISQLService {
     //默认非自动提交 回滚
     <S> List<S> batchInserts(List<S> ts, boolean rollback);
 
+    /**
+     * 原生批量导入（PostgreSQL COPY、MySQL LOAD DATA LOCAL、H2 CSVREAD），逐行编码不整体缓存
+     * 不设置自增主键，也不回填；其他数据库或含二进制列时改用 batchInserts
+     * @param ts 同一类型的对象
+     * @return 导入行数
+     */
+    <S> long bulkLoad(List<S> ts);
+
+    <S> long bulkLoad(Stream<S> stream);
+
 
     boolean batchUpdates(List ts, String [] columns, int batchCount);
     boolean batchUpdates(List ts, String [] columns, int batchCount, boolean autoCommit);
@@ -15,10 +15,22 @@
  */
 package com.objectsql;
 
+import com.objectsql.annotation.RdCache;
 import com.objectsql.exception.ORMException;
 import com.objectsql.option.*;
 import com.objectsql.support.DatabaseTypeHolder;
+import com.objectsql.support.BatchInsertMode;
+import com.objectsql.support.BatchScope;
+import com.objectsql.support.CachePolicy;
+import com.objectsql.support.CacheStats;
+import com.objectsql.support.ChangedDispatcher;
+import com.objectsql.support.EntityCache;
+import com.objectsql.support.FetchMode;
 import com.objectsql.support.IRealConnection;
+import com.objectsql.support.ExecutionContext;
+import com.objectsql.support.MetadataCache;
+import com.objectsql.support.PageCountMode;
+import com.objectsql.support.ResultCache;
 import com.objectsql.support.Options;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 
@@ -28,26 +40,32 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ObjectSQLManager {
 
-    private List<IRealConnection> connectionInterface = new ArrayList<IRealConnection>();
+    private CopyOnWriteArrayList<IRealConnection> connectionInterface = new CopyOnWriteArrayList<IRealConnection>();
 
     public List<IRealConnection> getRealConnection(){
         return connectionInterface;
     }
 
     public void register(IRealConnection connection){
-        if(!connectionInterface.contains(connection)){
-            connectionInterface.add(connection);
-        }
+        connectionInterface.addIfAbsent(connection);
     }
     public void deregister(IRealConnection connection){
         connectionInterface.remove(connection);
     }
 
-    private Map<DataSource, String> databaseTypeMap = new HashMap<DataSource, String>();
-    private List<Options> optionsList = Arrays.asList(
+    //读取路径无锁：并发 Map 与注册时重建的不可变包路由前缀树
+    private Map<DataSource, String> databaseTypeMap = new ConcurrentHashMap<DataSource, String>();
+    private CopyOnWriteArrayList<Options> optionsList = new CopyOnWriteArrayList<Options>(
             new Options[]{new H2Options(),
                     new MySQLOptions(),
                     new SQLServerOptions(),
@@ -55,18 +73,34 @@ public class ObjectSQLManager {
                     new PostgreSQLOptions(),
                     new DMOptions()});
 
-    private Map<String, Options> optionsCache = new HashMap<String, Options>();
+    private Map<String, Options> optionsCache = new ConcurrentHashMap<String, Options>();
+
+    //执行上下文按原始数据源缓存，DynamicDataSource 切换 key 后自然取到对应数据源的上下文
+    private Map<DataSource, ExecutionContext> contextMap = new ConcurrentHashMap<DataSource, ExecutionContext>();
 
-    private Map<Class, DataSource> dataSourceMap = new HashMap<Class, DataSource>();
+    //类 -> 数据源 的路由结果，注册或修改默认数据源时清空
+    private Map<Class, DataSource> dataSourceMap = new ConcurrentHashMap<Class, DataSource>();
     private Map<String, DataSource> packageDataSourceMap = new HashMap<String, DataSource>();
-    private Map<String, DataSource> classDataSourceMap = new HashMap<String, DataSource>();
+    private Map<String, DataSource> classDataSourceMap = new ConcurrentHashMap<String, DataSource>();
+    private volatile PackageTrie packageTrie = PackageTrie.build(packageDataSourceMap);
 
     public void register(Class clazz, DataSource dataSource){
-        classDataSourceMap.put(clazz.getName(), dataSource);
+        if(dataSource == null){
+            classDataSourceMap.remove(clazz.getName());
+        }else{
+            classDataSourceMap.put(clazz.getName(), dataSource);
+        }
+        dataSourceMap.clear();
     }
 
-    public void register(String pkg, DataSource dataSource){
-        packageDataSourceMap.put(pkg, dataSource);
+    public synchronized void register(String pkg, DataSource dataSource){
+        if(dataSource == null){
+            packageDataSourceMap.remove(pkg);
+        }else{
+            packageDataSourceMap.put(pkg, dataSource);
+        }
+        packageTrie = PackageTrie.build(packageDataSourceMap);
+        dataSourceMap.clear();
     }
 
     private DataSource dataSource;
@@ -94,6 +128,256 @@ public class ObjectSQLManager {
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
+        dataSourceMap.clear();
+        contextMap.clear();
+    }
+
+    //全局游标读取配置（stream/iterate），可被 service 或 IQuery 覆盖
+    //默认使用驱动默认方式；MySQL STREAM 读取期间同一连接不能执行其他语句，需显式开启
+    private FetchMode fetchMode = FetchMode.DEFAULT;
+    private int fetchSize = 0;
+
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    public void setFetchMode(FetchMode fetchMode) {
+        this.fetchMode = fetchMode;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    //全局批量插入方式，可被 service 覆盖
+    private BatchInsertMode batchInsertMode = BatchInsertMode.BATCH;
+
+    public BatchInsertMode getBatchInsertMode() {
+        return batchInsertMode;
+    }
+
+    public void setBatchInsertMode(BatchInsertMode batchInsertMode) {
+        this.batchInsertMode = batchInsertMode;
+    }
+
+    //全局分页总数统计方式，可被 service、Pageable 覆盖
+    private PageCountMode pageCountMode = PageCountMode.COUNT;
+
+    public PageCountMode getPageCountMode() {
+        return pageCountMode;
+    }
+
+    public void setPageCountMode(PageCountMode pageCountMode) {
+        this.pageCountMode = pageCountMode;
+    }
+
+    //PARALLEL 分页执行 COUNT 的线程池，为空时使用内置的守护线程池
+    private Executor pageExecutor;
+
+    private static volatile Executor defaultPageExecutor;
+
+    public Executor getPageExecutor() {
+        if(pageExecutor != null){
+            return pageExecutor;
+        }
+        if(defaultPageExecutor == null){
+            synchronized (ObjectSQLManager.class){
+                if(defaultPageExecutor == null){
+                    defaultPageExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        private final AtomicInteger index = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "objectsql-page-" + index.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return defaultPageExecutor;
+    }
+
+    public void setPageExecutor(Executor pageExecutor) {
+        this.pageExecutor = pageExecutor;
+    }
+
+    public static final long DEFAULT_ESTIMATE_COUNT_THRESHOLD = 1000000L;
+
+    //全局估算行数阈值，可被 service 覆盖
+    private long estimateCountThreshold = DEFAULT_ESTIMATE_COUNT_THRESHOLD;
+
+    public long getEstimateCountThreshold() {
+        return estimateCountThreshold;
+    }
+
+    public void setEstimateCountThreshold(long estimateCountThreshold) {
+        this.estimateCountThreshold = estimateCountThreshold;
+    }
+
+    //IChangedListener 异步通知，为空时在提交线程同步执行，可被 service 覆盖
+    private ChangedDispatcher changedDispatcher;
+
+    public ChangedDispatcher getChangedDispatcher() {
+        return changedDispatcher;
+    }
+
+    public void setChangedDispatcher(ChangedDispatcher changedDispatcher) {
+        this.changedDispatcher = changedDispatcher;
+    }
+
+    //事务中同一实体的多次变更合并为一次 IChangedListener 通知，可被 service 覆盖
+    private boolean coalesceChanges = false;
+
+    public boolean isCoalesceChanges() {
+        return coalesceChanges;
+    }
+
+    public void setCoalesceChanges(boolean coalesceChanges) {
+        this.coalesceChanges = coalesceChanges;
+    }
+
+    //全局 single-flight 配置（相同的并发读取合并执行），可被 service 覆盖
+    private boolean singleFlight = false;
+
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    //二级缓存（按 类 + 主键），实体类标注 @RdCache 或调用 registerEntityCache 启用
+    private Map<Class, EntityCache> entityCacheMap = new ConcurrentHashMap<Class, EntityCache>();
+    private Set<Class> uncachedClasses = Collections.newSetFromMap(new ConcurrentHashMap<Class, Boolean>());
+
+    public void registerEntityCache(Class clazz, int maxSize, long expireSeconds, CachePolicy policy){
+        entityCacheMap.put(clazz, new EntityCache(maxSize, expireSeconds, policy));
+        uncachedClasses.remove(clazz);
+    }
+
+    //移除后 @RdCache 不再生效
+    public void removeEntityCache(Class clazz){
+        uncachedClasses.add(clazz);
+        entityCacheMap.remove(clazz);
+    }
+
+    //未启用时返回 null
+    public EntityCache getEntityCache(Class clazz){
+        if(clazz == null){
+            return null;
+        }
+        EntityCache cache = entityCacheMap.get(clazz);
+        if(cache != null || uncachedClasses.contains(clazz)){
+            return cache;
+        }
+        RdCache rdCache = (RdCache) clazz.getAnnotation(RdCache.class);
+        if(rdCache == null){
+            uncachedClasses.add(clazz);
+            return null;
+        }
+        EntityCache temp = new EntityCache(rdCache.maxSize(), rdCache.expire(), rdCache.policy());
+        cache = entityCacheMap.putIfAbsent(clazz, temp);
+        return cache != null ? cache : temp;
+    }
+
+    public CacheStats getEntityCacheStats(Class clazz){
+        EntityCache cache = getEntityCache(clazz);
+        return cache == null ? null : cache.getStats();
+    }
+
+    public void clearEntityCache(Class clazz){
+        EntityCache cache = getEntityCache(clazz);
+        if(cache != null){
+            cache.clear();
+        }
+    }
+
+    //清空所有二级缓存中该数据源的条目，用于无法得知写入表的原生 SQL
+    public void clearEntityCaches(DataSource dataSource){
+        DataSource rawDataSource = getRawDataSource(dataSource);
+        for(EntityCache cache : entityCacheMap.values()){
+            cache.clear(rawDataSource);
+        }
+    }
+
+    //查询结果缓存（IQuery.setCacheTtl 或 cached 作用域内启用），按估算的内存大小限制
+    private ResultCache resultCache = new ResultCache(ResultCache.DEFAULT_MAX_WEIGHT);
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCacheMaxWeight(long maxWeight){
+        resultCache.setMaxWeight(maxWeight);
+    }
+
+    public CacheStats getResultCacheStats(){
+        return resultCache.getStats();
+    }
+
+    public void clearResultCache(){
+        resultCache.clear();
+    }
+
+    //元数据缓存（table/columns/tableColumns/tableColumnsClass），默认关闭；createOrUpdate/drop 时失效对应的表
+    private volatile MetadataCache metadataCache;
+    //首次访问数据源时一次加载整个 schema 的表和列
+    private boolean metadataBatchLoad = true;
+
+    //expireSeconds 为 0 时不过期
+    public void enableMetadataCache(long expireSeconds){
+        MetadataCache cache = metadataCache;
+        if(cache != null){
+            cache.setExpire(expireSeconds);
+        }else{
+            metadataCache = new MetadataCache(expireSeconds);
+        }
+    }
+
+    public void disableMetadataCache(){
+        metadataCache = null;
+    }
+
+    //未启用时返回 null
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public boolean isMetadataBatchLoad() {
+        return metadataBatchLoad;
+    }
+
+    public void setMetadataBatchLoad(boolean metadataBatchLoad) {
+        this.metadataBatchLoad = metadataBatchLoad;
+    }
+
+    //外部修改表结构后调用，dataSource 为 null 时全部刷新
+    public void refreshMetadata(DataSource dataSource){
+        MetadataCache cache = metadataCache;
+        if(cache != null){
+            cache.refresh(dataSource == null ? null : getRawDataSource(dataSource));
+        }
+    }
+
+    public CacheStats getMetadataCacheStats(){
+        MetadataCache cache = metadataCache;
+        return cache == null ? null : cache.getStats();
+    }
+
+    //作用域内当前线程的查询结果按 ttl（秒）缓存，写入读取的表时失效
+    public static <T> T cached(long ttlSeconds, Callable<T> callable){
+        return ResultCache.scope(ttlSeconds, callable);
+    }
+
+    //批量加载作用域：其中的 IBaseService.load(id) 按服务合并为 IN 查询，结束时全部完成
+    public static <T> T batchScope(Callable<T> callable){
+        return BatchScope.run(callable);
     }
 
     public Options getOptions(String type){
@@ -101,7 +385,14 @@ public class ObjectSQLManager {
     }
 
     public Options getOptions(Class clazz, Class serviceClass){
-        String productName =  getProductName(clazz, serviceClass);
+        ExecutionContext context = getExecutionContext(clazz, serviceClass);
+        return context == null ? null : context.getOptions();
+    }
+
+    private Options resolveOptions(String productName){
+        if(productName == null){
+            return null;
+        }
         Options options = optionsCache.get(productName);
         if(options == null){
             for(Options temp : optionsList){
@@ -110,36 +401,49 @@ public class ObjectSQLManager {
                     break;
                 }
             }
-            optionsCache.put(productName, options);
+            //不支持的数据库不缓存，之后 registerOptions 的方言可生效
+            if(options != null){
+                optionsCache.put(productName, options);
+            }
         }
         return options;
     }
 
     public void registerOptions(Options options){
-        if (!optionsList.contains(options)){
-            optionsList.add(options);
-        }
+        optionsList.addIfAbsent(options);
+        contextMap.clear();
+    }
+
+    public ExecutionContext getExecutionContext(Class clazz, Class serviceClass){
+        return getExecutionContext(getRawDataSource(getDataSource(clazz, serviceClass)));
     }
 
-    private DataSource getPackageDataSource(Class clazz){
-        if(clazz == null || packageDataSourceMap.isEmpty()){
+    public ExecutionContext getExecutionContext(DataSource raw){
+        if(raw == null){
             return null;
         }
-        String name = clazz.getName();
-        for(String key : packageDataSourceMap.keySet()){
-            if(name.startsWith(key)){
-                DataSource ds = packageDataSourceMap.get(key);
-                dataSourceMap.put(clazz, ds);
-                return ds;
+        ExecutionContext context = contextMap.get(raw);
+        if(context == null){
+            String productName = getProductName(raw);
+            context = new ExecutionContext(raw, resolveOptions(productName), productName);
+            //不支持的数据库不缓存
+            if(context.getOptions() != null){
+                contextMap.put(raw, context);
             }
         }
-        return null;
+        return context;
     }
 
-    public void clearPatternDataSource(){
-        dataSourceMap.clear();
+    //数据源被替换或移除（如 DynamicDataSource 的目标变化）后清除
+    public void clearExecutionContext(){
+        contextMap.clear();
+    }
+
+    public synchronized void clearPatternDataSource(){
         classDataSourceMap.clear();
         packageDataSourceMap.clear();
+        packageTrie = PackageTrie.build(packageDataSourceMap);
+        dataSourceMap.clear();
     }
 
     private DataSource getPatternDataSource(Class clazz){
@@ -149,18 +453,14 @@ public class ObjectSQLManager {
 
         String name = clazz.getName();
         DataSource ds = classDataSourceMap.get(name);
+        if(ds == null){
+            //最长的包前缀优先
+            ds = packageTrie.match(name);
+        }
         if(ds != null){
             dataSourceMap.put(clazz, ds);
-            return ds;
-        }
-        for(String key : packageDataSourceMap.keySet()){
-            if(name.startsWith(key)){
-                ds = packageDataSourceMap.get(key);
-                dataSourceMap.put(clazz, ds);
-                return ds;
-            }
         }
-        return null;
+        return ds;
     }
 
     public DataSource getDataSource(Class clazz, Class serviceClass) {
@@ -168,13 +468,17 @@ public class ObjectSQLManager {
             return dataSource;
         }
         DataSource source = null;
-        if(serviceClass != null && dataSourceMap.containsKey(serviceClass)){
+        if(serviceClass != null){
             source = dataSourceMap.get(serviceClass);
-            return source;
+            if(source != null){
+                return source;
+            }
         }
-        if(clazz != null && dataSourceMap.containsKey(clazz)) {
+        if(clazz != null) {
             source = dataSourceMap.get(clazz);
-            return source;
+            if(source != null){
+                return source;
+            }
         }
         source = getPatternDataSource(serviceClass);
         if(source != null){
@@ -184,13 +488,16 @@ public class ObjectSQLManager {
         if(source != null){
             return source;
         }
-        if(serviceClass != null) {
-            dataSourceMap.put(serviceClass, dataSource);
-        }
-        if(clazz != null) {
-            dataSourceMap.put(clazz, dataSource);
+        DataSource current = dataSource;
+        if(current != null){
+            if(serviceClass != null) {
+                dataSourceMap.put(serviceClass, current);
+            }
+            if(clazz != null) {
+                dataSourceMap.put(clazz, current);
+            }
         }
-        return dataSource;
+        return current;
     }
 
 
@@ -202,6 +509,12 @@ public class ObjectSQLManager {
         return connection;
     }
 
+    public Connection getConnection(ExecutionContext context){
+        Connection connection = DataSourceUtils.getConnection(context.getDataSource());
+        DatabaseTypeHolder.set(context.getDatabaseType());
+        return connection;
+    }
+
     public String getProductName(DataSource raw){
         String type = databaseTypeMap.get(raw);
         if(type != null){
@@ -237,9 +550,16 @@ public class ObjectSQLManager {
     }
 
 
-    public synchronized void close(Class clazz, Class serviceClass, ResultSet rs, Statement stmt, Connection conn){
+    public void close(Class clazz, Class serviceClass, ResultSet rs, Statement stmt, Connection conn){
         DataSource source = getDataSource(clazz, serviceClass);
-        DataSource raw = getRawDataSource(source);
+        close(getRawDataSource(source), rs, stmt, conn);
+    }
+
+    public void close(ExecutionContext context, ResultSet rs, Statement stmt, Connection conn){
+        close(context.getDataSource(), rs, stmt, conn);
+    }
+
+    private void close(DataSource raw, ResultSet rs, Statement stmt, Connection conn){
         try {
             if(rs != null){
                 rs.close();
@@ -255,5 +575,46 @@ public class ObjectSQLManager {
         }
     }
 
+    //包路由前缀树，不可变，注册时整体重建；按字符匹配，与 startsWith 一致
+    private static final class PackageTrie {
+        private final Map<Character, PackageTrie> children = new HashMap<Character, PackageTrie>();
+        private DataSource dataSource;
+
+        static PackageTrie build(Map<String, DataSource> routes){
+            PackageTrie root = new PackageTrie();
+            for(Map.Entry<String, DataSource> entry : routes.entrySet()){
+                PackageTrie node = root;
+                String pkg = entry.getKey();
+                for(int i = 0; i < pkg.length(); i++){
+                    Character c = pkg.charAt(i);
+                    PackageTrie child = node.children.get(c);
+                    if(child == null){
+                        child = new PackageTrie();
+                        node.children.put(c, child);
+                    }
+                    node = child;
+                }
+                node.dataSource = entry.getValue();
+            }
+            return root;
+        }
+
+        //最长匹配的前缀对应的数据源，没有时返回 null
+        DataSource match(String name){
+            DataSource result = dataSource;
+            PackageTrie node = this;
+            for(int i = 0; i < name.length(); i++){
+                node = node.children.get(name.charAt(i));
+                if(node == null){
+                    break;
+                }
+                if(node.dataSource != null){
+                    result = node.dataSource;
+                }
+            }
+            return result;
+        }
+    }
+
 
 }
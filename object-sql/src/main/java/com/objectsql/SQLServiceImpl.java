@@ -19,14 +19,20 @@ import com.objectsql.annotation.RdId;
 import com.objectsql.exception.ORMBatchException;
 import com.objectsql.exception.ORMException;
 import com.objectsql.exception.ORMSQLException;
+import com.objectsql.handler.IQueryConvert;
 import com.objectsql.handler.IResultSetHandler;
 import com.objectsql.handler.ResultSetFunction;
+import com.objectsql.listener.IServiceChangedListener;
 import com.objectsql.support.*;
 import com.objectsql.annotation.RdTable;
 import com.objectsql.handler.DefaultResultSetHandler;
 import com.objectsql.helper.SQLHelper;
+import com.objectsql.helper.RowIterator;
+import com.objectsql.helper.RowMapper;
 import com.objectsql.helper.SQLHelperCreator;
 import com.objectsql.utils.ORMUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import javax.sql.DataSource;
@@ -41,6 +47,8 @@ import java.sql.ResultSetMetaData;
 import java.sql.Timestamp;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 import java.time.LocalDateTime;
 
 public class SQLServiceImpl implements ISQLService{
@@ -62,6 +70,419 @@ public class SQLServiceImpl implements ISQLService{
     protected Class<?> thisClass;
     protected Class<?> serviceClass;
     protected IResultSetHandler resultSetHandler = new DefaultResultSetHandler();
+    protected FetchMode fetchMode;
+    protected int fetchSize = 0;
+
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    public void setFetchMode(FetchMode fetchMode) {
+        this.fetchMode = fetchMode;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    protected BatchInsertMode batchInsertMode;
+
+    public BatchInsertMode getBatchInsertMode() {
+        return batchInsertMode;
+    }
+
+    public void setBatchInsertMode(BatchInsertMode batchInsertMode) {
+        this.batchInsertMode = batchInsertMode;
+    }
+
+    protected BatchInsertMode resolveBatchInsertMode(){
+        if(batchInsertMode != null){
+            return batchInsertMode;
+        }
+        if(objectSQLManager != null && objectSQLManager.getBatchInsertMode() != null){
+            return objectSQLManager.getBatchInsertMode();
+        }
+        return BatchInsertMode.BATCH;
+    }
+
+    protected PageCountMode pageCountMode;
+
+    public PageCountMode getPageCountMode() {
+        return pageCountMode;
+    }
+
+    public void setPageCountMode(PageCountMode pageCountMode) {
+        this.pageCountMode = pageCountMode;
+    }
+
+    //分页总数统计方式：Pageable > service > ObjectSQLManager
+    protected PageCountMode resolvePageCountMode(Pageable page){
+        if(page != null && page.getCountMode() != null){
+            return page.getCountMode();
+        }
+        if(pageCountMode != null){
+            return pageCountMode;
+        }
+        if(objectSQLManager != null && objectSQLManager.getPageCountMode() != null){
+            return objectSQLManager.getPageCountMode();
+        }
+        return PageCountMode.COUNT;
+    }
+
+    //估算行数不小于该值时使用估算值，为 null 时使用 ObjectSQLManager 的配置
+    protected Long estimateCountThreshold;
+
+    public Long getEstimateCountThreshold() {
+        return estimateCountThreshold;
+    }
+
+    public void setEstimateCountThreshold(Long estimateCountThreshold) {
+        this.estimateCountThreshold = estimateCountThreshold;
+    }
+
+    protected long resolveEstimateCountThreshold(){
+        if(estimateCountThreshold != null){
+            return estimateCountThreshold.longValue();
+        }
+        if(objectSQLManager != null){
+            return objectSQLManager.getEstimateCountThreshold();
+        }
+        return ObjectSQLManager.DEFAULT_ESTIMATE_COUNT_THRESHOLD;
+    }
+
+    //IChangedListener 异步通知，为 null 时使用 ObjectSQLManager 的配置
+    protected ChangedDispatcher changedDispatcher;
+
+    public ChangedDispatcher getChangedDispatcher() {
+        return changedDispatcher;
+    }
+
+    public void setChangedDispatcher(ChangedDispatcher changedDispatcher) {
+        this.changedDispatcher = changedDispatcher;
+    }
+
+    protected ChangedDispatcher resolveChangedDispatcher(){
+        if(changedDispatcher != null){
+            return changedDispatcher;
+        }
+        return objectSQLManager == null ? null : objectSQLManager.getChangedDispatcher();
+    }
+
+    //事务中同一实体的多次变更合并通知，为 null 时使用 ObjectSQLManager 的配置
+    protected Boolean coalesceChanges;
+
+    public Boolean getCoalesceChanges() {
+        return coalesceChanges;
+    }
+
+    public void setCoalesceChanges(Boolean coalesceChanges) {
+        this.coalesceChanges = coalesceChanges;
+    }
+
+    protected boolean resolveCoalesceChanges(){
+        if(coalesceChanges != null){
+            return coalesceChanges.booleanValue();
+        }
+        return objectSQLManager != null && objectSQLManager.isCoalesceChanges();
+    }
+
+    //相同的并发读取合并为一次执行，为 null 时使用 ObjectSQLManager 的配置
+    protected Boolean singleFlight;
+
+    public Boolean getSingleFlight() {
+        return singleFlight;
+    }
+
+    public void setSingleFlight(Boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    //事务中需要读到本事务的修改，不合并
+    protected boolean resolveSingleFlight(){
+        boolean enabled = false;
+        if(singleFlight != null){
+            enabled = singleFlight.booleanValue();
+        }else if(objectSQLManager != null){
+            enabled = objectSQLManager.isSingleFlight();
+        }
+        return enabled && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * 按 数据源 + 返回类型 + SQL + 参数值 合并相同的并发读取，各调用方得到结果的副本
+     * @param conn 已获取的连接，等待其他线程的结果时释放；为 null 时由 callable 自行获取
+     */
+    protected <T> T singleFlight(Class<?> clazz, String sql, List<Pair> values, final Connection conn, Callable<T> callable){
+        return singleFlight(clazz, sql, values, conn, callable, null);
+    }
+
+    /**
+     * @param fallback 等待超时或首个线程异常中断时自行执行，conn 已释放，需要重新获取连接；为 null 时使用 callable
+     */
+    protected <T> T singleFlight(Class<?> clazz, String sql, List<Pair> values, final Connection conn, Callable<T> callable, Callable<T> fallback){
+        DataSource dataSource = objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass));
+        Object key = SingleFlight.key(dataSource, clazz, sql, values);
+        return SingleFlight.execute(key, callable, new Runnable() {
+            @Override
+            public void run() {
+                if(conn != null){
+                    closeConnection(null, null, conn);
+                }
+            }
+        }, fallback);
+    }
+
+    //二级缓存，事务中需要读到本事务的修改，不使用
+    protected EntityCache readEntityCache(Class<?> clazz){
+        if(objectSQLManager == null || TransactionSynchronizationManager.isActualTransactionActive()){
+            return null;
+        }
+        return objectSQLManager.getEntityCache(clazz);
+    }
+
+    protected Object entityCacheKey(Object id){
+        DataSource dataSource = objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass));
+        return EntityCache.key(dataSource, id);
+    }
+
+    //单主键实体的主键值，其他返回 null
+    protected Object entityId(Object obj){
+        if(obj == null){
+            return null;
+        }
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(obj.getClass());
+        if(infoList == null){
+            return null;
+        }
+        ColumnInfo primaryKey = null;
+        for(ColumnInfo info : infoList){
+            if(Boolean.TRUE.equals(info.getPrimaryKey())){
+                if(primaryKey != null){
+                    return null;
+                }
+                primaryKey = info;
+            }
+        }
+        return primaryKey == null ? null : ORMUtils.getFieldValue(obj, primaryKey);
+    }
+
+    //一级缓存，仅当前服务的数据源参与 TransactionManager 开启的事务时使用
+    protected IdentityMap identityMap(){
+        IdentityMap identityMap = IdentityMap.current();
+        if(identityMap == null || objectSQLManager == null){
+            return null;
+        }
+        DataSource dataSource = objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass));
+        return TransactionSynchronizationManager.hasResource(dataSource) ? identityMap : null;
+    }
+
+    //写操作后从一级缓存移除，id 为 null 时清空该类，clazz 为 null 时全部清空
+    protected void evictIdentityMap(Class<?> clazz, Object id){
+        IdentityMap identityMap = identityMap();
+        if(identityMap == null){
+            return;
+        }
+        if(clazz == null){
+            identityMap.clear();
+        }else if(id == null){
+            identityMap.clear(clazz);
+        }else{
+            identityMap.remove(clazz, entityCacheKey(id));
+        }
+    }
+
+    /**
+     * 写操作后使二级缓存失效，id 为 null 时清空该类的缓存
+     * 连接非自动提交（事务中）时，在事务提交后再次失效：避免提交前其他线程读到旧值重新放入缓存
+     */
+    protected void evictEntityCache(Class<?> clazz, Object id, Connection conn){
+        if(objectSQLManager == null){
+            return;
+        }
+        final EntityCache cache = objectSQLManager.getEntityCache(clazz);
+        if(cache == null){
+            return;
+        }
+        final Object key = id == null ? null : entityCacheKey(id);
+        Runnable evict = new Runnable() {
+            @Override
+            public void run() {
+                if(key == null){
+                    cache.clear();
+                }else{
+                    cache.evict(key);
+                }
+            }
+        };
+        evict.run();
+        afterTransaction(conn, evict);
+    }
+
+    //原生 SQL 无法得知写入的表，清空该数据源所有二级缓存；事务中同样在提交后再次清空
+    protected void evictEntityCaches(Connection conn){
+        if(objectSQLManager == null){
+            return;
+        }
+        final DataSource dataSource = objectSQLManager.getDataSource(thisClass, serviceClass);
+        Runnable evict = new Runnable() {
+            @Override
+            public void run() {
+                objectSQLManager.clearEntityCaches(dataSource);
+            }
+        };
+        evict.run();
+        afterTransaction(conn, evict);
+    }
+
+    //写入表后使查询结果缓存失效，table 为 null 时全部失效；事务中同 evictEntityCache 在提交后再次失效
+    protected void invalidateResultCache(String table, Connection conn){
+        if(objectSQLManager == null){
+            return;
+        }
+        final ResultCache cache = objectSQLManager.getResultCache();
+        final String tag = table == null ? null : ResultCache.table(table);
+        Runnable invalidate = new Runnable() {
+            @Override
+            public void run() {
+                cache.invalidate(tag);
+            }
+        };
+        invalidate.run();
+        afterTransaction(conn, invalidate);
+    }
+
+    //连接非自动提交时，事务结束后执行（ChangeHolder 由 TransactionManager 提交时触发，回滚时丢弃）
+    private void afterTransaction(Connection conn, final Runnable runnable){
+        boolean autoCommit = true;
+        try {
+            autoCommit = conn == null || conn.getAutoCommit();
+        } catch (SQLException e) {
+            autoCommit = false;
+        }
+        if(autoCommit){
+            return;
+        }
+        boolean cached = ChangeHolder.cache(new PreChangeCache(new IServiceChangedListener() {
+            @Override
+            public void changed(ORMType ormType, ORMOption option) {
+                runnable.run();
+            }
+        }, null, null));
+        if(!cached && TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    runnable.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * 元数据读取：缓存未启用时直接执行；开启整个加载时，首次访问数据源先一次加载所有表和列
+     * @param conn 已获取的连接，用于整个加载；为 null 时自行获取
+     */
+    protected <T> T metadata(String kind, String table, Connection conn, Callable<T> loader){
+        MetadataCache cache = objectSQLManager == null ? null : objectSQLManager.getMetadataCache();
+        if(cache == null){
+            try {
+                return loader.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ORMException("Metadata load error", e);
+            }
+        }
+        DataSource dataSource = objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass));
+        if(objectSQLManager.isMetadataBatchLoad() && !cache.isLoaded(dataSource)){
+            loadMetadata(cache, dataSource, conn);
+        }
+        return cache.get(dataSource, kind, table, loader);
+    }
+
+    private void loadMetadata(MetadataCache cache, DataSource dataSource, Connection conn){
+        Options options = getOptions();
+        if(options == null){
+            return;
+        }
+        long version = cache.version(dataSource);
+        List<Table> tables = null;
+        Map<String, List<TableColumn>> columns = null;
+        Connection temp = conn;
+        try {
+            if(temp == null){
+                temp = getConnection();
+            }
+            Connection connection = getRealConnection(temp);
+            ORMUtils.handleDebugInfo(SQLServiceImpl.class, "loadMetadata", dataSource);
+            tables = options.tables(connection, null);
+            columns = options.schemaColumns(connection);
+        } catch (Exception e) {
+            //整个加载失败时按表加载
+            ORMUtils.handleDebugInfo(SQLServiceImpl.class, "loadMetadata error", e);
+        } finally {
+            if(conn == null){
+                closeConnection(null, null, temp);
+            }
+        }
+        cache.load(dataSource, version, tables, columns);
+    }
+
+    //表结构变更后使元数据缓存失效
+    protected void evictMetadata(String table){
+        MetadataCache cache = objectSQLManager == null ? null : objectSQLManager.getMetadataCache();
+        if(cache != null && table != null){
+            cache.invalidate(objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass)), table);
+        }
+    }
+
+    //查询结果缓存时间：查询的设置 > ObjectSQLManager.cached 作用域；事务中不缓存
+    protected long resolveResultCacheTtl(long cacheTtl){
+        if(objectSQLManager == null || TransactionSynchronizationManager.isActualTransactionActive()){
+            return 0;
+        }
+        return cacheTtl > 0 ? cacheTtl : ResultCache.scopeTtl();
+    }
+
+    /**
+     * 查询结果缓存，ttl 不大于 0 时直接执行
+     * @param tables 读取的表，写入时失效
+     * @param conn 已获取的连接，命中时释放；为 null 时由 callable 自行获取
+     */
+    protected <T> T resultCache(long ttl, Set<String> tables, Class<?> clazz, String sql, List<Pair> values,
+                                Connection conn, Callable<T> callable){
+        ResultCache cache = ttl > 0 ? objectSQLManager.getResultCache() : null;
+        Object key = null;
+        long sequence = 0;
+        if(cache != null){
+            DataSource dataSource = objectSQLManager.getRawDataSource(objectSQLManager.getDataSource(thisClass, serviceClass));
+            key = SingleFlight.key(dataSource, clazz, sql, values);
+            Object value = cache.get(key);
+            if(value != null){
+                if(conn != null){
+                    closeConnection(null, null, conn);
+                }
+                return (T)value;
+            }
+            sequence = cache.sequence();
+        }
+        T result;
+        try {
+            result = callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException("Result cache error", e);
+        }
+        if(cache != null){
+            cache.put(key, result, tables, ttl, sequence);
+        }
+        return result;
+    }
 
     public IResultSetHandler getResultSetHandler() {
         return resultSetHandler;
@@ -76,10 +497,16 @@ public class SQLServiceImpl implements ISQLService{
     }
 
     public Options getOptions(){
+        ExecutionContext context = context();
+        return context == null ? null : context.getOptions();
+    }
+
+    //本次操作的执行上下文：数据源、方言只解析一次，之后的连接获取、SQL 生成、参数设置、关闭都使用它
+    protected ExecutionContext context(){
         if(objectSQLManager == null){
             return null;
         }
-        return objectSQLManager.getOptions(thisClass, serviceClass);
+        return objectSQLManager.getExecutionContext(thisClass, serviceClass);
     }
 
     @Override
@@ -119,28 +546,36 @@ public class SQLServiceImpl implements ISQLService{
 
     @Override
     public boolean execute(String sql, Object... params) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         Connection conn = null;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "execute", sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
-            setParams(ps, params, conn);
-            return ps.execute();
+            setParams(context, ps, params, conn);
+            boolean result = ps.execute();
+            //非查询语句，无法得知写入的表
+            if(!result){
+                evictIdentityMap(null, null);
+                evictEntityCaches(conn);
+                invalidateResultCache(null, conn);
+            }
+            return result;
         } catch (SQLException e) {
             throw new ORMSQLException(e, "execute").put("sql", sql).put("params", params);
         } finally{
-            closeConnection(null, ps, conn);
+            closeConnection(context, null, ps, conn);
         }
     }
 
-    private void setParams(PreparedStatement ps, Object[] params, Connection connection) throws SQLException {
+    private void setParams(ExecutionContext context, PreparedStatement ps, Object[] params, Connection connection) throws SQLException {
         if(params != null && params.length > 0){
             List<Pair> pairList = new ArrayList<Pair>();
             for(Object object : params){
                 pairList.add(new Pair(object));
             }
-            SQLHelperCreator.setParameter(getOptions(), ps, pairList, connection);
+            SQLHelperCreator.setParameter(context, ps, pairList, connection);
         }
     }
 
@@ -151,19 +586,20 @@ public class SQLServiceImpl implements ISQLService{
 
     @Override
     public void query(String sql, Object[] params, ResultSetFunction function) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         Connection conn = null;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "query", sql, params, function);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
             if(params != null) {
                 List<Pair> pairList = new ArrayList<Pair>();
                 for(Object param : params ){
                     pairList.add(new Pair(param));
                 }
-                SQLHelperCreator.setParameter(getOptions(), ps, pairList, conn);
+                SQLHelperCreator.setParameter(context, ps, pairList, conn);
             }
             rs = ps.executeQuery();
             while (rs.next()) {
@@ -172,12 +608,13 @@ public class SQLServiceImpl implements ISQLService{
         } catch (SQLException e) {
             throw new ORMSQLException(e, "query").put("sql", sql).put("params", params).put("function", function);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
     }
 
     @Override
     public boolean executeBatch(String sql, boolean autoCommit, boolean rollback, Object[]... params) {
+        ExecutionContext context = context();
         ResultSet rs = null;
         PreparedStatement ps = null;
         Connection conn = null;
@@ -185,13 +622,13 @@ public class SQLServiceImpl implements ISQLService{
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "executeBatch", sql, autoCommit, rollback, params);
             if(params != null){
-                conn = getConnection();
+                conn = getConnection(context);
                 ps = conn.prepareStatement(sql);
                 if(!autoCommit) {
                     conn.setAutoCommit(false);
                 }
                 for(int i = 0; i < params.length; i++) {
-                    setParams(ps, params[i], conn);
+                    setParams(context, ps, params[i], conn);
                     ps.addBatch();
                 }
                 ps.executeBatch();
@@ -199,6 +636,9 @@ public class SQLServiceImpl implements ISQLService{
                 if (!autoCommit) {
                     conn.commit();
                 }
+                evictIdentityMap(null, null);
+                evictEntityCaches(conn);
+                invalidateResultCache(null, conn);
                 result = true;
             }else{
                 return false;
@@ -218,7 +658,7 @@ public class SQLServiceImpl implements ISQLService{
                 } catch (SQLException e) {
                 }
             }
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
 
         }
         return result;
@@ -226,20 +666,21 @@ public class SQLServiceImpl implements ISQLService{
 
     @Override
     public <T> T queryObject(Class<T> clazz, String sql, Object... params) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         T temp = null;
         Connection conn = null;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryObject", clazz, sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
             if(params != null) {
                 List<Pair> pairList = new ArrayList<Pair>();
                 for(Object param : params ){
                     pairList.add(new Pair(param));
                 }
-                SQLHelperCreator.setParameter(getOptions(), ps, pairList, conn);
+                SQLHelperCreator.setParameter(context, ps, pairList, conn);
             }
             rs = ps.executeQuery();
             if (rs.next()) {
@@ -250,13 +691,14 @@ public class SQLServiceImpl implements ISQLService{
         } catch (IllegalAccessException e) {
             throw new ORMSQLException(e, "query").put("class", clazz).put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
     @Override
     public <T> List<T> queryObjectList(Class<T> clazz, String sql, Object... params) {
+        ExecutionContext context = context();
         PreparedStatement ps = null;
         ResultSet rs = null;
         List<T> temp = new ArrayList<T>();
@@ -264,7 +706,7 @@ public class SQLServiceImpl implements ISQLService{
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryObjectList", clazz, sql, params);
 
-            conn = getConnection();
+            conn = getConnection(context);
 
             ps = conn.prepareStatement(sql);
             if(params != null) {
@@ -272,11 +714,12 @@ public class SQLServiceImpl implements ISQLService{
                 for(Object param : params ){
                     pairList.add(new Pair(param));
                 }
-                SQLHelperCreator.setParameter(getOptions(), ps, pairList, conn);
+                SQLHelperCreator.setParameter(context, ps, pairList, conn);
             }
             rs = ps.executeQuery();
+            RowMapper<T> mapper = RowMapper.create(clazz, rs);
             while (rs.next()) {
-                T tmp = SQLHelperCreator.newClass(clazz, rs, resultSetHandler);
+                T tmp = mapper.map(rs, resultSetHandler);
                 temp.add(tmp);
             }
         } catch (SQLException e) {
@@ -284,85 +727,185 @@ public class SQLServiceImpl implements ISQLService{
         } catch (IllegalAccessException e) {
             throw new ORMSQLException(e, "queryObjectList").put("class", clazz).put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
     @Override
     public Map<String, Object> queryMap(String sql, Object... params) {
+        ExecutionContext context = context();
         ResultSet rs = null;
         PreparedStatement ps = null;
         Connection conn = null;
         Map<String, Object> tempMap = null;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryMap", sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
-            setParams(ps, params, conn);
+            setParams(context, ps, params, conn);
             rs = ps.executeQuery();
             if(rs.next()){
-                ResultSetMetaData metaMap = rs.getMetaData();
-                tempMap = new HashMap<String, Object>();
-                for(int i = 1; i <= metaMap.getColumnCount(); i++){
-                    Object obj = rs.getObject(i);
-                    KV kv = resultSetHandler.parseMap(metaMap, i, obj, rs);
-                    if(kv != null) {
-                        tempMap.put(kv.getKey(), kv.getValue());
-                    }
-                }
+                tempMap = RowMapper.toMap(ResultSetShape.create(rs), rs, resultSetHandler);
             }
         } catch (SQLException e) {
             throw new ORMSQLException(e, "queryMap").put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return tempMap;
     }
 
     @Override
-    public List<Map<String, Object>> queryMapList(String sql, Object... params) {
+    public List<Map<String, Object>> queryMapList(final String sql, final Object... params) {
+        long ttl = resolveResultCacheTtl(0);
+        if(ttl <= 0){
+            return doQueryMapList(sql, params);
+        }
+        List<Pair> pairList = new ArrayList<Pair>();
+        if(params != null){
+            for(Object param : params){
+                pairList.add(new Pair(param));
+            }
+        }
+        return resultCache(ttl, Collections.singleton(ResultCache.ALL_TABLES), Map.class, sql, pairList, null,
+                new Callable<List<Map<String, Object>>>() {
+            @Override
+            public List<Map<String, Object>> call() throws Exception {
+                return doQueryMapList(sql, params);
+            }
+        });
+    }
+
+    private List<Map<String, Object>> doQueryMapList(String sql, Object... params) {
+        ExecutionContext context = context();
         ResultSet rs = null;
         PreparedStatement ps = null;
         Connection conn = null;
         List<Map<String, Object>> temp = new ArrayList<Map<String, Object>>();
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryMapList", sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
-            setParams(ps, params, conn);
+            setParams(context, ps, params, conn);
             rs = ps.executeQuery();
+            ResultSetShape shape = ResultSetShape.create(rs);
             while(rs.next()){
-                ResultSetMetaData metaMap = rs.getMetaData();
-                Map<String, Object> tempMap = new HashMap<String, Object>();
-                for(int i = 1; i <= metaMap.getColumnCount(); i++){
-                    Object obj = rs.getObject(i);
-                    KV kv = resultSetHandler.parseMap(metaMap, i, obj, rs);
-                    if(kv != null) {
-                        tempMap.put(kv.getKey(), kv.getValue());
-                    }
-                }
-                temp.add(tempMap);
+                temp.add(RowMapper.toMap(shape, rs, resultSetHandler));
             }
         } catch (SQLException e) {
             throw new ORMSQLException(e, "queryMapList").put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
+    @Override
+    public <T> Stream<T> stream(Class<T> clazz, String sql, Object... params) {
+        RowIterator<T> iterator = iterate(clazz, sql, params);
+        return iterator.stream();
+    }
+
+    @Override
+    public <T> RowIterator<T> iterate(Class<T> clazz, String sql, Object... params) {
+        ORMUtils.handleDebugInfo(SQLServiceImpl.class, "iterate", clazz, sql, params);
+        List<Pair> pairList = new ArrayList<Pair>();
+        if(params != null) {
+            for(Object param : params ){
+                pairList.add(new Pair(param));
+            }
+        }
+        return openIterator(clazz, sql, pairList, null, null, 0);
+    }
+
+    protected <T> RowIterator<T> openIterator(Class clazz, String sql, List<Pair> pairs, IQueryConvert queryConvert,
+                                              FetchMode fetchMode, int fetchSize) {
+        final ExecutionContext context = context();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        boolean autoCommitChanged = false;
+        try {
+            Options options = context == null ? null : context.getOptions();
+            FetchMode mode = resolveFetchMode(fetchMode);
+            int size = resolveFetchSize(fetchSize);
+            conn = getConnection(context);
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if(options != null) {
+                autoCommitChanged = options.prepareFetch(conn, ps, mode, size);
+            }
+            SQLHelperCreator.setParameter(context, ps, pairs, conn);
+            rs = ps.executeQuery();
+            ResultSetShape shape = ResultSetShape.create(rs);
+            if(options != null) {
+                options.adaptFetchSize(rs, shape, mode, size);
+            }
+            RowMapper<T> mapper = RowMapper.create(clazz, shape);
+            final Connection connection = conn;
+            final PreparedStatement statement = ps;
+            final ResultSet resultSet = rs;
+            final boolean resetAutoCommit = autoCommitChanged;
+            return new RowIterator<T>(rs, mapper, queryConvert, resultSetHandler, new Runnable() {
+                @Override
+                public void run() {
+                    closeConnection(context, resultSet, statement, connection, resetAutoCommit);
+                }
+            });
+        } catch (SQLException e) {
+            closeConnection(context, rs, ps, conn, autoCommitChanged);
+            throw new ORMSQLException(e, "iterate").put("class", clazz).put("sql", sql).put("params", pairs);
+        } catch (RuntimeException e) {
+            closeConnection(context, rs, ps, conn, autoCommitChanged);
+            throw e;
+        }
+    }
+
+    protected FetchMode resolveFetchMode(FetchMode mode){
+        if(mode != null){
+            return mode;
+        }
+        if(fetchMode != null){
+            return fetchMode;
+        }
+        if(objectSQLManager != null && objectSQLManager.getFetchMode() != null){
+            return objectSQLManager.getFetchMode();
+        }
+        return FetchMode.DEFAULT;
+    }
+
+    protected int resolveFetchSize(int size){
+        if(size > 0){
+            return size;
+        }
+        if(fetchSize > 0){
+            return fetchSize;
+        }
+        if(objectSQLManager != null){
+            return objectSQLManager.getFetchSize();
+        }
+        return 0;
+    }
+
+    protected boolean prepareFetch(ExecutionContext context, Connection conn, PreparedStatement ps, FetchMode mode, int size) throws SQLException {
+        if(context == null){
+            return false;
+        }
+        return context.getOptions().prepareFetch(conn, ps, mode, size);
+    }
+
     @Override
     public int queryCount(String sql, Object... params) {
+        ExecutionContext context = context();
         ResultSet rs = null;
         PreparedStatement ps = null;
         Connection conn = null;
         int temp = 0;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryCount", sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
-            setParams(ps, params, conn);
+            setParams(context, ps, params, conn);
             rs = ps.executeQuery();
             if(rs.next()){
                 temp = rs.getInt(1);
@@ -370,21 +913,22 @@ public class SQLServiceImpl implements ISQLService{
         } catch (SQLException e) {
             throw new ORMSQLException(e, "queryCount").put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
 
     public Object queryResult(String sql, Object... params) {
+        ExecutionContext context = context();
         ResultSet rs = null;
         PreparedStatement ps = null;
         Connection conn = null;
         Object temp = null;
         try {
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "queryResult", sql, params);
-            conn = getConnection();
+            conn = getConnection(context);
             ps = conn.prepareStatement(sql);
-            setParams(ps, params, conn);
+            setParams(context, ps, params, conn);
             rs = ps.executeQuery();
             if(rs.next()){
                 temp = rs.getObject(1);
@@ -392,7 +936,7 @@ public class SQLServiceImpl implements ISQLService{
         } catch (SQLException e) {
             throw new ORMSQLException(e, "queryResult").put("sql", sql).put("params", params);
         } finally{
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
         }
         return temp;
     }
@@ -404,6 +948,29 @@ public class SQLServiceImpl implements ISQLService{
         objectSQLManager.close(thisClass, serviceClass, rs, stmt, conn);
     }
 
+    protected void closeConnection(ExecutionContext context, ResultSet rs, Statement stmt, Connection conn){
+        if(context == null){
+            return;
+        }
+        objectSQLManager.close(context, rs, stmt, conn);
+    }
+
+    //游标读取时关闭过 autoCommit（PostgreSQL），先关闭结果集再恢复
+    protected void closeConnection(ExecutionContext context, ResultSet rs, Statement stmt, Connection conn, boolean resetAutoCommit){
+        if(!resetAutoCommit || conn == null){
+            closeConnection(context, rs, stmt, conn);
+            return;
+        }
+        try {
+            closeConnection(context, rs, stmt, null);
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new ORMSQLException(e, "closeConnection");
+        } finally {
+            closeConnection(context, null, null, conn);
+        }
+    }
+
     @Override
     public Connection getConnection() {
         if(objectSQLManager == null){
@@ -412,6 +979,13 @@ public class SQLServiceImpl implements ISQLService{
         return objectSQLManager.getConnection(thisClass, serviceClass);
     }
 
+    protected Connection getConnection(ExecutionContext context) {
+        if(context == null){
+            return null;
+        }
+        return objectSQLManager.getConnection(context);
+    }
+
     @Override
     public Date getDatabaseDateTime() {
         Double longTime = getDatabaseNanoTime();
@@ -564,9 +1138,10 @@ public class SQLServiceImpl implements ISQLService{
         PreparedStatement ps = null;
         Connection conn = null;
         int index = 0;
+        ExecutionContext context = context();
         try {
 
-            List<SQLHelper> helpers = SQLHelperCreator.inserts(ts, getOptions());
+            List<SQLHelper> helpers = SQLHelperCreator.inserts(ts, context);
 
             if(helpers.isEmpty()){
                 return new ArrayList<S>();
@@ -582,13 +1157,53 @@ public class SQLServiceImpl implements ISQLService{
                 rdId = helper.getIdField().getAnnotation(RdId.class);
             }
 
-            conn = getConnection();
+            conn = getConnection(context);
 
             if(!autoCommit) {
                 conn.setAutoCommit(false);
             }
 
-            if(rdId != null && rdId.autoIncrement()) {
+            boolean generatedKeys = rdId != null && rdId.autoIncrement();
+            Options options = context.getOptions();
+            //多行 INSERT 无法取回每行主键（或 Oracle 序列在 INSERT ALL 中只取一次）时使用 addBatch
+            boolean multiValues = resolveBatchInsertMode() == BatchInsertMode.MULTI_VALUES && options.maxInsertRows() > 1
+                    && (!generatedKeys || (options.multiRowInsertKeys() && ORMUtils.isEmpty(rdId.sequence())));
+            if(multiValues){
+                int parameterCount = Math.max(1, helper.getParameters().size());
+                int rows = Math.min(options.maxInsertRows(), Math.max(1, options.maxInsertParameters() / parameterCount));
+                rows = Math.max(1, Math.min(rows, batchCount));
+                for (int i = 0; i < helpers.size(); i += rows){
+                    index = i;
+                    int count = Math.min(rows, helpers.size() - i);
+                    //整块复用同一语句，最后不足一块时重新生成
+                    if(ps == null || count != rows){
+                        if(ps != null){
+                            ps.close();
+                        }
+                        String sql = options.multiRowInsert(helper.getSql(), count);
+                        if(generatedKeys) {
+                            ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                        }else{
+                            ps = conn.prepareStatement(sql);
+                        }
+                    }
+                    List<Pair> parameters = new ArrayList<Pair>(count * parameterCount);
+                    for(int j = i; j < i + count; j++){
+                        parameters.addAll(helpers.get(j).getParameters());
+                    }
+                    SQLHelperCreator.setParameter(context, ps, parameters, conn);
+                    ps.executeUpdate();
+                    if(generatedKeys) {
+                        fillGeneratedKeys(ps, ts, helper, i);
+                    }
+                }
+                if(!autoCommit){
+                    conn.commit();
+                }
+                invalidateObjectsResultCache(ts, conn);
+                return ts;
+            }
+            if(generatedKeys) {
                 ps = conn.prepareStatement(helper.getSql(), Statement.RETURN_GENERATED_KEYS);
             }else{
                 ps = conn.prepareStatement(helper.getSql());
@@ -599,20 +1214,12 @@ public class SQLServiceImpl implements ISQLService{
                 if(i <= lastIndex){
                     for(int j = i; j <= lastIndex; j++){
                         SQLHelper sqlHelper = helpers.get(j);
-                        SQLHelperCreator.setParameter(getOptions(), ps, sqlHelper.getParameters(), conn);
+                        SQLHelperCreator.setParameter(context, ps, sqlHelper.getParameters(), conn);
                         ps.addBatch();
                     }
                     ps.executeBatch();
-                    if(rdId != null && rdId.autoIncrement()) {
-                        ResultSet seqRs = ps.getGeneratedKeys();
-                        int j = i;
-                        while(seqRs.next()) {
-                            Object key = seqRs.getObject(1);
-                            S s = ts.get(j);
-                            helper.setId(s, key);
-                            j++;
-                        }
-                        seqRs.close();
+                    if(generatedKeys) {
+                        fillGeneratedKeys(ps, ts, helper, i);
                     }
                     ps.clearBatch();
                 }
@@ -620,6 +1227,7 @@ public class SQLServiceImpl implements ISQLService{
             if(!autoCommit){
                 conn.commit();
             }
+            invalidateObjectsResultCache(ts, conn);
         } catch (SQLException e) {
             if(!autoCommit && rollback) {
                 try {
@@ -635,12 +1243,126 @@ public class SQLServiceImpl implements ISQLService{
                 } catch (SQLException e) {
                 }
             }
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
 
         }
         return ts;
     }
 
+    private void invalidateObjectsResultCache(List<?> ts, Connection conn){
+        Set<Class> classes = new HashSet<Class>();
+        for(Object t : ts){
+            evictIdentityMap(t.getClass(), entityId(t));
+            if(classes.add(t.getClass())){
+                invalidateResultCache(ORMUtils.getTableName(t.getClass()), conn);
+            }
+        }
+    }
+
+    private <S> void fillGeneratedKeys(PreparedStatement ps, List<S> ts, SQLHelper helper, int start) throws SQLException {
+        ResultSet seqRs = ps.getGeneratedKeys();
+        int j = start;
+        while(seqRs.next()) {
+            Object key = seqRs.getObject(1);
+            S s = ts.get(j);
+            helper.setId(s, key);
+            j++;
+        }
+        seqRs.close();
+    }
+
+    //不支持原生导入时，每批交给 batchInserts 的对象个数
+    private static final int BULK_FALLBACK_SIZE = 1000;
+
+    @Override
+    public <S> long bulkLoad(List<S> ts) {
+        if(ts == null || ts.isEmpty()){
+            return 0;
+        }
+        return bulkLoad(ts.iterator());
+    }
+
+    @Override
+    public <S> long bulkLoad(Stream<S> stream) {
+        try {
+            return bulkLoad(stream.iterator());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private <S> long bulkLoad(final Iterator<S> iterator){
+        if(!iterator.hasNext()){
+            return 0;
+        }
+        final S first = iterator.next();
+        final Class clazz = first.getClass();
+        final Options options = getOptions();
+        final List<ColumnInfo> infos = SQLHelperCreator.bulkColumns(clazz);
+        long count = -1;
+        if(infos != null && !infos.isEmpty()){
+            List<String> columns = new ArrayList<String>();
+            for(ColumnInfo info : infos){
+                columns.add(info.getColumnName());
+            }
+            Iterator<List<Pair>> rows = new Iterator<List<Pair>>() {
+                private boolean started = false;
+
+                @Override
+                public boolean hasNext() {
+                    return !started || iterator.hasNext();
+                }
+
+                @Override
+                public List<Pair> next() {
+                    Object obj = first;
+                    if(started){
+                        obj = iterator.next();
+                        if(!clazz.equals(obj.getClass())){
+                            throw new ORMException("Error class, [" + clazz.getName() + "] but [" + obj.getClass() + "]");
+                        }
+                    }
+                    started = true;
+                    return SQLHelperCreator.bulkValues(obj, options, infos);
+                }
+            };
+            String table = ORMUtils.getTableName(clazz);
+            ORMUtils.handleDebugInfo(SQLServiceImpl.class, "bulkLoad", table, columns);
+            Connection conn = null;
+            try {
+                conn = getConnection();
+                count = options.bulkLoad(conn, table, columns, rows);
+                if(count > -1){
+                    evictIdentityMap(clazz, null);
+                    invalidateResultCache(table, conn);
+                }
+            } catch (SQLException e) {
+                throw new ORMSQLException(e, "bulkLoad").put("table", table).put("columns", columns);
+            } finally {
+                closeConnection(null, null, conn);
+            }
+        }
+        if(count > -1){
+            return count;
+        }
+        //方言不支持（或含二进制列）时分批回退到 batchInserts，rows 尚未读取
+        count = 0;
+        List<S> batch = new ArrayList<S>();
+        batch.add(first);
+        while (true){
+            while (batch.size() < BULK_FALLBACK_SIZE && iterator.hasNext()){
+                batch.add(iterator.next());
+            }
+            batchInserts(batch, batch.size());
+            count += batch.size();
+            if(!iterator.hasNext()){
+                break;
+            }
+            batch = new ArrayList<S>();
+        }
+        return count;
+    }
+
     public boolean batchUpdates(List ts, String[] columns,  int batchCount, boolean autoCommit, boolean rollback) {
         //autoCommit true, rollback  无效
         //autoCommit false rollback true: 回滚， false: 不回滚
@@ -653,8 +1375,9 @@ public class SQLServiceImpl implements ISQLService{
         PreparedStatement ps = null;
         Connection conn = null;
         int index = 0;
+        ExecutionContext context = context();
         try {
-            List<SQLHelper> helpers = SQLHelperCreator.updates(ts, columns == null ? null : Arrays.asList(columns));
+            List<SQLHelper> helpers = SQLHelperCreator.updates(ts, context, columns == null ? null : Arrays.asList(columns));
 
             if(helpers.isEmpty()){
                 return result;
@@ -663,7 +1386,7 @@ public class SQLServiceImpl implements ISQLService{
 
             ORMUtils.handleDebugInfo(SQLServiceImpl.class, "batchUpdates", helper);
 
-            conn = getConnection();
+            conn = getConnection(context);
 
             if(!autoCommit) {
                 conn.setAutoCommit(false);
@@ -677,7 +1400,7 @@ public class SQLServiceImpl implements ISQLService{
                 if(i <= lastIndex){
                     for(int j = i; j <= lastIndex; j++){
                         SQLHelper sqlHelper = helpers.get(j);
-                        SQLHelperCreator.setParameter(getOptions(), ps, sqlHelper.getParameters(), conn);
+                        SQLHelperCreator.setParameter(context, ps, sqlHelper.getParameters(), conn);
                         ps.addBatch();
                     }
                     ps.executeBatch();
@@ -687,6 +1410,11 @@ public class SQLServiceImpl implements ISQLService{
             if(!autoCommit){
                 conn.commit();
             }
+            for(Object t : ts){
+                evictEntityCache(t.getClass(), entityId(t), conn);
+                evictIdentityMap(t.getClass(), entityId(t));
+            }
+            invalidateObjectsResultCache(ts, conn);
             result = true;
         } catch (SQLException e) {
             if(!autoCommit && rollback) {
@@ -703,7 +1431,7 @@ public class SQLServiceImpl implements ISQLService{
                 } catch (SQLException e) {
                 }
             }
-            closeConnection(rs, ps, conn);
+            closeConnection(context, rs, ps, conn);
 
         }
         return result;
@@ -797,6 +1525,7 @@ public class SQLServiceImpl implements ISQLService{
             throw new ORMSQLException(e, "createOrUpdate," + table.getName()).put("class", table);
         }finally{
             closeConnection(null, null, temp);
+            evictMetadata(options.getTableName(rdTable));
         }
 
     }
@@ -836,6 +1565,7 @@ public class SQLServiceImpl implements ISQLService{
             }
         }finally{
             closeConnection(null, null, temp);
+            evictMetadata(table.getName());
         }
     }
 
@@ -875,6 +1605,7 @@ public class SQLServiceImpl implements ISQLService{
             }
         }finally{
             closeConnection(null, null, temp);
+            evictMetadata(table.getName());
         }
 
     }
@@ -925,10 +1656,19 @@ public class SQLServiceImpl implements ISQLService{
         if(rdTable == null){
             throw new ORMException(String.format("Class[%s] Table annotation(RdTable) not found.", clazz.getName()));
         }
-        Options options = getOptions();
+        final Options options = getOptions();
         if(options == null){
             throw new ORMSQLException("Query Table Not Support : " + rdTable.name()).put("class", clazz);
         }
+        return metadata(MetadataCache.RD_TABLE, options.getTableName(rdTable), null, new Callable<Table>() {
+            @Override
+            public Table call() throws Exception {
+                return doTable(options, rdTable, clazz);
+            }
+        });
+    }
+
+    private Table doTable(Options options, RdTable rdTable, Class<?> clazz){
         Connection temp = getConnection();
         try{
             Connection connection = getRealConnection(temp);
@@ -947,10 +1687,19 @@ public class SQLServiceImpl implements ISQLService{
         if(ORMUtils.isEmpty(tableName)){
             throw new ORMException("TableName is empty");
         }
-        Options options = getOptions();
+        final Options options = getOptions();
         if(options == null){
             throw new ORMSQLException("Query Table Not Support : " + tableName).put("tableName", tableName);
         }
+        return metadata(MetadataCache.TABLE, tableName, null, new Callable<Table>() {
+            @Override
+            public Table call() throws Exception {
+                return doTable(options, tableName);
+            }
+        });
+    }
+
+    private Table doTable(Options options, String tableName){
         Connection temp = getConnection();
         try {
             Connection connection = getRealConnection(temp);
@@ -973,10 +1722,19 @@ public class SQLServiceImpl implements ISQLService{
         if(rdTable == null){
             throw new ORMException(String.format("Class[%s] Table annotation(RdTable) not found.", clazz.getName()));
         }
-        Options options = getOptions();
+        final Options options = getOptions();
         if(options == null){
             throw new ORMSQLException("Query columns Not Support : " + clazz.getName()).put("class", clazz);
         }
+        return metadata(MetadataCache.RD_COLUMNS, options.getTableName(rdTable), null, new Callable<List<TableColumn>>() {
+            @Override
+            public List<TableColumn> call() throws Exception {
+                return doColumns(options, rdTable, clazz);
+            }
+        });
+    }
+
+    private List<TableColumn> doColumns(Options options, RdTable rdTable, Class<?> clazz){
         Connection temp = getConnection();
         try{
             Connection connection = getRealConnection(temp);
@@ -1021,28 +1779,37 @@ public class SQLServiceImpl implements ISQLService{
 
     @Override
     public List<TableColumn> tableColumns(String tableName) {
-        Connection temp = getConnection();
-        try{
-           return tableColumns(temp, tableName);
-        }finally{
-            closeConnection(null, null, temp);
-        }
+        return doTableColumns(null, tableName);
     }
 
     @Override
     public List<TableColumn> tableColumns(Connection temp, String tableName) {
-        List<TableColumn> columns = null;
-        Options options = getOptions();
+        return doTableColumns(temp, tableName);
+    }
+
+    //conn 为 null 时，缓存未命中才获取连接
+    private List<TableColumn> doTableColumns(final Connection conn, final String tableName) {
+        final Options options = getOptions();
         if(options == null){
-            throw new ORMSQLException("Query Table Columns Not Support : " + tableName).put("connection", temp).put("tableName", tableName);
-        }
-        try {
-            columns = options.columns(temp, tableName);
-        }catch (ORMException e){
-            throw e;
-        }catch (Exception e){
-            throw new ORMSQLException(e, "tableColumns").put("connection", temp).put("tableName", tableName);
+            throw new ORMSQLException("Query Table Columns Not Support : " + tableName).put("connection", conn).put("tableName", tableName);
         }
+        List<TableColumn> columns = metadata(MetadataCache.COLUMNS, tableName, conn, new Callable<List<TableColumn>>() {
+            @Override
+            public List<TableColumn> call() throws Exception {
+                Connection temp = conn == null ? getConnection() : conn;
+                try {
+                    return options.columns(temp, tableName);
+                }catch (ORMException e){
+                    throw e;
+                }catch (Exception e){
+                    throw new ORMSQLException(e, "tableColumns").put("connection", temp).put("tableName", tableName);
+                }finally{
+                    if(conn == null){
+                        closeConnection(null, null, temp);
+                    }
+                }
+            }
+        });
         if(columns != null && !columns.isEmpty()){
             List<ColumnClass> columnClasses = tableColumnsClass(tableName);
             Map<String, String> columnClassMap = new HashMap<String, String>();
@@ -1060,21 +1827,37 @@ public class SQLServiceImpl implements ISQLService{
 
     @Override
     public List<ColumnClass> tableColumnsClass(String tableName) {
-        Connection temp = null;
-        try {
-            temp = getConnection();
-            return tableColumnsClass(temp, tableName);
-        }finally {
-            closeConnection(null, null, temp);
-        }
+        return doTableColumnsClass(null, tableName);
     }
 
     @Override
     public List<ColumnClass> tableColumnsClass(Connection temp, String tableName) {
+        return doTableColumnsClass(temp, tableName);
+    }
+
+    //conn 为 null 时，缓存未命中才获取连接
+    private List<ColumnClass> doTableColumnsClass(final Connection conn, final String tableName) {
         Options options = getOptions();
         if(options == null){
-            throw new ORMSQLException("Query Table Columns Not Support : " + tableName).put("connection", temp).put("tableName", tableName);
+            throw new ORMSQLException("Query Table Columns Not Support : " + tableName).put("connection", conn).put("tableName", tableName);
         }
+        return metadata(MetadataCache.COLUMN_CLASSES, tableName, conn, new Callable<List<ColumnClass>>() {
+            @Override
+            public List<ColumnClass> call() throws Exception {
+                Connection temp = null;
+                try {
+                    temp = conn == null ? getConnection() : conn;
+                    return loadTableColumnsClass(temp, tableName);
+                }finally {
+                    if(conn == null){
+                        closeConnection(null, null, temp);
+                    }
+                }
+            }
+        });
+    }
+
+    private List<ColumnClass> loadTableColumnsClass(Connection temp, String tableName) {
         Statement stmt = null;
         ResultSet rs = null;
         List<ColumnClass> columnClasses = new ArrayList<ColumnClass>();
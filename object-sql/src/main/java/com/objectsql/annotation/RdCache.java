@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.annotation;
+
+import com.objectsql.support.CachePolicy;
+
+import java.lang.annotation.*;
+
+/**
+ * 启用二级缓存（按 类 + 主键），get(id) 时使用；insert/update/delete 时失效，事务中在提交后失效
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RdCache {
+
+	int maxSize() default 10000;//最大条数
+	long expire() default 0;//过期时间（秒），0 不过期
+	CachePolicy policy() default CachePolicy.LRU;
+}
@@ -22,4 +22,8 @@ public class ORMException extends RuntimeException{
     public ORMException(String msg, Exception e){
         super(msg, e);
     }
+
+    public ORMException(String msg, Throwable e){
+        super(msg, e);
+    }
 }
@@ -21,6 +21,7 @@ import com.objectsql.annotation.RdColumn;
 import com.objectsql.query.QueryUtils;
 import com.objectsql.support.ColumnInfo;
 import com.objectsql.support.KV;
+import com.objectsql.support.ResultSetShape;
 import org.springframework.validation.DataBinder;
 
 import java.io.BufferedReader;
@@ -50,61 +51,73 @@ public class DefaultResultSetHandler implements IResultSetHandler{
     @Override
     public KV parseMap(ResultSetMetaData metaData, int index, Object obj, ResultSet rs) throws SQLException{
         if(obj != null) {
-//            if (obj instanceof Timestamp) {
-//                obj = new Date(((Timestamp) obj).getTime());
-//            }else if(obj instanceof java.sql.Date){
-//                obj = new Date(((java.sql.Date)obj).getTime());
-//            }else if(metaData.getPrecision(index) == 15 && metaData.getScale(index) == 0) {
-//                if((obj instanceof  Long) ){
-//                    obj = new Date((Long)obj);
-//                }else if(obj instanceof BigDecimal){
-//                    obj = new Date(((BigDecimal)obj).longValue());
-//                }
-//            }else
-            if(obj instanceof Clob){
-                StringBuffer sb = new StringBuffer();
-                Clob clob = (Clob) obj;
-                if(clob != null){
-                    Reader reader = clob.getCharacterStream();
-                    BufferedReader br = new BufferedReader(reader);
-                    String s = null;
-                    try {
-                        while((s = br.readLine()) != null){
-                            sb.append(s);
-                        }
-                    } catch (Exception e) {
-                    }
-                }
-                obj = sb.toString();
-            }else if(obj instanceof Blob){
-                Blob blob = (Blob) obj;
-                InputStream stream = blob.getBinaryStream();
-                try {
-                    byte[] temp = new byte[(int)blob.length()];
-                    stream.read(temp);
-                    stream.close();
-                    obj = new String(temp, decode(null, null, obj, rs));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            String key = QueryUtils.displayNameOrAsName(metaData.getColumnLabel(index), metaData.getColumnName(index));
+            return new KV(key, parseMapValue(obj, rs));
+        }
+        return null;
+    }
 
-            }else if(obj instanceof byte[]){
+    @Override
+    public KV parseMap(ResultSetShape shape, int index, Object obj, ResultSet rs) throws SQLException{
+        if(obj != null) {
+            return new KV(shape.getDisplayName(index), parseMapValue(obj, rs));
+        }
+        return null;
+    }
+
+    private Object parseMapValue(Object obj, ResultSet rs) throws SQLException{
+//        if (obj instanceof Timestamp) {
+//            obj = new Date(((Timestamp) obj).getTime());
+//        }else if(obj instanceof java.sql.Date){
+//            obj = new Date(((java.sql.Date)obj).getTime());
+//        }else if(metaData.getPrecision(index) == 15 && metaData.getScale(index) == 0) {
+//            if((obj instanceof  Long) ){
+//                obj = new Date((Long)obj);
+//            }else if(obj instanceof BigDecimal){
+//                obj = new Date(((BigDecimal)obj).longValue());
+//            }
+//        }else
+        if(obj instanceof Clob){
+            StringBuffer sb = new StringBuffer();
+            Clob clob = (Clob) obj;
+            if(clob != null){
+                Reader reader = clob.getCharacterStream();
+                BufferedReader br = new BufferedReader(reader);
+                String s = null;
                 try {
-                    obj = new String((byte[])obj, decode(null, null, obj, rs));
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    while((s = br.readLine()) != null){
+                        sb.append(s);
+                    }
+                } catch (Exception e) {
                 }
+            }
+            obj = sb.toString();
+        }else if(obj instanceof Blob){
+            Blob blob = (Blob) obj;
+            InputStream stream = blob.getBinaryStream();
+            try {
+                byte[] temp = new byte[(int)blob.length()];
+                stream.read(temp);
+                stream.close();
+                obj = new String(temp, decode(null, null, obj, rs));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
+        }else if(obj instanceof byte[]){
+            try {
+                obj = new String((byte[])obj, decode(null, null, obj, rs));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-//            else if(obj instanceof BigDecimal){
-//                obj = ((BigDecimal) obj).toPlainString();
-//            }else if(obj instanceof Double || obj instanceof Long || obj instanceof Float){
-//                obj = new BigDecimal(obj.toString()).toPlainString();
-//            }
-            String key = QueryUtils.displayNameOrAsName(metaData.getColumnLabel(index), metaData.getColumnName(index));
-            return new KV(key, obj);
+
         }
-        return null;
+//        else if(obj instanceof BigDecimal){
+//            obj = ((BigDecimal) obj).toPlainString();
+//        }else if(obj instanceof Double || obj instanceof Long || obj instanceof Float){
+//            obj = new BigDecimal(obj.toString()).toPlainString();
+//        }
+        return obj;
     }
 
     @Override
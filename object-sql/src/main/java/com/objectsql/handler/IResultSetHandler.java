@@ -17,6 +17,7 @@ package com.objectsql.handler;
 
 import com.objectsql.support.ColumnInfo;
 import com.objectsql.support.KV;
+import com.objectsql.support.ResultSetShape;
 
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -25,5 +26,8 @@ import java.sql.SQLException;
 public interface IResultSetHandler {
     String decode(Class clazz, ColumnInfo info, Object value, ResultSet resultSet);
     KV parseMap(ResultSetMetaData metaData, int index, Object value, ResultSet resultSet) throws SQLException;
+    default KV parseMap(ResultSetShape shape, int index, Object value, ResultSet resultSet) throws SQLException{
+        return parseMap(shape.getMetaData(), index, value, resultSet);
+    }
     void handle(Object object, ColumnInfo info, Object value, ResultSet resultSet) throws SQLException;
 }
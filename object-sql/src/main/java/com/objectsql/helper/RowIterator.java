@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.helper;
+
+import com.objectsql.exception.ORMException;
+import com.objectsql.exception.ORMSQLException;
+import com.objectsql.handler.IQueryConvert;
+import com.objectsql.handler.IResultSetHandler;
+
+import java.io.Closeable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 游标迭代器，逐行读取并映射，不缓存整个结果集
+ * 读取完毕、出错或调用 close 时释放 ResultSet、Statement 与连接，未读完时需要调用方关闭
+ */
+public class RowIterator<T> implements Iterator<T>, Closeable {
+
+    private ResultSet resultSet;
+    private RowMapper<T> mapper;
+    private IQueryConvert queryConvert;
+    private IResultSetHandler resultSetHandler;
+    private Runnable closeHandler;
+
+    private boolean fetched = false;
+    private boolean hasNext = false;
+    private boolean closed = false;
+
+    public RowIterator(ResultSet resultSet, RowMapper<T> mapper, IQueryConvert queryConvert,
+                       IResultSetHandler resultSetHandler, Runnable closeHandler){
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+        this.queryConvert = queryConvert;
+        this.resultSetHandler = resultSetHandler;
+        this.closeHandler = closeHandler;
+    }
+
+    public static <T> RowIterator<T> empty(){
+        RowIterator<T> iterator = new RowIterator<T>(null, null, null, null, null);
+        iterator.closed = true;
+        return iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(closed){
+            return false;
+        }
+        if(!fetched){
+            try {
+                hasNext = resultSet.next();
+                fetched = true;
+            } catch (SQLException e) {
+                close();
+                throw new ORMSQLException(e, "next");
+            }
+            if(!hasNext){
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            return mapper.map(resultSet, queryConvert, resultSetHandler);
+        } catch (ORMException e) {
+            close();
+            throw e;
+        } catch (Exception e) {
+            close();
+            throw new ORMSQLException(e, "next");
+        }
+    }
+
+    public Stream<T> stream(){
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if(closed){
+            return;
+        }
+        closed = true;
+        hasNext = false;
+        if(closeHandler != null){
+            closeHandler.run();
+        }
+    }
+}
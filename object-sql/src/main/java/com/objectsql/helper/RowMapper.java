@@ -0,0 +1,390 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.helper;
+
+import com.objectsql.annotation.RdConvert;
+import com.objectsql.exception.ORMException;
+import com.objectsql.handler.DefaultResultSetHandler;
+import com.objectsql.handler.IColumnConvert;
+import com.objectsql.handler.IQueryConvert;
+import com.objectsql.handler.IResultSetHandler;
+import com.objectsql.support.ColumnInfo;
+import com.objectsql.support.DataType;
+import com.objectsql.support.KV;
+import com.objectsql.support.ResultSetShape;
+import com.objectsql.utils.ORMUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 结果集行映射器
+ * 实体类按 (实体类, 结果集列) 编译一次并缓存：列下标在编译时确定，逐行按下标取值，
+ * 字段通过 MethodHandle 直接写入；Map 与基本类型共用同一个 ResultSetShape
+ */
+public class RowMapper<T> {
+
+    private static final int MAX_CACHE_SIZE = 2048;
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private static Map<String, RowMapper> mapperCache = new ConcurrentHashMap<String, RowMapper>();
+
+    private Class<T> clazz;
+    private DataType dataType;
+    private ResultSetShape shape;
+    private MethodHandle constructor;
+    private int columnCount;
+    private int [] indexes;
+    private ColumnSlot [] slots;
+
+    private static class ColumnSlot {
+        private ColumnInfo info;
+        private int [] candidates;
+        private MethodHandle setter;
+        private Class<?> valueType;
+        private DataType dataType;
+        private boolean integer;
+        private IColumnConvert convert;
+    }
+
+    private RowMapper(Class clazz, DataType dataType){
+        this.clazz = clazz;
+        this.dataType = dataType;
+    }
+
+    public static <T> RowMapper<T> create(Class clazz, ResultSet rs) throws SQLException {
+        DataType type = DataType.getDataType(clazz.getSimpleName());
+        if(type != DataType.UNKNOWN && type != DataType.MAP){
+            return new RowMapper<T>(clazz, type);
+        }
+        return create(clazz, ResultSetShape.create(rs));
+    }
+
+    public static <T> RowMapper<T> create(Class clazz, ResultSetShape shape) {
+        DataType type = DataType.getDataType(clazz.getSimpleName());
+        if(type != DataType.UNKNOWN){
+            RowMapper<T> mapper = new RowMapper<T>(clazz, type);
+            mapper.shape = shape;
+            return mapper;
+        }
+        String cacheKey = clazz.getName() + "," + shape.getKey();
+        RowMapper<T> mapper = (RowMapper<T>)mapperCache.get(cacheKey);
+        if(mapper == null){
+            mapper = compile(clazz, shape);
+            if(mapperCache.size() < MAX_CACHE_SIZE) {
+                mapperCache.put(cacheKey, mapper);
+            }
+        }
+        return mapper;
+    }
+
+    public static void clear(){
+        mapperCache.clear();
+    }
+
+    private static <T> RowMapper<T> compile(Class clazz, ResultSetShape shape){
+        RowMapper<T> mapper = new RowMapper<T>(clazz, DataType.UNKNOWN);
+        mapper.columnCount = shape.getColumnCount();
+        try {
+            Constructor con = clazz.getDeclaredConstructor();
+            con.setAccessible(true);
+            mapper.constructor = MethodHandles.lookup().unreflectConstructor(con).asType(CONSTRUCTOR_TYPE);
+        } catch (Exception e) {
+            mapper.constructor = null;
+        }
+        // orderTest - ORDERTEST ---> ORDER_NUM，与原标签匹配规则一致，后出现的列覆盖前面的列
+        Map<String, Integer> firstLabels = new HashMap<String, Integer>();
+        Map<String, Integer> temp = new HashMap<String, Integer>();
+        for(int i = 1; i <= shape.getColumnCount(); i++){
+            String label = shape.getLabel(i);
+            Integer index = firstLabels.get(label.toUpperCase(Locale.ROOT));
+            if(index == null){
+                index = i;
+                firstLabels.put(label.toUpperCase(Locale.ROOT), index);
+            }
+            String tmp = shape.getDisplayName(i);
+            temp.put(tmp, index);
+            temp.put(tmp.toLowerCase(Locale.ROOT), index);
+            temp.put(tmp.toUpperCase(Locale.ROOT), index);
+            temp.put(label.toLowerCase(Locale.ROOT), index);
+            temp.put(label.toUpperCase(Locale.ROOT), index);
+        }
+        List<ColumnInfo> infoList = new ArrayList<ColumnInfo>();
+        infoList.addAll(ORMUtils.getColumnInfo(clazz));
+        infoList.addAll(ORMUtils.getExtendFields(clazz));
+        List<ColumnSlot> slotList = new ArrayList<ColumnSlot>();
+        Set<Integer> indexSet = new TreeSet<Integer>();
+        for(ColumnInfo info : infoList){
+            String name = info.getColumnName() != null ? info.getColumnName() : info.getName();
+            List<Integer> candidates = new ArrayList<Integer>();
+            for(String tmp : new String[]{name, name.toUpperCase(Locale.ROOT), name.toLowerCase(Locale.ROOT)}){
+                Integer index = temp.get(tmp);
+                if(index != null && !candidates.contains(index)){
+                    candidates.add(index);
+                }
+            }
+            if(candidates.isEmpty()){
+                continue;
+            }
+            ColumnSlot slot = new ColumnSlot();
+            slot.info = info;
+            slot.candidates = new int[candidates.size()];
+            for(int i = 0; i < candidates.size(); i++){
+                slot.candidates[i] = candidates.get(i);
+                indexSet.add(candidates.get(i));
+            }
+            slot.dataType = DataType.getDataType(info.getType());
+            slot.integer = "integer".equalsIgnoreCase(info.getType());
+            Field field = info.getField();
+            slot.valueType = wrap(field.getType());
+            RdConvert convert = field.getAnnotation(RdConvert.class);
+            if(convert != null){
+                slot.convert = SQLHelperCreator.getColumnConvert(convert.value());
+            }
+            if(!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())){
+                try {
+                    field.setAccessible(true);
+                    slot.setter = MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+                } catch (Exception e) {
+                    slot.setter = null;
+                }
+            }
+            slotList.add(slot);
+        }
+        mapper.slots = slotList.toArray(new ColumnSlot[slotList.size()]);
+        mapper.indexes = new int[indexSet.size()];
+        int i = 0;
+        for(Integer index : indexSet){
+            mapper.indexes[i++] = index;
+        }
+        return mapper;
+    }
+
+    public T map(ResultSet rs, IResultSetHandler resultSetHandler) throws IllegalAccessException, SQLException {
+        return map(rs, null, resultSetHandler);
+    }
+
+    public T map(ResultSet rs, IQueryConvert queryConvert, IResultSetHandler resultSetHandler) throws IllegalAccessException, SQLException {
+        if(dataType == DataType.UNKNOWN){
+            return mapBean(rs, queryConvert, resultSetHandler);
+        }
+        Object object = rs.getObject(1);
+        if(dataType != DataType.MAP && queryConvert != null){
+            Object parser = queryConvert.queryValueHandle(object, clazz);
+            if(parser != null){
+                return (T)parser;
+            }
+        }
+        T t = null;
+        //String, Map
+        switch (dataType){
+            case STRING:
+                if(object != null) {
+                    t = (T) object.toString();
+                }
+                break;
+            case INTEGER:
+                t = (T)new Integer(rs.getInt(1));
+                break;
+            case LONG:
+                t = (T)new Long(rs.getLong(1));
+                break;
+            case FLOAT:
+                t = (T)new Float(rs.getFloat(1));
+                break;
+            case DOUBLE:
+                t = (T)new Double(rs.getDouble(1));
+                break;
+            case SHORT:
+                t = (T)new Short(rs.getShort(1));
+                break;
+            case BYTE:
+                t = (T)new Byte(rs.getByte(1));
+                break;
+            case BOOLEAN:
+                t = (T)new Boolean(rs.getBoolean(1));
+                break;
+            case MAP :
+                t = (T)toMap(shape, rs, queryConvert, object, resultSetHandler);
+                break;
+            default:
+                break;
+        }
+        return t;
+    }
+
+    public static Map<String, Object> toMap(ResultSetShape shape, ResultSet rs, IResultSetHandler resultSetHandler) throws SQLException {
+        return toMap(shape, rs, null, null, resultSetHandler);
+    }
+
+    private static Map<String, Object> toMap(ResultSetShape shape, ResultSet rs, IQueryConvert queryConvert, Object first, IResultSetHandler resultSetHandler) throws SQLException {
+        Map<String, Object> tempMap = new HashMap<String, Object>();
+        for(int i = 1; i <= shape.getColumnCount(); i++){
+            Object obj = rs.getObject(i);
+            if(queryConvert != null) {
+                KV kv = queryConvert.queryValueHandleMap(tempMap, first, Map.class);
+                if (kv != null) {
+                    tempMap.put(kv.getKey(), kv.getValue());
+                    continue;
+                }
+            }
+            KV kv = resultSetHandler.parseMap(shape, i, obj, rs);
+            if(kv != null) {
+                tempMap.put(kv.getKey(), kv.getValue());
+            }
+        }
+        return tempMap;
+    }
+
+    private T mapBean(ResultSet rs, IQueryConvert queryConvert, IResultSetHandler resultSetHandler) throws SQLException {
+        T t = newInstance();
+        Object [] values = new Object[columnCount + 1];
+        for(int index : indexes){
+            values[index] = rs.getObject(index);
+        }
+        // 默认处理器下类型已匹配的值直接写入，与 DefaultResultSetHandler 转换结果一致
+        boolean defaultHandler = resultSetHandler != null && resultSetHandler.getClass() == DefaultResultSetHandler.class;
+        for(ColumnSlot slot : slots){
+            Object obj = null;
+            int index = 0;
+            for(int candidate : slot.candidates){
+                obj = values[candidate];
+                if(obj != null){
+                    index = candidate;
+                    break;
+                }
+            }
+            if(obj == null){
+                continue;
+            }
+            //mysql tinyint(1) getObject会导致返回  boolean对象；修改为tinyint(2)或者如下兼容
+            if(slot.integer && (obj instanceof Boolean)){
+                obj = rs.getInt(index);
+            }
+            //若有优先column( column处理完给query)，若无直接处理query
+            if(slot.convert != null){
+                Object kvObject = slot.convert.getValueHandle(t, slot.info, obj);
+                if(kvObject != null){
+                    Object tempKvObject = queryConvert != null ? queryConvert.queryValueHandle(t, slot.info, obj) : null;
+                    setValue(t, slot, tempKvObject != null ? tempKvObject : kvObject);
+                    continue;
+                }
+            }
+            if(queryConvert != null){
+                Object kvObject = queryConvert.queryValueHandle(t, slot.info, obj);
+                if(kvObject != null){
+                    setValue(t, slot, kvObject);
+                    continue;
+                }
+            }
+            if(defaultHandler && isDirect(slot, obj)){
+                setValue(t, slot, obj);
+            }else{
+                resultSetHandler.handle(t, slot.info, obj, rs);
+            }
+        }
+        return t;
+    }
+
+    private boolean isDirect(ColumnSlot slot, Object value){
+        if(slot.setter == null || !slot.valueType.isInstance(value)){
+            return false;
+        }
+        switch (slot.dataType){
+            case STRING:
+            case BINARY:
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INTEGER:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            case DECIMAL:
+                return ((BigDecimal)value).scale() >= 0;
+            default:
+                return false;
+        }
+    }
+
+    private T newInstance(){
+        try {
+            if(constructor != null){
+                Object obj = constructor.invokeExact();
+                return (T) obj;
+            }
+            return (T) clazz.newInstance();
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ORMException("New instance of [" + clazz.getName() + "] error", e);
+        }
+    }
+
+    private void setValue(T t, ColumnSlot slot, Object value){
+        if(t == null || value == null){
+            return;
+        }
+        if(slot.setter == null){
+            ORMUtils.setFieldValue(t, slot.info, value);
+            return;
+        }
+        try {
+            slot.setter.invokeExact((Object)t, value);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ORMException("Set value to [" + t + "] error, value[" + value + "]", e);
+        }
+    }
+
+    private static Class<?> wrap(Class<?> type){
+        if(!type.isPrimitive()){
+            return type;
+        }
+        if(type == int.class){
+            return Integer.class;
+        }else if(type == long.class){
+            return Long.class;
+        }else if(type == boolean.class){
+            return Boolean.class;
+        }else if(type == double.class){
+            return Double.class;
+        }else if(type == float.class){
+            return Float.class;
+        }else if(type == short.class){
+            return Short.class;
+        }else if(type == byte.class){
+            return Byte.class;
+        }else if(type == char.class){
+            return Character.class;
+        }
+        return Void.class;
+    }
+}
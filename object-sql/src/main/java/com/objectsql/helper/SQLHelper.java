@@ -77,6 +77,10 @@ public class SQLHelper {
 		ORMUtils.whenEmpty(sql, "SQL is null.");
 		this.sql = ORMUtils.convertSQL(sql);
 	}
+	//SQLTemplate 中已转换过大小写
+	void setTemplateSql(String sql) {
+		this.sql = sql;
+	}
 	public List<Pair> getParameters() {
 		return parameters;
 	}
@@ -17,18 +17,19 @@ package com.objectsql.helper;
 
 import com.objectsql.annotation.RdConvert;
 import com.objectsql.annotation.RdId;
+import com.objectsql.annotation.RdUniqueKey;
 import com.objectsql.exception.ORMException;
 import com.objectsql.handler.IColumnConvert;
 import com.objectsql.handler.IQueryConvert;
 import com.objectsql.handler.IResultSetHandler;
 import com.objectsql.option.OracleOptions;
-import com.objectsql.query.QueryUtils;
 import com.objectsql.support.*;
 import com.objectsql.utils.ORMUtils;
 
 import java.lang.reflect.Field;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据库表工具类
@@ -46,12 +47,6 @@ public class SQLHelperCreator {
 
         Class clazz = obj.getClass();
 
-        String tableName = ORMUtils.getTableName(clazz);
-
-        StringBuffer sql = new StringBuffer("DELETE FROM ");
-
-        sql.append(tableName);
-
         Pair primaryKey = null;
         List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
         ORMUtils.whenEmpty(infoList, "Get columns cache is empty.");
@@ -72,19 +67,26 @@ public class SQLHelperCreator {
         }
         List<Pair> parameters = new ArrayList<Pair>();
         if(primaryKey != null && primaryKey.getValue() != null){
-            sql.append(" WHERE ");
-            sql.append(primaryKey.getColumn() + " = ? ");
             parameters.add(primaryKey);
         }else{
             throw new ORMException("Delete table without primary key, Class[" + clazz.getName() + "], value[" + obj + "]");
         }
         SQLHelper helper = new SQLHelper();
-        helper.setSql(sql.toString());
+        helper.setTemplateSql(deleteById(clazz, primaryKey.getColumn()));
         helper.setParameters(parameters);
         helper.setPair(primaryKey);
         return helper;
     }
 
+    private static String deleteById(Class clazz, String column){
+        String sql = SQLTemplate.get(SQLTemplate.DELETE_ID, clazz, null, null, column);
+        if(sql == null){
+            sql = SQLTemplate.put(SQLTemplate.DELETE_ID, clazz, null, null, column,
+                    "DELETE FROM " + ORMUtils.getTableName(clazz) + " WHERE " + column + " = ? ");
+        }
+        return sql;
+    }
+
     /**
      *
      * @param clazz
@@ -93,12 +95,6 @@ public class SQLHelperCreator {
      */
     public static SQLHelper delete(Class clazz, Object idObject){
 
-        String tableName = ORMUtils.getTableName(clazz);
-
-        StringBuffer sql = new StringBuffer("DELETE FROM ");
-
-        sql.append(tableName);
-
         Pair primaryKey = null;
         List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
 
@@ -110,15 +106,13 @@ public class SQLHelperCreator {
         }
         List<Pair> parameters = new ArrayList<Pair>();
         if(primaryKey != null && idObject != null){
-            sql.append(" WHERE ");
-            sql.append(primaryKey.getColumn() + " = ? ");
             parameters.add(primaryKey);
         }else{
             throw new ORMException("Delete table without primary key, Class[" + clazz.getName() + "], value[" + idObject + "]");
         }
         SQLHelper helper = new SQLHelper();
         helper.setPair(primaryKey);
-        helper.setSql(sql.toString());
+        helper.setTemplateSql(deleteById(clazz, primaryKey.getColumn()));
         helper.setParameters(parameters);
         return helper;
 
@@ -174,6 +168,11 @@ public class SQLHelperCreator {
     }
 
     public static SQLHelper updateTerms(Options option, Object obj, Condition condition, boolean updateNull, String [] nullColumns){
+        return updateTerms(ExecutionContext.of(option), obj, condition, updateNull, nullColumns);
+    }
+
+    public static SQLHelper updateTerms(ExecutionContext context, Object obj, Condition condition, boolean updateNull, String [] nullColumns){
+        Options option = context.getOptions();
         List<String> ncs = new ArrayList<String>();
         if(nullColumns != null &&  nullColumns.length > 0){
             ncs.addAll(Arrays.asList(nullColumns));
@@ -188,11 +187,11 @@ public class SQLHelperCreator {
         List<Pair> parameters = new ArrayList<Pair>();
         List<String> sets = new ArrayList<String>();
         Pair primaryKey = null;
-        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-        String databaseType = DatabaseTypeHolder.get();
+        ColumnPlan plan = context.getColumnPlan(clazz);
+        List<ColumnInfo> infoList = plan.getColumns();
         SQLHelper helper = new SQLHelper();
-        for(ColumnInfo info : infoList){
+        for(int i = 0; i < infoList.size(); i++){
+            ColumnInfo info = infoList.get(i);
             Object fo = ORMUtils.getFieldValue(obj, info);
             if(info.getPrimaryKey()){// many updates when them had no ids
                 helper.setIdField(info.getField());
@@ -203,7 +202,7 @@ public class SQLHelperCreator {
                 continue;
             }
             if(fo != null || updateNull || ncs.contains(info.getColumnName())){
-                if(databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP){
+                if(!plan.isWritable(i)){
                     continue;
                 }
                 if(fo != null){
@@ -242,25 +241,27 @@ public class SQLHelperCreator {
      * @return SQLHelper
      */
     public static SQLHelper update(Options option, Object obj, Expression [] expressions, boolean updateNull, String [] nullColumns){
+        return update(ExecutionContext.of(option), obj, expressions, updateNull, nullColumns);
+    }
+
+    public static SQLHelper update(ExecutionContext context, Object obj, Expression [] expressions, boolean updateNull, String [] nullColumns){
+        Options option = context.getOptions();
         List<String> ncs = new ArrayList<String>();
         if(nullColumns != null &&  nullColumns.length > 0){
             ncs.addAll(Arrays.asList(nullColumns));
         }
         Class clazz = obj.getClass();
 
-        String tableName = ORMUtils.getTableName(clazz);
-
-        StringBuffer sql = new StringBuffer("UPDATE ");
-        sql.append(tableName);
-        sql.append(" SET ");
         List<Pair> parameters = new ArrayList<Pair>();
-        List<String> sets = new ArrayList<String>();
         Pair primaryKey = null;
-        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-        String databaseType = DatabaseTypeHolder.get();
+        ColumnPlan plan = context.getColumnPlan(clazz);
+        List<ColumnInfo> infoList = plan.getColumns();
         SQLHelper helper = new SQLHelper();
-        for(ColumnInfo info : infoList){
+        //[0, n) 为 "= ?" 列，[n, 2n) 为 "= NULL" 列
+        int size = infoList.size();
+        BitSet mask = new BitSet(size * 2);
+        for(int i = 0; i < size; i++){
+            ColumnInfo info = infoList.get(i);
             Object fo = ORMUtils.getFieldValue(obj, info);
             if(info.getPrimaryKey()){// many updates when them had no ids
                 helper.setIdField(info.getField());
@@ -270,36 +271,41 @@ public class SQLHelperCreator {
                 if(info.getPrimaryKey()){
                     primaryKey = new Pair(info, fo);
                 }else {
-                    if (databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP) {
+                    if (!plan.isWritable(i)) {
                         continue;
                     }
                     if (fo != null) {
                         Pair pair = handleObject(obj, info, fo);
-                        if(info.getPrimaryKey() && pair.getValue() != null){
-                            helper.setIdValue(pair.getValue());
-                        }
-                        sets.add(info.getColumnName() + " = ? ");
+                        mask.set(i);
                         parameters.add(pair);
                     } else {
                         if (updateNull || ncs.contains(info.getColumnName())) {
-                            sets.add(info.getColumnName() + " = NULL ");
+                            mask.set(size + i);
                         }
                     }
                 }
             }
         }
-        sql.append(ORMUtils.join(sets, ", "));
-        sql.append(" WHERE ");
+        String sql = null;
         if(primaryKey != null && primaryKey.getValue() != null) {
             if(expressions != null && expressions.length > 0){
                 throw new ORMException("Update table with primary key, shout not add expresses, Class[" + clazz.getName() + "], value[" + obj + "]");
             }
-            sql.append(primaryKey.getColumn() + " = ? ");
+            sql = SQLTemplate.get(SQLTemplate.UPDATE, clazz, option, mask, primaryKey.getColumn());
+            if(sql == null){
+                StringBuffer buffer = updateSets(clazz, infoList, mask);
+                buffer.append(" WHERE ");
+                buffer.append(primaryKey.getColumn() + " = ? ");
+                sql = SQLTemplate.put(SQLTemplate.UPDATE, clazz, option, mask, primaryKey.getColumn(), buffer.toString());
+            }
             parameters.add(primaryKey);
+            helper.setTemplateSql(sql);
         }else{
             if(expressions == null || expressions.length == 0) {
                 throw new ORMException("Update table without primary key, but expresses is empty, Class[" + clazz.getName() + "], value[" + obj + "]");
             }else{
+                StringBuffer buffer = updateSets(clazz, infoList, mask);
+                buffer.append(" WHERE ");
                 List<String> terms = new ArrayList<String>();
                 for(Expression expression : expressions){
                     if(expression == null){
@@ -312,16 +318,33 @@ public class SQLHelperCreator {
                     terms.add(pair.getSql());
                     parameters.addAll(pair.getPairs());
                 }
-                sql.append(ORMUtils.join(terms, " AND "));
+                buffer.append(ORMUtils.join(terms, " AND "));
+                helper.setSql(buffer.toString());
             }
         }
 
         helper.setPair(primaryKey);
-        helper.setSql(sql.toString());
         helper.setParameters(parameters);
         return helper;
     }
 
+    private static StringBuffer updateSets(Class clazz, List<ColumnInfo> infoList, BitSet mask){
+        StringBuffer sql = new StringBuffer("UPDATE ");
+        sql.append(ORMUtils.getTableName(clazz));
+        sql.append(" SET ");
+        List<String> sets = new ArrayList<String>();
+        int size = infoList.size();
+        for(int i = 0; i < size; i++){
+            if(mask.get(i)){
+                sets.add(infoList.get(i).getColumnName() + " = ? ");
+            }else if(mask.get(size + i)){
+                sets.add(infoList.get(i).getColumnName() + " = NULL ");
+            }
+        }
+        sql.append(ORMUtils.join(sets, ", "));
+        return sql;
+    }
+
     public static SQLHelper updateExpress(Class<?> clazz, Options options, Expression [] values, Expression [] conditions){
 
         String tableName = ORMUtils.getTableName(clazz);
@@ -379,29 +402,37 @@ public class SQLHelperCreator {
 
     public static Map<String, IDGenerator> generatorMap = new HashMap<String, IDGenerator>();
 
-    private static Map<Class, IColumnConvert> columnConvertMap = new HashMap<Class, IColumnConvert>();
+    private static Map<Class, IColumnConvert> columnConvertMap = new ConcurrentHashMap<Class, IColumnConvert>();
 
     public static SQLHelper insert(Object obj, Options options){
+        return insert(obj, ExecutionContext.of(options));
+    }
 
+    public static SQLHelper insert(Object obj, ExecutionContext context){
+
+        Options options = context.getOptions();
         Class clazz = obj.getClass();
-        String tableName = ORMUtils.getTableName(clazz);
-        StringBuffer sql = new StringBuffer("INSERT INTO ");
-        sql.append(tableName);
-        sql.append("(");
         List<Pair> parameters = new ArrayList<Pair>();
         List<String> ps = new ArrayList<String>();
         List<String> vs = new ArrayList<String>();
         SQLHelper helper = new SQLHelper();
-        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-        String databaseType = DatabaseTypeHolder.get();
-        for(ColumnInfo info : infoList){
-            Object fo = ORMUtils.getFieldValue(obj, info);
-            if(databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP){
+        ColumnPlan plan = context.getColumnPlan(clazz);
+        List<ColumnInfo> infoList = plan.getColumns();
+        //[0, n) 为插入列，n 表示主键使用了序列
+        int size = infoList.size();
+        BitSet mask = new BitSet(size + 1);
+        for(int i = 0; i < size; i++){
+            ColumnInfo info = infoList.get(i);
+            if(!plan.isWritable(i)){
                 continue;
             }
+            Object fo = ORMUtils.getFieldValue(obj, info);
             if(info.getPrimaryKey()){// make sure RdId exist.
+                int count = vs.size();
                 fo = createPrimaryKeyValue(options, helper, ps, vs, info, obj, fo);
+                if(vs.size() > count){
+                    mask.set(size);
+                }
             }
             if(fo != null) {
                 Pair pair = handleObject(obj, info, fo);
@@ -411,17 +442,24 @@ public class SQLHelperCreator {
                 ps.add(info.getColumnName());
                 vs.add("?");
                 parameters.add(pair);
+                mask.set(i);
             }
         }
         if(ps.size() == 0){
             throw new ORMException("Insert into table without values, Class[" + clazz.getName() + "], value[" + obj + "]");
         }
-        sql.append(ORMUtils.join(ps, ","));
-        sql.append(") VALUES (");
-        sql.append(ORMUtils.join(vs, ","));
-        sql.append(")");
-
-        helper.setSql(sql.toString());
+        String sql = SQLTemplate.get(SQLTemplate.INSERT, clazz, options, mask, null);
+        if(sql == null) {
+            StringBuffer buffer = new StringBuffer("INSERT INTO ");
+            buffer.append(ORMUtils.getTableName(clazz));
+            buffer.append("(");
+            buffer.append(ORMUtils.join(ps, ","));
+            buffer.append(") VALUES (");
+            buffer.append(ORMUtils.join(vs, ","));
+            buffer.append(")");
+            sql = SQLTemplate.put(SQLTemplate.INSERT, clazz, options, mask, null, buffer.toString());
+        }
+        helper.setTemplateSql(sql);
         helper.setParameters(parameters);
 
         return helper;
@@ -432,17 +470,7 @@ public class SQLHelperCreator {
         Pair result = new Pair(info, fo);
         RdConvert serializer = info.getField().getAnnotation(RdConvert.class);
         if(serializer != null){
-            IColumnConvert ser = columnConvertMap.get(serializer.value());
-            if(ser == null) {
-                try {
-                    ser = serializer.value().newInstance();
-                    columnConvertMap.put(serializer.value(), ser);
-                } catch (InstantiationException e) {
-                    throw new ORMException(e);
-                } catch (IllegalAccessException e) {
-                    throw new ORMException(e);
-                }
-            }
+            IColumnConvert ser = getColumnConvert(serializer.value());
             if(ser != null){
                 Pair kvObject = ser.setValueHandle(obj, info, fo);
                 if(kvObject != null){
@@ -453,6 +481,21 @@ public class SQLHelperCreator {
         return result;
     }
 
+    static IColumnConvert getColumnConvert(Class<? extends IColumnConvert> convertClass){
+        IColumnConvert convert = columnConvertMap.get(convertClass);
+        if(convert == null) {
+            try {
+                convert = convertClass.newInstance();
+                columnConvertMap.put(convertClass, convert);
+            } catch (InstantiationException e) {
+                throw new ORMException(e);
+            } catch (IllegalAccessException e) {
+                throw new ORMException(e);
+            }
+        }
+        return convert;
+    }
+
     public static Object createPrimaryKeyValue(
         Options options,
         SQLHelper helper,
@@ -493,15 +536,22 @@ public class SQLHelperCreator {
     }
 
     public static <S> List<SQLHelper> inserts(List<S> objs, Options options){
+        return inserts(objs, ExecutionContext.of(options));
+    }
+
+    public static <S> List<SQLHelper> inserts(List<S> objs, ExecutionContext context){
+        Options options = context.getOptions();
         List<SQLHelper> helpers = new ArrayList<SQLHelper>();
         if(objs == null || objs.isEmpty()){
             return helpers;
         }
         String insertSQL = null;
         Class clazz = null;
+        ColumnPlan plan = null;
         for(Object obj : objs) {
             if(clazz == null) {
                 clazz = obj.getClass();
+                plan = context.getColumnPlan(clazz);
             }else{
                 if(!clazz.equals(obj.getClass())){
                     throw new ORMException("Error class, [" + clazz.getName() + "] but [" + obj.getClass() + "]");
@@ -512,14 +562,13 @@ public class SQLHelperCreator {
             List<String> ps = new ArrayList<String>();
             List<String> vs = new ArrayList<String>();
             SQLHelper helper = new SQLHelper();
-            List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-            ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-            String databaseType = DatabaseTypeHolder.get();
-            for (ColumnInfo info : infoList) {
-                Object fo = ORMUtils.getFieldValue(obj, info);
-                if (databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP) {
+            List<ColumnInfo> infoList = plan.getColumns();
+            for (int i = 0; i < infoList.size(); i++) {
+                if (!plan.isWritable(i)) {
                     continue;
                 }
+                ColumnInfo info = infoList.get(i);
+                Object fo = ORMUtils.getFieldValue(obj, info);
                 if (info.getPrimaryKey()) {
                     fo = createPrimaryKeyValue(options, helper, ps, vs, info, obj, fo);
                 }
@@ -548,7 +597,176 @@ public class SQLHelperCreator {
         return helpers;
     }
 
+    /**
+     * 插入或更新，SQL 由各数据库 Options.upsert 生成
+     * 插入列同 inserts，值为空的自增主键不插入；冲突列之外的列在冲突时更新（主键不更新）
+     * @param conflictColumns 为空时取有值的主键，否则取第一个 @RdUniqueKey
+     */
+    public static <S> List<SQLHelper> upserts(List<S> objs, Options options, String [] conflictColumns){
+        return upserts(objs, ExecutionContext.of(options), conflictColumns);
+    }
+
+    public static <S> List<SQLHelper> upserts(List<S> objs, ExecutionContext context, String [] conflictColumns){
+        Options options = context.getOptions();
+        List<SQLHelper> helpers = new ArrayList<SQLHelper>();
+        if(objs == null || objs.isEmpty()){
+            return helpers;
+        }
+        Class clazz = null;
+        ColumnPlan plan = null;
+        List<ColumnInfo> infoList = null;
+        BitSet firstMask = null;
+        String upsertSQL = null;
+        for(Object obj : objs) {
+            if(clazz == null) {
+                clazz = obj.getClass();
+                plan = context.getColumnPlan(clazz);
+                infoList = plan.getColumns();
+                conflictColumns = conflictColumns(clazz, obj, infoList, conflictColumns);
+            }else if(!clazz.equals(obj.getClass())){
+                throw new ORMException("Error class, [" + clazz.getName() + "] but [" + obj.getClass() + "]");
+            }
+            List<Pair> parameters = new ArrayList<Pair>();
+            List<String> ps = new ArrayList<String>();
+            SQLHelper helper = new SQLHelper();
+            BitSet mask = new BitSet(infoList.size());
+            for (int i = 0; i < infoList.size(); i++) {
+                if (!plan.isWritable(i)) {
+                    continue;
+                }
+                ColumnInfo info = infoList.get(i);
+                Object fo = ORMUtils.getFieldValue(obj, info);
+                if (info.getPrimaryKey()) {
+                    RdId rdId = info.getField().getAnnotation(RdId.class);
+                    if(rdId.autoIncrement() && ORMUtils.isEmpty(fo)){
+                        continue;
+                    }
+                    fo = createPrimaryKeyValue(options, helper, new ArrayList<String>(), new ArrayList<String>(), info, obj, fo);
+                }
+                ps.add(info.getColumnName());
+                parameters.add(handleObject(obj, info, fo));
+                mask.set(i);
+            }
+            if(firstMask == null){
+                firstMask = mask;
+                String extra = ORMUtils.join(conflictColumns, ",");
+                upsertSQL = SQLTemplate.get(SQLTemplate.UPSERT, clazz, options, mask, extra);
+                if(upsertSQL == null){
+                    List<String> conflicts = Arrays.asList(conflictColumns);
+                    List<String> updates = new ArrayList<String>();
+                    for (int i = mask.nextSetBit(0), j = 0; i >= 0; i = mask.nextSetBit(i + 1), j++) {
+                        if(!infoList.get(i).getPrimaryKey() && !containsIgnoreCase(conflicts, ps.get(j))){
+                            updates.add(ps.get(j));
+                        }
+                    }
+                    String sql = options.upsert(ORMUtils.getTableName(clazz), ps, conflicts, updates);
+                    upsertSQL = SQLTemplate.put(SQLTemplate.UPSERT, clazz, options, mask, extra, sql);
+                }
+            }else if(!firstMask.equals(mask)){
+                //批量时语句相同，自增主键需都有值或都为空
+                throw new ORMException("Upsert columns are different, Class[" + clazz.getName() + "], value[" + obj + "]");
+            }
+            helper.setTemplateSql(upsertSQL);
+            helper.setParameters(parameters);
+            helpers.add(helper);
+        }
+        return helpers;
+    }
+
+    /**
+     * 冲突列是否恰为主键，是时被更新的行即主键对应的行，需在 upserts 生成主键前调用
+     * MySQL ON DUPLICATE KEY 会匹配任意唯一键，始终返回 false
+     */
+    public static boolean upsertByPrimaryKey(Object obj, Options options, String [] conflictColumns){
+        if(obj == null || "MySQL".equalsIgnoreCase(options.databaseType())){
+            return false;
+        }
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(obj.getClass());
+        if(infoList == null){
+            return false;
+        }
+        String [] columns = conflictColumns(obj.getClass(), obj, infoList, conflictColumns);
+        if(columns.length != 1){
+            return false;
+        }
+        for (ColumnInfo info : infoList) {
+            if(info.getPrimaryKey() && info.getColumnName().equalsIgnoreCase(columns[0])){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String [] conflictColumns(Class clazz, Object obj, List<ColumnInfo> infoList, String [] conflictColumns){
+        if(conflictColumns != null && conflictColumns.length > 0){
+            return conflictColumns;
+        }
+        //主键为空时会生成新值，不会冲突，只能使用唯一键
+        for (ColumnInfo info : infoList) {
+            if(info.getPrimaryKey() && !ORMUtils.isEmpty(ORMUtils.getFieldValue(obj, info))){
+                return new String[]{info.getColumnName()};
+            }
+        }
+        for (ColumnInfo info : infoList) {
+            RdUniqueKey uniqueKey = info.getField().getAnnotation(RdUniqueKey.class);
+            if(uniqueKey != null){
+                if(uniqueKey.columns().length > 0){
+                    return uniqueKey.columns();
+                }
+                return new String[]{info.getColumnName()};
+            }
+        }
+        throw new ORMException("Upsert without conflict columns, Class[" + clazz.getName() + "]");
+    }
+
+    private static boolean containsIgnoreCase(List<String> columns, String column){
+        for(String temp : columns){
+            if(temp.equalsIgnoreCase(column)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //批量导入的列，与 inserts 一致但不含自增主键；存在二进制列时返回 null，由调用方改用 batchInserts
+    public static List<ColumnInfo> bulkColumns(Class clazz){
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        for (ColumnInfo info : infoList) {
+            if(info.getPrimaryKey()){
+                RdId rdId = info.getField().getAnnotation(RdId.class);
+                if(rdId != null && rdId.autoIncrement()){
+                    continue;
+                }
+            }
+            if(info.getColumnType() == ColumnType.BINARY || info.getColumnType() == ColumnType.BLOB
+                    || DataType.getDataType(info.getType()) == DataType.BINARY){
+                return null;
+            }
+            columns.add(info);
+        }
+        return columns;
+    }
+
+    //按 bulkColumns 的顺序取一行值，主键生成与 RdConvert 转换同 inserts
+    public static List<Pair> bulkValues(Object obj, Options options, List<ColumnInfo> columns){
+        List<Pair> values = new ArrayList<Pair>(columns.size());
+        for (ColumnInfo info : columns) {
+            Object fo = ORMUtils.getFieldValue(obj, info);
+            if (info.getPrimaryKey()) {
+                fo = createPrimaryKeyValue(options, new SQLHelper(), new ArrayList<String>(), new ArrayList<String>(), info, obj, fo);
+            }
+            values.add(handleObject(obj, info, fo));
+        }
+        return values;
+    }
+
     public static <S> List<SQLHelper> updates(List<S> objs, List<String> columns){
+        return updates(objs, ExecutionContext.of(null), columns);
+    }
+
+    public static <S> List<SQLHelper> updates(List<S> objs, ExecutionContext context, List<String> columns){
         List<SQLHelper> helpers = new ArrayList<SQLHelper>();
         if(objs == null || objs.isEmpty()){
             return helpers;
@@ -572,13 +790,13 @@ public class SQLHelperCreator {
             if(selected == null){
                 List<String> ps = new ArrayList<String>();
                 selected = new ArrayList<ColumnInfo>();
-                List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-                ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-                String databaseType = DatabaseTypeHolder.get();
-                for (ColumnInfo info : infoList) {
-                    if (databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP) {
+                ColumnPlan plan = context.getColumnPlan(clazz);
+                List<ColumnInfo> infoList = plan.getColumns();
+                for (int i = 0; i < infoList.size(); i++) {
+                    if (!plan.isWritable(i)) {
                         continue;
                     }
+                    ColumnInfo info = infoList.get(i);
                     if(info.getPrimaryKey()){
                         primaryKey = info;
                         continue;
@@ -597,9 +815,6 @@ public class SQLHelperCreator {
                 sql.append(tableName);
                 sql.append(" SET ");
                 for (ColumnInfo info : selected) {
-                    if (databaseType != null && databaseType.contains("SERVER") && info.getColumnType() == ColumnType.TIMESTAMP) {
-                        continue;
-                    }
                     ps.add(String.format(" %s = ? ", info.getColumnName()));
                 }
                 selected.add(primaryKey);
@@ -629,25 +844,18 @@ public class SQLHelperCreator {
 
         Class clazz = obj.getClass();
 
-        String tableName = ORMUtils.getTableName(clazz);
-
-        StringBuffer sql = new StringBuffer("SELECT ");
         String nameStr = ORMUtils.join(names, ",");
-        if(ORMUtils.isEmpty(nameStr)){
-            sql.append("*");
-        }else{
-            sql.append(nameStr);
-        }
-        sql.append(" FROM ");
-        sql.append(tableName);
 
         List<Pair> parameters = new ArrayList<Pair>();
-        List<String> ps = new ArrayList<String>();
         Pair primaryKey = null;
 
         List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
         ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
-        for(ColumnInfo info : infoList) {
+        //[0, n) 为等值条件列，n 表示按主键查询
+        int size = infoList.size();
+        BitSet mask = new BitSet(size + 1);
+        for(int i = 0; i < size; i++) {
+            ColumnInfo info = infoList.get(i);
             Object fo = ORMUtils.getFieldValue(obj, info);
             if (fo != null) {
                 Pair pair = handleObject(obj, info, fo);
@@ -655,23 +863,45 @@ public class SQLHelperCreator {
                     primaryKey = pair;
                     break;
                 } else {
-                    ps.add(info.getColumnName() + " = ? ");
+                    mask.set(i);
                     parameters.add(pair);
                 }
             }
         }
         if(primaryKey != null) {
-            sql.append(" WHERE ");
-            sql.append(primaryKey.getColumn() + " = ? ");
+            mask.clear();
+            mask.set(size);
             parameters.clear();
             parameters.add(primaryKey);
-        }else{
-            if(ps.size() > 0){
-                sql.append(" WHERE " + ORMUtils.join(ps, " AND "));
+        }
+        String sql = SQLTemplate.get(SQLTemplate.GET, clazz, null, mask, nameStr);
+        if(sql == null) {
+            StringBuffer buffer = new StringBuffer("SELECT ");
+            if(ORMUtils.isEmpty(nameStr)){
+                buffer.append("*");
+            }else{
+                buffer.append(nameStr);
             }
+            buffer.append(" FROM ");
+            buffer.append(ORMUtils.getTableName(clazz));
+            if(primaryKey != null) {
+                buffer.append(" WHERE ");
+                buffer.append(primaryKey.getColumn() + " = ? ");
+            }else{
+                List<String> ps = new ArrayList<String>();
+                for(int i = 0; i < size; i++){
+                    if(mask.get(i)){
+                        ps.add(infoList.get(i).getColumnName() + " = ? ");
+                    }
+                }
+                if(ps.size() > 0){
+                    buffer.append(" WHERE " + ORMUtils.join(ps, " AND "));
+                }
+            }
+            sql = SQLTemplate.put(SQLTemplate.GET, clazz, null, mask, nameStr, buffer.toString());
         }
         SQLHelper helper = new SQLHelper();
-        helper.setSql(sql.toString());
+        helper.setTemplateSql(sql);
         helper.setParameters(parameters);
         return helper;
 
@@ -707,6 +937,40 @@ public class SQLHelperCreator {
         return helper;
     }
 
+    public static SQLHelper exists(Options options, Class<?> clazz, Expression ... expressions){
+        String tableName = ORMUtils.getTableName(clazz);
+        List<Pair> values = new ArrayList<Pair>();
+        String conditions = options.getConditions(clazz, expressions, values);
+        SQLHelper helper = new SQLHelper();
+        helper.setSql(options.exists(tableName, conditions));
+        helper.setParameters(values);
+        return helper;
+    }
+
+    public static SQLHelper exists(Options options, Class<?> clazz, Condition condition){
+        String tableName = ORMUtils.getTableName(clazz);
+        List<Pair> values = new ArrayList<Pair>();
+        String conditions = options.getConditions(clazz, ORMUtils.newList(condition), values);
+        SQLHelper helper = new SQLHelper();
+        helper.setSql(options.exists(tableName, conditions));
+        helper.setParameters(values);
+        return helper;
+    }
+
+    //多个条件一次查询，参数按条件顺序
+    public static SQLHelper exists(Options options, Class<?> clazz, Condition [] conditions){
+        String tableName = ORMUtils.getTableName(clazz);
+        List<Pair> values = new ArrayList<Pair>();
+        List<String> sqls = new ArrayList<String>();
+        for(Condition condition : conditions){
+            sqls.add(options.getConditions(clazz, ORMUtils.newList(condition), values));
+        }
+        SQLHelper helper = new SQLHelper();
+        helper.setSql(options.exists(tableName, sqls));
+        helper.setParameters(values);
+        return helper;
+    }
+
     public static SQLHelper queryCount(Options options, Class<?> clazz, Condition condition){
         String tableName = ORMUtils.getTableName(clazz);
         StringBuffer sql = new StringBuffer("SELECT COUNT(*) FROM " + tableName);
@@ -729,12 +993,6 @@ public class SQLHelperCreator {
      */
     public static SQLHelper get(Class clazz, Object id){
 
-        String tableName = ORMUtils.getTableName(clazz);
-
-        StringBuffer sql = new StringBuffer("SELECT * ");
-        sql.append("FROM ");
-        sql.append(tableName);
-        sql.append(" WHERE ");
         Pair primaryKey = null;
         List<Pair> parameters = new ArrayList<Pair>();
         List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
@@ -748,44 +1006,70 @@ public class SQLHelperCreator {
         if(primaryKey == null){
             throw new ORMException("Select table without primary key, Class[" + clazz.getName() + "], value[" + id + "]");
         }
-        sql.append(primaryKey.getColumn() + " = ? ");
+        String sql = SQLTemplate.get(SQLTemplate.GET_ID, clazz, null, null, primaryKey.getColumn());
+        if(sql == null){
+            sql = SQLTemplate.put(SQLTemplate.GET_ID, clazz, null, null, primaryKey.getColumn(),
+                    "SELECT * FROM " + ORMUtils.getTableName(clazz) + " WHERE " + primaryKey.getColumn() + " = ? ");
+        }
         parameters.add(primaryKey);
         SQLHelper helper = new SQLHelper();
-        helper.setSql(sql.toString());
+        helper.setTemplateSql(sql);
         helper.setParameters(parameters);
         return helper;
     }
 
-    private  static <T> T parse(IQueryConvert queryConvert, Object value, Class distClass) throws SQLException{
-        Object object = null;
-        if(queryConvert != null){
-            object = queryConvert.queryValueHandle(value, distClass);
+    /**
+     * 按主键批量查询：WHERE id IN (?,...)
+     * IN 参数个数按 2 的幂补齐（重复最后一个 id，不超过 maxSize），使不同个数的查询复用同一 SQL
+     * @param idOnly true 时只查询主键列（用于 existsAll）
+     */
+    public static SQLHelper getAll(Class clazz, List<?> ids, int maxSize, boolean idOnly){
+        ColumnInfo primaryInfo = null;
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
+        for(ColumnInfo info : infoList){
+            if(info.getPrimaryKey()){
+                primaryInfo = info;
+                break;
+            }
         }
-        return (T)object;
-    }
-
-    private  static KV parseMap(IQueryConvert queryConvert, Map<String, Object> tempMap, Object value, Class distClass) throws SQLException{
-        KV object = null;
-        if(queryConvert != null){
-            object = queryConvert.queryValueHandleMap(tempMap, value, distClass);
+        if(primaryInfo == null || ids == null || ids.isEmpty()){
+            throw new ORMException("Select table without primary key, Class[" + clazz.getName() + "], value[" + ids + "]");
         }
-        return object;
-    }
-
-    private  static <T> T parseObject(IColumnConvert columnConvert, Object result, Object value, ColumnInfo columnInfo) throws SQLException{
-        Object object = null;
-        if(columnConvert != null){
-            object = columnConvert.getValueHandle(result, columnInfo, value);
+        int size = ids.size();
+        if(size > 1 && size < maxSize){
+            size = Math.min(Integer.highestOneBit(size - 1) << 1, maxSize);
         }
-        return (T)object;
-    }
-
-    private  static <T> T parseObject(IQueryConvert queryConvert, Object result, Object value, ColumnInfo columnInfo) throws SQLException{
-        Object object = null;
-        if(queryConvert != null){
-            object = queryConvert.queryValueHandle(result, columnInfo, value);
+        List<Pair> parameters = new ArrayList<Pair>(size);
+        for(int i = 0; i < size; i++){
+            Object id = ids.get(Math.min(i, ids.size() - 1));
+            parameters.add(handleObject(null, primaryInfo, id));
         }
-        return (T)object;
+        String column = primaryInfo.getColumnName();
+        String extra = column + (idOnly ? ":id:" : ":") + size;
+        String sql = SQLTemplate.get(SQLTemplate.GET_IDS, clazz, null, null, extra);
+        if(sql == null){
+            StringBuffer buffer = new StringBuffer("SELECT ");
+            buffer.append(idOnly ? column : "*");
+            buffer.append(" FROM ");
+            buffer.append(ORMUtils.getTableName(clazz));
+            buffer.append(" WHERE ");
+            buffer.append(column);
+            buffer.append(" IN (");
+            for(int i = 0; i < size; i++){
+                if(i > 0){
+                    buffer.append(",");
+                }
+                buffer.append("?");
+            }
+            buffer.append(")");
+            sql = SQLTemplate.put(SQLTemplate.GET_IDS, clazz, null, null, extra, buffer.toString());
+        }
+        SQLHelper helper = new SQLHelper();
+        helper.setIdField(primaryInfo.getField());
+        helper.setTemplateSql(sql);
+        helper.setParameters(parameters);
+        return helper;
     }
 
     public static <T> T newClass(Class clazz, ResultSet rs, IResultSetHandler resultSetHandler)
@@ -795,172 +1079,19 @@ public class SQLHelperCreator {
 
     public static <T> T newClass(Class clazz, ResultSet rs, IQueryConvert queryConvert, IResultSetHandler resultSetHandler)
             throws IllegalAccessException, SQLException {
-        ResultSetMetaData metaMap = rs.getMetaData();
-        T t = null;
-        DataType type = DataType.getDataType(clazz.getSimpleName());
-
-        Object object = rs.getObject(1);
-        if(type != DataType.MAP && type != DataType.UNKNOWN){
-            Object parser = parse(queryConvert, object, clazz);
-            if(parser != null){
-                return (T)parser;
-            }
-        }
-        //String, Map, Bean
-        switch (type){
-            case STRING:
-                if(object != null) {
-                    t = (T) object.toString();
-                }
-                break;
-            case INTEGER:
-                t = (T)new Integer(rs.getInt(1));
-                break;
-            case LONG:
-                t = (T)new Long(rs.getLong(1));
-                break;
-            case FLOAT:
-                t = (T)new Float(rs.getFloat(1));
-                break;
-            case DOUBLE:
-                t = (T)new Double(rs.getDouble(1));
-                break;
-            case SHORT:
-                t = (T)new Short(rs.getShort(1));
-                break;
-            case BYTE:
-                t = (T)new Byte(rs.getByte(1));
-                break;
-            case BOOLEAN:
-                t = (T)new Boolean(rs.getBoolean(1));
-                break;
-            case MAP :
-                Map<String, Object> tempMap = new HashMap<String, Object>();
-                for(int i = 1; i <= metaMap.getColumnCount(); i++){
-                    Object obj = rs.getObject(i);
-
-                    KV kv = parseMap(queryConvert, tempMap, object, clazz);
-                    if(kv != null){
-                        tempMap.put(kv.getKey(), kv.getValue());
-                        continue;
-                    }
-                    kv = resultSetHandler.parseMap(metaMap, i, obj, rs);
-                    if(kv != null) {
-                        tempMap.put(kv.getKey(), kv.getValue());
-                    }
-                }
-                t = (T)tempMap;
-                break;
-            case UNKNOWN:// Object.
-                ResultSetMetaData meta = rs.getMetaData();
-                Map<String, Object> temp = new HashMap<String, Object>();
-                for(int i = 1; i <= meta.getColumnCount(); i++){// orderTest - ORDERTEST ---> ORDER_NUM
-                    String label = meta.getColumnLabel(i);
-                    String name = meta.getColumnName(i);
-                    Object value = rs.getObject(label);
-                    String tmp = QueryUtils.displayNameOrAsName(label, name);
-                    temp.put(tmp, value);
-                    temp.put(tmp.toLowerCase(Locale.ROOT), value);
-                    temp.put(tmp.toUpperCase(Locale.ROOT), value);
-                    temp.put(label.toLowerCase(Locale.ROOT), value);
-                    temp.put(label.toUpperCase(Locale.ROOT), value);
-                }
-                //如果是bigdeicmal？
-                try {
-                    t = (T)clazz.newInstance();
-                }catch (Exception e){
-                    e.printStackTrace();
-                }
-                List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
-                for(ColumnInfo info : infoList){
-                    handleInfo(rs, queryConvert, resultSetHandler, t, temp, info);
-                }
-                List<ColumnInfo> fields = ORMUtils.getExtendFields(clazz);
-                for (ColumnInfo info : fields){
-                    handleInfo(rs, queryConvert, resultSetHandler, t, temp, info);
-                }
-                break;
-            default:
-                break;
-        }
-
-        return t;
-
+        return (T)RowMapper.create(clazz, rs).map(rs, queryConvert, resultSetHandler);
     }
 
-    private static <T> void handleInfo(ResultSet rs, IQueryConvert queryConvert, IResultSetHandler resultSetHandler, T t, Map<String, Object> temp, ColumnInfo info) throws SQLException {
-        Object obj = null;
-        if(info.getColumnName() != null){
-            obj = temp.get(info.getColumnName());
-            if(obj == null){
-                obj = temp.get(info.getColumnName().toUpperCase(Locale.ROOT));
-            }
-            if(obj == null){
-                obj = temp.get(info.getColumnName().toLowerCase(Locale.ROOT));
-            }
-        }else{
-            obj = temp.get(info.getName());
-            if(obj == null){
-                obj = temp.get(info.getName().toUpperCase(Locale.ROOT));
-            }
-            if(obj == null){
-                obj = temp.get(info.getName().toLowerCase(Locale.ROOT));
-            }
-        }
-
-        if(obj != null){
-            //mysql tinyint(1) getObject会导致返回  boolean对象；修改为tinyint(2)或者如下兼容
-            if("integer".equalsIgnoreCase(info.getType()) && (obj instanceof Boolean)){
-                obj = rs.getInt(info.getColumnName());
-            }
-            //若有优先column( column处理完给query)，若无直接处理query
-            boolean done = false;
-            Object kvObject = null;
-            RdConvert deserializer = info.getField().getAnnotation(RdConvert.class);
-            if(deserializer != null){
-                IColumnConvert des = columnConvertMap.get(deserializer.value());
-                if(des == null) {
-                    try {
-                        des = deserializer.value().newInstance();
-                        columnConvertMap.put(deserializer.value(), des);
-                    } catch (InstantiationException e) {
-                        throw new ORMException(e);
-                    } catch (IllegalAccessException e) {
-                        throw new ORMException(e);
-                    }
-                }
-                if(des != null){
-                    kvObject = parseObject(des, t, obj, info);
-                    if(kvObject != null){
-                        Object tempKvObject = parseObject(queryConvert,t, obj, info);
-                        if(tempKvObject != null){
-                            ORMUtils.setFieldValue(t, info, tempKvObject);
-                        }else {
-                            ORMUtils.setFieldValue(t, info, kvObject);
-                        }
-                        done = true;
-                    }
-                }
-            }
-            if(!done){
-                kvObject = parseObject(queryConvert,t, obj, info);
-                if(kvObject != null){
-                    ORMUtils.setFieldValue(t, info, kvObject);
-                    done = true;
-                }
-            }
-            if(!done){
-                resultSetHandler.handle(t, info, obj, rs);
-            }
-        }
+    public static void setParameter(Options options, PreparedStatement ps, List<Pair> objects, Connection connection) throws SQLException{
+        setParameter(ExecutionContext.of(options), ps, objects, connection);
     }
 
-
-    public static void setParameter(Options options, PreparedStatement ps, List<Pair> objects, Connection connection) throws SQLException{
+    public static void setParameter(ExecutionContext context, PreparedStatement ps, List<Pair> objects, Connection connection) throws SQLException{
+        Options options = context.getOptions();
         if(options == null){
             return;
         }
-        String databaseType = DatabaseTypeHolder.get();
+        String databaseType = context.getDatabaseType();
         //ps.setObject(); 是否可以统一使用
         for(int i = 0; i < objects.size(); i++){
             Pair pair = objects.get(i);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.helper;
+
+import com.objectsql.support.Options;
+import com.objectsql.utils.ORMUtils;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * insert/update/delete/get/upsert 的 SQL 模板缓存
+ * 按 (操作, 实体类, 方言, 列掩码, 附加信息) 缓存已完成大小写转换的 SQL，
+ * 参数顺序与掩码中列的顺序一致，命中时只需提取参数值
+ */
+public class SQLTemplate {
+
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    public static final String DELETE_ID = "deleteById";
+    public static final String GET = "get";
+    public static final String GET_ID = "getById";
+    public static final String GET_IDS = "getByIds";
+    public static final String UPSERT = "upsert";
+
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    private static Map<Key, String> templates = new ConcurrentHashMap<Key, String>();
+
+    public static String get(String operation, Class clazz, Options options, BitSet mask, String extra){
+        return templates.get(new Key(operation, clazz, options, mask, extra));
+    }
+
+    public static String put(String operation, Class clazz, Options options, BitSet mask, String extra, String sql){
+        String converted = ORMUtils.convertSQL(sql);
+        if(templates.size() < MAX_CACHE_SIZE){
+            templates.put(new Key(operation, clazz, options, mask, extra), converted);
+        }
+        return converted;
+    }
+
+    public static void clear(){
+        templates.clear();
+    }
+
+    private static class Key {
+        private String operation;
+        private Class clazz;
+        private Class optionsClass;
+        private BitSet mask;
+        private String extra;
+        private boolean lowerCase;
+        private int hash;
+
+        Key(String operation, Class clazz, Options options, BitSet mask, String extra){
+            this.operation = operation;
+            this.clazz = clazz;
+            this.optionsClass = options != null ? options.getClass() : null;
+            this.mask = mask;
+            this.extra = extra;
+            this.lowerCase = ORMUtils.isLowerCaseSql();
+            int h = operation.hashCode();
+            h = 31 * h + clazz.hashCode();
+            h = 31 * h + (optionsClass != null ? optionsClass.hashCode() : 0);
+            h = 31 * h + (mask != null ? mask.hashCode() : 0);
+            h = 31 * h + (extra != null ? extra.hashCode() : 0);
+            h = 31 * h + (lowerCase ? 1 : 0);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash
+                    && lowerCase == key.lowerCase
+                    && operation.equals(key.operation)
+                    && clazz == key.clazz
+                    && optionsClass == key.optionsClass
+                    && (mask != null ? mask.equals(key.mask) : key.mask == null)
+                    && (extra != null ? extra.equals(key.extra) : key.extra == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import org.springframework.util.StringUtils;
 import javax.sql.rowset.serial.SerialClob;
 import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
@@ -39,8 +41,462 @@ public abstract class AbstractOptions implements Options{
         return doQuery(query, null);
     }
 
+    public QueryInfo doQuery(IQuery query, Pageable page){
+        if(page != null && page.isKeyset()){
+            return doKeysetQuery(query, page);
+        }
+        return renderQuery(query, page);
+    }
+
+    //游标分页：渲染期间临时替换排序（补充主键）与条件（追加游标之后的条件），结束后还原
+    protected QueryInfo doKeysetQuery(IQuery query, Pageable page){
+        List<Order> orders = query.getOrders();
+        List<Condition> conditions = query.getConditions();
+        List<Order> originalOrders = new ArrayList<Order>(orders);
+        List<Condition> originalConditions = new ArrayList<Condition>(conditions);
+        try {
+            List<Order> keyOrders = Keyset.orders(query);
+            Condition seek = Keyset.condition(keyOrders, page.getCursor());
+            orders.clear();
+            orders.addAll(keyOrders);
+            if(seek != null){
+                //原条件分组后再与游标条件 AND，避免 OR 优先级问题
+                Condition condition = new Condition();
+                for(Condition original : originalConditions){
+                    condition.and(original);
+                }
+                condition.and(seek);
+                conditions.clear();
+                conditions.add(condition);
+            }
+            return renderQuery(query, page);
+        } finally {
+            orders.clear();
+            orders.addAll(originalOrders);
+            conditions.clear();
+            conditions.addAll(originalConditions);
+        }
+    }
+
+    //拼接查询 SQL，游标分页在调整排序与条件后同样调用
+    protected abstract QueryInfo renderQuery(IQuery query, Pageable page);
+
+    public int maxInsertParameters(){
+        return 32767;
+    }
+
+    public int maxInsertRows(){
+        return 1000;
+    }
+
+    public boolean multiRowInsertKeys(){
+        return false;
+    }
+
+    //Oracle IN 列表最多 1000 个
+    public int maxInListSize(){
+        return 1000;
+    }
+
+    public boolean windowCount(){
+        return true;
+    }
+
+    //默认 EXISTS 子查询（Oracle/DM 11g 及以下无 FETCH FIRST）
+    public String exists(String table, String conditions){
+        return "SELECT 1" + dual() + " WHERE EXISTS (" + existsSelect(table, conditions) + ")";
+    }
+
+    public String exists(String table, List<String> conditions){
+        StringBuffer sb = new StringBuffer("SELECT ");
+        for(int i = 0; i < conditions.size(); i++){
+            if(i > 0){
+                sb.append(",");
+            }
+            sb.append("CASE WHEN EXISTS (");
+            sb.append(existsSelect(table, conditions.get(i)));
+            sb.append(") THEN 1 ELSE 0 END e" + i + "_");
+        }
+        sb.append(dual());
+        return sb.toString();
+    }
+
+    protected String existsSelect(String table, String conditions){
+        if(ORMUtils.isEmpty(conditions)){
+            return "SELECT 1 FROM " + table;
+        }
+        return "SELECT 1 FROM " + table + " WHERE " + conditions;
+    }
+
+    //无表查询的 FROM 子句
+    protected String dual(){
+        return " FROM DUAL";
+    }
+
+    public long estimateCount(Connection connection, String table, String sql, List<Pair> values) throws SQLException {
+        if(sql == null){
+            String [] names = splitTableName(table);
+            return tableRows(connection, names[0], names[1]);
+        }
+        return explainRows(connection, sql, values);
+    }
+
+    //表的统计行数，schema 可能为空
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        return -1;
+    }
+
+    //执行计划估算的结果行数
+    protected long explainRows(Connection connection, String sql, List<Pair> values) throws SQLException {
+        return -1;
+    }
+
+    //schema.table 拆分并去掉引号
+    protected String [] splitTableName(String table){
+        String schema = null;
+        String name = table.trim();
+        int index = name.lastIndexOf('.');
+        if(index > 0){
+            schema = unquote(name.substring(0, index));
+            name = name.substring(index + 1);
+        }
+        return new String[]{schema, unquote(name)};
+    }
+
+    private String unquote(String name){
+        name = name.trim();
+        if(name.length() > 1){
+            char first = name.charAt(0);
+            char last = name.charAt(name.length() - 1);
+            if((first == '"' && last == '"') || (first == '`' && last == '`') || (first == '[' && last == ']')){
+                return name.substring(1, name.length() - 1);
+            }
+        }
+        return name;
+    }
+
+    //执行查询返回第一行第一列，为空时返回 -1
+    protected long queryLong(Connection connection, String sql, Object ... params) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = connection.prepareStatement(sql);
+            for(int i = 0; i < params.length; i++){
+                ps.setObject(i + 1, params[i]);
+            }
+            rs = ps.executeQuery();
+            if(rs.next()){
+                Object value = rs.getObject(1);
+                if(value instanceof Number){
+                    return ((Number) value).longValue();
+                }
+            }
+            return -1;
+        } finally {
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    //以 EXPLAIN 前缀执行查询，参数与原查询一致
+    protected ResultSet explain(Connection connection, PreparedStatement ps, List<Pair> values) throws SQLException {
+        if(values != null){
+            String type = DatabaseTypeHolder.get();
+            for(int i = 0; i < values.size(); i++){
+                setParameter(ps, connection, type, i, values.get(i));
+            }
+        }
+        return ps.executeQuery();
+    }
+
+    //WINDOW 分页时附加在查询列之后的总数列；DISTINCT 时窗口统计的是去重前的行数，不使用
+    protected String windowCountColumn(IQuery query, Pageable page){
+        if(page == null || page.getCountMode() != PageCountMode.WINDOW || !windowCount() || query.isDistinct()){
+            return "";
+        }
+        return ",COUNT(*) OVER() " + PageCountMode.WINDOW_COLUMN + " ";
+    }
+
+    public String multiRowInsert(String insertSQL, int rows){
+        int index = valuesIndex(insertSQL);
+        String row = insertSQL.substring(index + VALUES.length());
+        StringBuffer sb = new StringBuffer(insertSQL.length() + (row.length() + 1) * rows);
+        sb.append(insertSQL);
+        for(int i = 1; i < rows; i++){
+            sb.append(",");
+            sb.append(row);
+        }
+        return sb.toString();
+    }
+
+    private static final String VALUES = " VALUES ";
+
+    //单行 INSERT 中 VALUES 关键字的位置（SQL 可能已转为小写）
+    protected int valuesIndex(String insertSQL){
+        int index = insertSQL.toUpperCase(Locale.ROOT).lastIndexOf(") VALUES (");
+        if(index < 0){
+            throw new ORMException("Not a single row insert sql: " + insertSQL);
+        }
+        return index + 1;
+    }
+
+    //默认使用 MERGE（Oracle/DM）
+    public String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns){
+        return merge(table, columns, conflictColumns, updateColumns, " FROM DUAL");
+    }
+
+    protected String merge(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns, String from){
+        StringBuffer sb = new StringBuffer("MERGE INTO ");
+        sb.append(table);
+        sb.append(" T USING (SELECT ");
+        for(int i = 0; i < columns.size(); i++){
+            if(i > 0){
+                sb.append(",");
+            }
+            sb.append("? AS ");
+            sb.append(columns.get(i));
+        }
+        sb.append(from);
+        sb.append(") S ON (");
+        for(int i = 0; i < conflictColumns.size(); i++){
+            if(i > 0){
+                sb.append(" AND ");
+            }
+            sb.append("T." + conflictColumns.get(i) + " = S." + conflictColumns.get(i));
+        }
+        sb.append(")");
+        if(!updateColumns.isEmpty()){
+            sb.append(" WHEN MATCHED THEN UPDATE SET ");
+            for(int i = 0; i < updateColumns.size(); i++){
+                if(i > 0){
+                    sb.append(",");
+                }
+                sb.append("T." + updateColumns.get(i) + " = S." + updateColumns.get(i));
+            }
+        }
+        sb.append(" WHEN NOT MATCHED THEN INSERT (");
+        sb.append(ORMUtils.join(columns, ","));
+        sb.append(") VALUES (");
+        for(int i = 0; i < columns.size(); i++){
+            if(i > 0){
+                sb.append(",");
+            }
+            sb.append("S." + columns.get(i));
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    //单行 INSERT INTO table(columns) VALUES (?,...)
+    protected String insertValues(String table, List<String> columns){
+        StringBuffer sb = new StringBuffer("INSERT INTO ");
+        sb.append(table);
+        sb.append("(");
+        sb.append(ORMUtils.join(columns, ","));
+        sb.append(") VALUES (");
+        for(int i = 0; i < columns.size(); i++){
+            if(i > 0){
+                sb.append(",");
+            }
+            sb.append("?");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<List<Pair>> rows) throws SQLException {
+        return -1;
+    }
+
+    public Map<String, List<TableColumn>> schemaColumns(Connection connection) {
+        return null;
+    }
+
+    //文本格式的一行（PostgreSQL COPY text 与 MySQL LOAD DATA 默认格式）：制表符分隔，\N 为 NULL，反斜杠转义
+    protected String bulkLine(List<Pair> values){
+        StringBuffer sb = new StringBuffer();
+        for(int i = 0; i < values.size(); i++){
+            if(i > 0){
+                sb.append('\t');
+            }
+            String text = bulkText(values.get(i));
+            if(text == null){
+                sb.append("\\N");
+                continue;
+            }
+            for(int j = 0; j < text.length(); j++){
+                char c = text.charAt(j);
+                switch (c){
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+        }
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    //单个值的文本形式，转换与 setParameter 一致，返回 null 表示 NULL
+    protected String bulkText(Pair pair){
+        Object obj = pair.getValue();
+        if(obj == null){
+            return null;
+        }
+        ColumnType columnType = pair.getColumnType();
+        DataType type =  DataType.getDataType(pair.getType());
+        switch (type) {
+            case STRING:
+                String text = obj.toString();
+                if(columnType != ColumnType.CLOB && "".equals(text.trim())){
+                    return null;
+                }
+                return text;
+            case DATE:
+                if(columnType == ColumnType.LONG) {
+                    if(obj instanceof Long){
+                        return obj.toString();
+                    }
+                    return Long.toString(((Date) obj).getTime());
+                }
+                Date date = (Date)obj;
+                if(columnType == ColumnType.DATE) {
+                    return new java.sql.Date(date.getTime()).toString();
+                }else if(columnType == ColumnType.TIME) {
+                    return new java.sql.Time(date.getTime()).toString();
+                }else if(columnType == ColumnType.YEAR) {
+                    Calendar calendar = Calendar.getInstance();
+                    calendar.setTime(date);
+                    return Integer.toString(calendar.get(Calendar.YEAR));
+                }
+                return new Timestamp(date.getTime()).toString();
+            case DECIMAL:
+                return scaleDecimal((BigDecimal) obj, pair).toPlainString();
+            default:
+                if(obj instanceof Boolean){
+                    return bulkBoolean((Boolean) obj);
+                }else if(obj instanceof BigDecimal){
+                    return ((BigDecimal) obj).toPlainString();
+                }else if(obj instanceof Date){
+                    return new Timestamp(((Date) obj).getTime()).toString();
+                }
+                return obj.toString();
+        }
+    }
+
+    protected String bulkBoolean(Boolean value){
+        return value.toString();
+    }
+
+    //取得驱动对象（可能被连接池包装），驱动不在类路径或类型不符时返回 null
+    protected Object unwrap(Wrapper wrapper, String className) throws SQLException {
+        Class<?> clazz = null;
+        try {
+            clazz = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        if(clazz.isInstance(wrapper)){
+            return wrapper;
+        }
+        if(wrapper.isWrapperFor(clazz)){
+            return wrapper.unwrap(clazz);
+        }
+        return null;
+    }
+
+    //反射调用驱动接口方法，避免编译期依赖具体驱动
+    protected Object invoke(Object target, String className, String methodName, Class<?> [] types, Object ... args) throws SQLException {
+        try {
+            Method method = Class.forName(className).getMethod(methodName, types);
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable throwable = e.getTargetException();
+            if(throwable instanceof SQLException){
+                throw (SQLException)throwable;
+            }
+            throw new ORMException(e);
+        } catch (ClassNotFoundException e) {
+            throw new ORMException(e);
+        } catch (NoSuchMethodException e) {
+            throw new ORMException(e);
+        } catch (IllegalAccessException e) {
+            throw new ORMException(e);
+        }
+    }
+
     public abstract boolean preSetParameter(PreparedStatement ps, Connection connection, String databaseType, int i, Pair pair) throws SQLException;
 
+    //自适应批次：每批约 2M，单列最多按 4000 计
+    private static final int FETCH_BUFFER_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_COLUMN_WIDTH = 4000;
+    private static final int MIN_FETCH_SIZE = 50;
+    private static final int MAX_FETCH_SIZE = 5000;
+
+    protected int defaultFetchSize(){
+        return 1000;
+    }
+
+    protected int fetchSize(FetchMode mode, int fetchSize){
+        if(fetchSize > 0){
+            return fetchSize;
+        }
+        if(mode == null || mode == FetchMode.DEFAULT){
+            return 0;
+        }
+        return defaultFetchSize();
+    }
+
+    public boolean prepareFetch(Connection connection, PreparedStatement ps, FetchMode mode, int fetchSize) throws SQLException {
+        int size = fetchSize(mode, fetchSize);
+        if(size > 0){
+            ps.setFetchSize(size);
+        }
+        return false;
+    }
+
+    public void adaptFetchSize(ResultSet rs, ResultSetShape shape, FetchMode mode, int fetchSize) throws SQLException {
+        adaptiveFetchSize(rs, shape, mode, fetchSize);
+    }
+
+    protected void adaptiveFetchSize(ResultSet rs, ResultSetShape shape, FetchMode mode, int fetchSize) throws SQLException {
+        if(fetchSize > 0 || mode == null || mode == FetchMode.DEFAULT || shape == null){
+            return;
+        }
+        int width = 0;
+        for(int i = 1; i <= shape.getColumnCount(); i++){
+            int size = shape.getDisplaySize(i);
+            if(size <= 0 || size > MAX_COLUMN_WIDTH){
+                size = MAX_COLUMN_WIDTH;
+            }
+            width += size;
+        }
+        int size = FETCH_BUFFER_SIZE / Math.max(width, 1);
+        size = Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, size));
+        rs.setFetchSize(size);
+    }
+
     public boolean tableExists(Connection connection, RdTable rdTable)  throws ORMException {
         if(rdTable == null){
             throw new ORMException("Table annotation(RdTable) is null.");
@@ -154,30 +610,7 @@ public abstract class AbstractOptions implements Options{
                 if(obj == null) {
                     ps.setObject(i + 1, null);
                 }else{
-                    BigDecimal decimal = (BigDecimal) obj;
-                    Map<String, Object> metadata = pair.getMetadata();
-                    int runningMode = BigDecimal.ROUND_UNNECESSARY;
-                    int scale = decimal.scale();
-                    if (metadata != null) {
-                        Integer scaleValue = (Integer) metadata.get("scale");
-                        int newScale = scale;
-                        if (scaleValue != null) {//当scale为0时，才会使用 RdColumn中的scale, 不能使用上述 decimal中的scale, 有可能失去精度变成很大
-                            newScale = scaleValue.intValue();
-                        }
-                        Integer mode = (Integer) metadata.get("runningMode");//优先级最高，比ORMUTils。runningMode高
-                        if (mode != null && mode.intValue() > -1) {
-                            runningMode = mode.intValue();
-                            scale = newScale;
-                        }else if(ORMUtils.getRunningMode() > -1){
-                            runningMode = ORMUtils.getRunningMode();
-                            scale = newScale;
-                        }
-                    }else{
-                        if(ORMUtils.getRunningMode() > -1){
-                            runningMode = ORMUtils.getRunningMode();
-                        }
-                    }
-                    BigDecimal setScale = decimal.setScale(scale, runningMode);
+                    BigDecimal setScale = scaleDecimal((BigDecimal) obj, pair);
                     ps.setBigDecimal(i + 1, setScale);
                 }
                 break;
@@ -191,6 +624,33 @@ public abstract class AbstractOptions implements Options{
     }
 
 
+    //按 RdColumn 的 scale/runningMode 或全局 runningMode 调整精度
+    protected BigDecimal scaleDecimal(BigDecimal decimal, Pair pair){
+        Map<String, Object> metadata = pair.getMetadata();
+        int runningMode = BigDecimal.ROUND_UNNECESSARY;
+        int scale = decimal.scale();
+        if (metadata != null) {
+            Integer scaleValue = (Integer) metadata.get("scale");
+            int newScale = scale;
+            if (scaleValue != null) {//当scale为0时，才会使用 RdColumn中的scale, 不能使用上述 decimal中的scale, 有可能失去精度变成很大
+                newScale = scaleValue.intValue();
+            }
+            Integer mode = (Integer) metadata.get("runningMode");//优先级最高，比ORMUTils。runningMode高
+            if (mode != null && mode.intValue() > -1) {
+                runningMode = mode.intValue();
+                scale = newScale;
+            }else if(ORMUtils.getRunningMode() > -1){
+                runningMode = ORMUtils.getRunningMode();
+                scale = newScale;
+            }
+        }else{
+            if(ORMUtils.getRunningMode() > -1){
+                runningMode = ORMUtils.getRunningMode();
+            }
+        }
+        return decimal.setScale(scale, runningMode);
+    }
+
     @Override
     public QueryInfo doQueryCount(IQuery query) {
         QueryInfo info = new QueryInfo();
@@ -666,20 +1126,7 @@ public abstract class AbstractOptions implements Options{
             }
         }
         if(!ORMUtils.isEmpty(conditionValue)){
-            Column column = expression.getLeft();
-            ColumnInfo columnInfo = null;
-            if(ORMUtils.isEmpty(column.getAlias()) && clazz != null){
-                Map<String, ColumnInfo> pairMap = ORMUtils.getColumnColumnInfo(clazz);
-                columnInfo = pairMap.get(column.getName());
-            }else{
-                if(clazzes != null && clazzes.containsKey(column.getAlias())){
-                    Object object = clazzes.get(column.getAlias());
-                    if(object instanceof Class) {
-                        Map<String, ColumnInfo> pairMap = ORMUtils.getColumnColumnInfo((Class) object);
-                        columnInfo = pairMap.get(column.getName());
-                    }
-                }
-            }
+            ColumnInfo columnInfo = getColumnInfo(clazz, clazzes, expression.getLeft());
             switch (expression.getType()) {
                 case CDT_EQUAL:
                     sqlPair = new SQLPair(" " + conditionName + " = ?", new Pair(columnInfo, conditionValue));
@@ -779,6 +1226,23 @@ public abstract class AbstractOptions implements Options{
         return sqlPair;
     }
 
+    ColumnInfo getColumnInfo(Class clazz, Map<String,Object> clazzes, Column column){
+        ColumnInfo columnInfo = null;
+        if(ORMUtils.isEmpty(column.getAlias()) && clazz != null){
+            Map<String, ColumnInfo> pairMap = ORMUtils.getColumnColumnInfo(clazz);
+            columnInfo = pairMap.get(column.getName());
+        }else{
+            if(clazzes != null && clazzes.containsKey(column.getAlias())){
+                Object object = clazzes.get(column.getAlias());
+                if(object instanceof Class) {
+                    Map<String, ColumnInfo> pairMap = ORMUtils.getColumnColumnInfo((Class) object);
+                    columnInfo = pairMap.get(column.getName());
+                }
+            }
+        }
+        return columnInfo;
+    }
+
     public String parseColumn(Column column){
 
         if(column == null){
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.option;
+
+import com.objectsql.support.Pair;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 批量导入数据流：按需从 rows 取行并由 AbstractOptions.bulkLine 编码（UTF-8），不整体缓存
+ */
+class BulkRowStream extends InputStream {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //每次编码约 64K 字符
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final AbstractOptions options;
+    private final Iterator<List<Pair>> rows;
+    private byte [] buffer = new byte[0];
+    private int position;
+    private long count;
+
+    BulkRowStream(AbstractOptions options, Iterator<List<Pair>> rows){
+        this.options = options;
+        this.rows = rows;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() {
+        if(!fill()){
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0){
+            return 0;
+        }
+        if(!fill()){
+            return -1;
+        }
+        int size = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, size);
+        position += size;
+        return size;
+    }
+
+    private boolean fill(){
+        if(position < buffer.length){
+            return true;
+        }
+        StringBuffer sb = new StringBuffer();
+        while (sb.length() < CHUNK_SIZE && rows.hasNext()){
+            sb.append(options.bulkLine(rows.next()));
+            count++;
+        }
+        if(sb.length() == 0){
+            return false;
+        }
+        buffer = sb.toString().getBytes(UTF8);
+        position = 0;
+        return true;
+    }
+}
@@ -22,7 +22,9 @@ import com.objectsql.support.TableColumn;
 import com.objectsql.utils.ORMUtils;
 import com.objectsql.support.ColumnInfo;
 import com.objectsql.support.ColumnType;
+import com.objectsql.support.Pair;
 
+import java.io.*;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
@@ -39,6 +41,122 @@ public class H2Options extends MySQLOptions{
         return "H2";
     }
 
+    @Override
+    public boolean windowCount() {
+        return true;
+    }
+
+    //ROW_COUNT_ESTIMATE 仅 H2 1.x 提供
+    @Override
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        if(connection.getMetaData().getDatabaseMajorVersion() > 1){
+            return -1;
+        }
+        if(schema == null){
+            return queryLong(connection, "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = SCHEMA() AND UPPER(TABLE_NAME) = UPPER(?)", table);
+        }
+        return queryLong(connection, "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(?) AND UPPER(TABLE_NAME) = UPPER(?)", schema, table);
+    }
+
+    //H2 的执行计划不含行数估算
+    @Override
+    protected long explainRows(Connection connection, String sql, List<Pair> values) throws SQLException {
+        return -1;
+    }
+
+    //H2 不支持负数 fetchSize
+    @Override
+    protected boolean streamFetch() {
+        return false;
+    }
+
+    //H2 的 MERGE ... KEY 冲突时更新全部插入列
+    @Override
+    public String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns) {
+        StringBuffer sb = new StringBuffer("MERGE INTO ");
+        sb.append(table);
+        sb.append("(");
+        sb.append(ORMUtils.join(columns, ","));
+        sb.append(") KEY(");
+        sb.append(ORMUtils.join(conflictColumns, ","));
+        sb.append(") VALUES (");
+        for(int i = 0; i < columns.size(); i++){
+            if(i > 0){
+                sb.append(",");
+            }
+            sb.append("?");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    //CSVREAD 由数据库进程读取文件，仅支持嵌入式与内存库；先写入临时 CSV 文件
+    @Override
+    public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<List<Pair>> rows) throws SQLException {
+        String url = connection.getMetaData().getURL();
+        if(url == null || url.contains(":tcp:") || url.contains(":ssl:")){
+            return -1;
+        }
+        File file = null;
+        Statement statement = null;
+        try {
+            file = File.createTempFile("objectsql", ".csv");
+            InputStream in = new BulkRowStream(this, rows);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte [] buffer = new byte[8192];
+                int size = 0;
+                while ((size = in.read(buffer)) > -1){
+                    out.write(buffer, 0, size);
+                }
+            } finally {
+                out.close();
+            }
+            //CSVREAD 参数不能绑定，文件路径不参与大小写转换
+            String sql = ORMUtils.convertSQL("INSERT INTO " + table + "(" + ORMUtils.join(columns, ",") + ") SELECT * FROM ")
+                    + "CSVREAD('" + file.getAbsolutePath().replace("'", "''") + "', '"
+                    + ORMUtils.join(columns, ",") + "', 'charset=UTF-8 fieldSeparator=,')";
+            statement = connection.createStatement();
+            return statement.executeUpdate(sql);
+        } catch (IOException e) {
+            throw new ORMException(e);
+        } finally {
+            if(statement != null){
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(file != null){
+                file.delete();
+            }
+        }
+    }
+
+    //CSV：非 NULL 值加双引号（内部双引号重复），NULL 为空字段
+    @Override
+    protected String bulkLine(List<Pair> values) {
+        StringBuffer sb = new StringBuffer();
+        for(int i = 0; i < values.size(); i++){
+            if(i > 0){
+                sb.append(',');
+            }
+            String text = bulkText(values.get(i));
+            if(text != null){
+                sb.append('"');
+                sb.append(text.replace("\"", "\"\""));
+                sb.append('"');
+            }
+        }
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    @Override
+    protected String bulkBoolean(Boolean value) {
+        return value.toString();
+    }
+
     @Override
     public List<Table> tables(Connection connection, String keyword) {
         List<Table> temp = new ArrayList<Table>();
@@ -197,16 +315,46 @@ public class H2Options extends MySQLOptions{
             ps.setString(2, dbName);
             rs = ps.executeQuery();
             while (rs.next()){
-                TableColumn column = new TableColumn(tableName, rs.getString("COLUMN_NAME"));
-                column.setType(rs.getString("TYPE_NAME").toUpperCase(Locale.ROOT));
-                column.setLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
-                column.setNullable("YES".equalsIgnoreCase(rs.getString("IS_NULLABLE")));
-                column.setPrecision(rs.getInt("NUMERIC_PRECISION"));
-                column.setDefaultValue(rs.getString("COLUMN_DEFAULT"));
-                column.setScale(rs.getInt("NUMERIC_SCALE"));
-                column.setOrder(rs.getInt("ORDINAL_POSITION"));
-                column.setComment(rs.getString("REMARKS"));
-                columns.add(column);
+                columns.add(column(rs, tableName));
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public Map<String, List<TableColumn>> schemaColumns(Connection connection){
+        Map<String, List<TableColumn>> columns = new HashMap<String, List<TableColumn>>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            String dbName = connection.getCatalog();
+            String sql = "SELECT * FROM information_schema.COLUMNS WHERE TABLE_CATALOG = ? ORDER BY TABLE_NAME, ORDINAL_POSITION";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, dbName);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString("TABLE_NAME");
+                List<TableColumn> list = columns.get(tableName);
+                if(list == null){
+                    list = new ArrayList<TableColumn>();
+                    columns.put(tableName, list);
+                }
+                list.add(column(rs, tableName));
             }
         } catch (SQLException e) {
             throw new ORMException(e);
@@ -227,6 +375,19 @@ public class H2Options extends MySQLOptions{
         return columns;
     }
 
+    private TableColumn column(ResultSet rs, String tableName) throws SQLException {
+        TableColumn column = new TableColumn(tableName, rs.getString("COLUMN_NAME"));
+        column.setType(rs.getString("TYPE_NAME").toUpperCase(Locale.ROOT));
+        column.setLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
+        column.setNullable("YES".equalsIgnoreCase(rs.getString("IS_NULLABLE")));
+        column.setPrecision(rs.getInt("NUMERIC_PRECISION"));
+        column.setDefaultValue(rs.getString("COLUMN_DEFAULT"));
+        column.setScale(rs.getInt("NUMERIC_SCALE"));
+        column.setOrder(rs.getInt("ORDINAL_POSITION"));
+        column.setComment(rs.getString("REMARKS"));
+        return column;
+    }
+
     @Override
     public List<TableColumn> columns(Connection connection, RdTable rdTable) throws ORMException {
         String tableName = getTableName(rdTable);
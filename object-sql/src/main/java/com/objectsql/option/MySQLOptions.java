@@ -23,6 +23,7 @@ import com.objectsql.helper.SQLHelper;
 import com.objectsql.support.*;
 import com.objectsql.utils.ORMUtils;
 
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
@@ -43,6 +44,29 @@ public class MySQLOptions extends AbstractOptions{
         return "mysql";
     }
 
+    //是否支持 Connector/J 的 Integer.MIN_VALUE 逐行读取
+    protected boolean streamFetch(){
+        return true;
+    }
+
+    @Override
+    public boolean prepareFetch(Connection connection, PreparedStatement ps, FetchMode mode, int fetchSize) throws SQLException {
+        if(mode == FetchMode.STREAM && streamFetch()){
+            //Connector/J 逐行流式读取
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return false;
+        }
+        return super.prepareFetch(connection, ps, mode, fetchSize);
+    }
+
+    @Override
+    public void adaptFetchSize(ResultSet rs, ResultSetShape shape, FetchMode mode, int fetchSize) throws SQLException {
+        if(mode == FetchMode.STREAM && streamFetch()){
+            return;
+        }
+        super.adaptFetchSize(rs, shape, mode, fetchSize);
+    }
+
     @Override
     public String getColumnWithOperator(OperatorType operatorType, String name, String value) {
         String result = null;
@@ -87,13 +111,143 @@ public class MySQLOptions extends AbstractOptions{
     }
 
     @Override
-    public QueryInfo doQuery(IQuery query, Pageable page) {
+    public int maxInsertParameters() {
+        return 65535;
+    }
+
+    @Override
+    public boolean multiRowInsertKeys() {
+        return true;
+    }
+
+    @Override
+    public int maxInListSize() {
+        return 4096;
+    }
+
+    @Override
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        if(schema == null){
+            return queryLong(connection, "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?", table);
+        }
+        return queryLong(connection, "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?", schema, table);
+    }
+
+    //EXPLAIN 中同一层（id 相同）各表 rows * filtered 的乘积
+    @Override
+    protected long explainRows(Connection connection, String sql, List<Pair> values) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = connection.prepareStatement("EXPLAIN " + sql);
+            rs = explain(connection, ps, values);
+            double rows = -1;
+            Object firstId = null;
+            while (rs.next()){
+                Object id = rs.getObject("id");
+                if(rows >= 0 && (id == null || !id.equals(firstId))){
+                    break;
+                }
+                firstId = id;
+                double tableRows = rs.getDouble("rows");
+                double filtered = 100;
+                try {
+                    filtered = rs.getDouble("filtered");
+                } catch (SQLException e) {
+                    //MySQL 5.6 及以下无 filtered 列
+                }
+                double estimate = tableRows * (filtered <= 0 ? 100 : filtered) / 100;
+                rows = rows < 0 ? estimate : rows * estimate;
+            }
+            return rows < 0 ? -1 : (long)Math.ceil(rows);
+        } finally {
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public String exists(String table, String conditions) {
+        return existsSelect(table, conditions) + " LIMIT 1";
+    }
+
+    @Override
+    protected String dual() {
+        return "";
+    }
+
+    //窗口函数需 MySQL 8.0+
+    @Override
+    public boolean windowCount() {
+        return false;
+    }
+
+    //MySQL 按任一主键/唯一键冲突，conflictColumns 仅用于确定不更新的列
+    @Override
+    public String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns) {
+        StringBuffer sb = new StringBuffer(insertValues(table, columns));
+        sb.append(" ON DUPLICATE KEY UPDATE ");
+        if(updateColumns.isEmpty()){
+            sb.append(conflictColumns.get(0) + " = " + conflictColumns.get(0));
+        }else{
+            for(int i = 0; i < updateColumns.size(); i++){
+                if(i > 0){
+                    sb.append(",");
+                }
+                sb.append(updateColumns.get(i) + " = VALUES(" + updateColumns.get(i) + ")");
+            }
+        }
+        return sb.toString();
+    }
+
+    //Connector/J 8 与 5.x 的 Statement 接口
+    private static final String [] MYSQL_STATEMENTS = {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+
+    //需要连接参数 allowLoadLocalInfile=true
+    @Override
+    public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<List<Pair>> rows) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for(String className : MYSQL_STATEMENTS){
+                Object target = unwrap(statement, className);
+                if(target == null){
+                    continue;
+                }
+                invoke(target, className, "setLocalInfileInputStream", new Class[]{InputStream.class}, new BulkRowStream(this, rows));
+                String sql = ORMUtils.convertSQL("LOAD DATA LOCAL INFILE 'objectsql.bulk' INTO TABLE " + table
+                        + " CHARACTER SET utf8mb4 (" + ORMUtils.join(columns, ",") + ")");
+                return statement.executeUpdate(sql);
+            }
+            return -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    protected String bulkBoolean(Boolean value) {
+        return value.booleanValue() ? "1" : "0";
+    }
+
+    @Override
+    protected QueryInfo renderQuery(IQuery query, Pageable page) {
         QueryInfo info = new QueryInfo();
         List<Pair> values = new ArrayList<Pair>();
         StringBuffer sb = new StringBuffer();
         sb.append("SELECT ");
         Map<String, String> asNames = new HashMap<String, String>();
         sb.append(selectColumns(query, null, asNames, values));
+        sb.append(windowCountColumn(query, page));
         sb.append(" FROM ");
         sb.append(tables(query, values, null));
         if(query instanceof IMultiQuery) {
@@ -372,18 +526,7 @@ public class MySQLOptions extends AbstractOptions{
             ps.setString(2, dbName);
             rs = ps.executeQuery();
             while (rs.next()){
-                String cname = rs.getString("COLUMN_NAME");
-                TableColumn column = new TableColumn(tableName, cname);
-                column.setType(rs.getString("DATA_TYPE").toUpperCase(Locale.ROOT));
-                column.setLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
-                column.setNullable("YES".equalsIgnoreCase(rs.getString("IS_NULLABLE")));
-                column.setPrecision(rs.getInt("NUMERIC_PRECISION"));
-                column.setDefaultValue(rs.getString("COLUMN_DEFAULT"));
-                column.setScale(rs.getInt("NUMERIC_SCALE"));
-                column.setOrder(rs.getInt("ORDINAL_POSITION"));
-                column.setComment(rs.getString("COLUMN_COMMENT"));
-                column.setIsPrimaryKey("PRI".equalsIgnoreCase(rs.getString("COLUMN_KEY")));
-                columns.add(column);
+                columns.add(column(rs, tableName));
             }
         } catch (SQLException e) {
             throw new ORMException(e);
@@ -404,6 +547,60 @@ public class MySQLOptions extends AbstractOptions{
         return columns;
     }
 
+    @Override
+    public Map<String, List<TableColumn>> schemaColumns(Connection connection){
+        Map<String, List<TableColumn>> columns = new HashMap<String, List<TableColumn>>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            String dbName = connection.getCatalog();
+            String sql = "SELECT * FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME ASC, ORDINAL_POSITION ASC";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, dbName);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString("TABLE_NAME");
+                List<TableColumn> list = columns.get(tableName);
+                if(list == null){
+                    list = new ArrayList<TableColumn>();
+                    columns.put(tableName, list);
+                }
+                list.add(column(rs, tableName));
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return columns;
+    }
+
+    private TableColumn column(ResultSet rs, String tableName) throws SQLException {
+        String cname = rs.getString("COLUMN_NAME");
+        TableColumn column = new TableColumn(tableName, cname);
+        column.setType(rs.getString("DATA_TYPE").toUpperCase(Locale.ROOT));
+        column.setLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
+        column.setNullable("YES".equalsIgnoreCase(rs.getString("IS_NULLABLE")));
+        column.setPrecision(rs.getInt("NUMERIC_PRECISION"));
+        column.setDefaultValue(rs.getString("COLUMN_DEFAULT"));
+        column.setScale(rs.getInt("NUMERIC_SCALE"));
+        column.setOrder(rs.getInt("ORDINAL_POSITION"));
+        column.setComment(rs.getString("COLUMN_COMMENT"));
+        column.setIsPrimaryKey("PRI".equalsIgnoreCase(rs.getString("COLUMN_KEY")));
+        return column;
+    }
+
     @Override
     public List<String> createOrUpdateSqls(Connection connection, RdTable table, List<ColumnInfo> infos, boolean tableExisted, List<TableColumn> tableColumns) {
         String tableName = getCaseSensitive(table.name(), table.sensitive());
@@ -40,6 +40,25 @@ public class OracleOptions extends AbstractOptions{
         return "oracle";
     }
 
+    @Override
+    public String multiRowInsert(String insertSQL, int rows) {
+        //INSERT ALL INTO t(...) VALUES (...) INTO t(...) VALUES (...) SELECT 1 FROM DUAL
+        String into = insertSQL.substring(insertSQL.toUpperCase(Locale.ROOT).indexOf("INTO "));
+        StringBuffer sb = new StringBuffer("INSERT ALL ");
+        for(int i = 0; i < rows; i++){
+            sb.append(into);
+            sb.append(" ");
+        }
+        sb.append("SELECT 1 FROM DUAL");
+        return ORMUtils.convertSQL(sb.toString());
+    }
+
+    @Override
+    protected int defaultFetchSize() {
+        //驱动默认预取 10 行
+        return 500;
+    }
+
     @Override
     public boolean preSetParameter(PreparedStatement ps, Connection connection, String databaseType, int i,Pair pair) throws SQLException {
         Object obj = pair.getValue();
@@ -240,8 +259,18 @@ public class OracleOptions extends AbstractOptions{
         return names;
     }
 
+    //NUM_ROWS 为最近一次收集统计信息时的行数，未收集时为空；EXPLAIN PLAN 需写入 PLAN_TABLE，不使用
     @Override
-    public QueryInfo doQuery(IQuery query, Pageable page) {
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        if(schema == null){
+            return queryLong(connection, "SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = ?", table.toUpperCase(Locale.ROOT));
+        }
+        return queryLong(connection, "SELECT NUM_ROWS FROM ALL_TABLES WHERE OWNER = ? AND TABLE_NAME = ?",
+                schema.toUpperCase(Locale.ROOT), table.toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    protected QueryInfo renderQuery(IQuery query, Pageable page) {
         QueryInfo info = new QueryInfo();
         List<Pair> values = new ArrayList<Pair>();
         StringBuffer sb = new StringBuffer();
@@ -257,6 +286,10 @@ public class OracleOptions extends AbstractOptions{
         sb.append(selectColumns(query, alias, asNames, values));
         String order = orders(query, alias, asNames);
         boolean hasOrder = !ORMUtils.isEmpty(order);
+        //无排序时 ROWNUM 条件在窗口统计之前过滤，不附加总数列
+        if(hasOrder || !ORMUtils.isEmpty(group)){
+            sb.append(windowCountColumn(query, page));
+        }
         if(page != null && !hasOrder && ORMUtils.isEmpty(group)){
             sb.append(",ROWNUM rn_ ");
         }
@@ -689,18 +722,7 @@ public class OracleOptions extends AbstractOptions{
             ps.setString(1, tableName);
             rs = ps.executeQuery();
             while (rs.next()){
-                String cname = rs.getString(2);
-                TableColumn tableColumn = new TableColumn(tableName, cname);
-                tableColumn.setType(rs.getString("DATA_TYPE"));
-                tableColumn.setLength(rs.getLong("DATA_LENGTH"));
-                tableColumn.setPrecision(rs.getInt("DATA_PRECISION"));
-                tableColumn.setScale(rs.getInt("DATA_SCALE"));
-                tableColumn.setNullable("Y".equalsIgnoreCase(rs.getString("NULLABLE")));
-                tableColumn.setOrder(rs.getInt("COLUMN_ID"));
-                tableColumn.setDefaultValue(rs.getString("DATA_DEFAULT"));
-                tableColumn.setComment(columnComment.get(tableColumn.getColumn()));
-                tableColumn.setIsPrimaryKey(cname.equalsIgnoreCase(primaryKey));
-                columns.add(tableColumn);
+                columns.add(column(rs, tableName, columnComment, primaryKey));
             }
         } catch (SQLException e) {
             throw new ORMException(e);
@@ -721,6 +743,122 @@ public class OracleOptions extends AbstractOptions{
         return columns;
     }
 
+    //与 columns(connection, tableName) 相同的三次查询，不按表过滤
+    @Override
+    public Map<String, List<TableColumn>> schemaColumns(Connection connection){
+        Map<String, List<TableColumn>> columns = new HashMap<String, List<TableColumn>>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Map<String, Map<String, String>> columnComments = new HashMap<String, Map<String, String>>();
+        try {
+            String sql = "SELECT TABLE_NAME,COLUMN_NAME,COMMENTS FROM USER_COL_COMMENTS";
+            ps = connection.prepareStatement(sql);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString(1);
+                Map<String, String> columnComment = columnComments.get(tableName);
+                if(columnComment == null){
+                    columnComment = new HashMap<String, String>();
+                    columnComments.put(tableName, columnComment);
+                }
+                columnComment.put(rs.getString(2), rs.getString(3));
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        Map<String, String> primaryKeys = new HashMap<String, String>();
+        try {
+            String sql = "select col.table_name, col.column_name " +
+                    "        from user_constraints con,  user_cons_columns col" +
+                    "        where con.constraint_name = col.constraint_name" +
+                    "        and con.constraint_type='P'" +
+                    "        order by col.table_name, col.position";
+            ps = connection.prepareStatement(sql);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString(1);
+                if(!primaryKeys.containsKey(tableName)){
+                    primaryKeys.put(tableName, rs.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        try {
+            String sql = " SELECT TABLE_NAME,COLUMN_NAME,DATA_TYPE,DATA_LENGTH,DATA_PRECISION,DATA_SCALE,NULLABLE,COLUMN_ID,DATA_DEFAULT FROM USER_TAB_COLUMNS ORDER BY TABLE_NAME, COLUMN_ID";
+            ps = connection.prepareStatement(sql);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString(1);
+                List<TableColumn> list = columns.get(tableName);
+                if(list == null){
+                    list = new ArrayList<TableColumn>();
+                    columns.put(tableName, list);
+                }
+                Map<String, String> columnComment = columnComments.get(tableName);
+                list.add(column(rs, tableName, columnComment == null ? new HashMap<String, String>() : columnComment,
+                        primaryKeys.get(tableName)));
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return columns;
+    }
+
+    private TableColumn column(ResultSet rs, String tableName, Map<String, String> columnComment, String primaryKey) throws SQLException {
+        String cname = rs.getString(2);
+        TableColumn tableColumn = new TableColumn(tableName, cname);
+        tableColumn.setType(rs.getString("DATA_TYPE"));
+        tableColumn.setLength(rs.getLong("DATA_LENGTH"));
+        tableColumn.setPrecision(rs.getInt("DATA_PRECISION"));
+        tableColumn.setScale(rs.getInt("DATA_SCALE"));
+        tableColumn.setNullable("Y".equalsIgnoreCase(rs.getString("NULLABLE")));
+        tableColumn.setOrder(rs.getInt("COLUMN_ID"));
+        tableColumn.setDefaultValue(rs.getString("DATA_DEFAULT"));
+        tableColumn.setComment(columnComment.get(tableColumn.getColumn()));
+        tableColumn.setIsPrimaryKey(cname.equalsIgnoreCase(primaryKey));
+        return tableColumn;
+    }
+
     @Override
     public List<String> createOrUpdateSqls(Connection connection, RdTable table, List<ColumnInfo> infos, boolean tableExisted, List<TableColumn> tableColumns) {
         List<String> sqls = new ArrayList<String>();
@@ -21,6 +21,7 @@ import com.objectsql.support.*;
 import com.objectsql.utils.ORMUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.sql.*;
@@ -33,6 +34,57 @@ public class PostgreSQLOptions extends MySQLOptions{
         return "PostgreSQL";
     }
 
+    @Override
+    public boolean windowCount() {
+        return true;
+    }
+
+    //reltuples 未 ANALYZE 时为 -1（PostgreSQL 14+）或 0
+    @Override
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        String name = schema == null ? table : schema + "." + table;
+        return queryLong(connection, "SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE oid = to_regclass(?)", name);
+    }
+
+    //EXPLAIN 首行（根节点）的 rows=N
+    @Override
+    protected long explainRows(Connection connection, String sql, List<Pair> values) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = connection.prepareStatement("EXPLAIN " + sql);
+            rs = explain(connection, ps, values);
+            if(rs.next()){
+                String plan = rs.getString(1);
+                int index = plan == null ? -1 : plan.indexOf(" rows=");
+                if(index >= 0){
+                    int start = index + " rows=".length();
+                    int end = start;
+                    while (end < plan.length() && Character.isDigit(plan.charAt(end))){
+                        end++;
+                    }
+                    if(end > start){
+                        return Long.parseLong(plan.substring(start, end));
+                    }
+                }
+            }
+            return -1;
+        } finally {
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
     @Override
     public boolean preSetParameter(PreparedStatement ps, Connection connection, String databaseType, int i, Pair pair) throws SQLException {
         Object obj = pair.getValue();
@@ -56,6 +108,71 @@ public class PostgreSQLOptions extends MySQLOptions{
         return "PostgreSQL";
     }
 
+    @Override
+    public int maxInsertParameters() {
+        //驱动以 2 字节有符号数发送参数个数
+        return 32767;
+    }
+
+    @Override
+    public String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns) {
+        StringBuffer sb = new StringBuffer(insertValues(table, columns));
+        sb.append(" ON CONFLICT (");
+        sb.append(ORMUtils.join(conflictColumns, ","));
+        sb.append(")");
+        if(updateColumns.isEmpty()){
+            sb.append(" DO NOTHING");
+        }else{
+            sb.append(" DO UPDATE SET ");
+            for(int i = 0; i < updateColumns.size(); i++){
+                if(i > 0){
+                    sb.append(",");
+                }
+                sb.append(updateColumns.get(i) + " = EXCLUDED." + updateColumns.get(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<List<Pair>> rows) throws SQLException {
+        Object pgConnection = unwrap(connection, "org.postgresql.PGConnection");
+        if(pgConnection == null){
+            return -1;
+        }
+        Object copyManager = invoke(pgConnection, "org.postgresql.PGConnection", "getCopyAPI", new Class[0]);
+        String sql = ORMUtils.convertSQL("COPY " + table + "(" + ORMUtils.join(columns, ",") + ") FROM STDIN");
+        Object count = invoke(copyManager, "org.postgresql.copy.CopyManager", "copyIn",
+                new Class[]{String.class, InputStream.class}, sql, new BulkRowStream(this, rows));
+        return ((Long) count).longValue();
+    }
+
+    @Override
+    protected String bulkBoolean(Boolean value) {
+        return value.booleanValue() ? "t" : "f";
+    }
+
+    @Override
+    public boolean prepareFetch(Connection connection, PreparedStatement ps, FetchMode mode, int fetchSize) throws SQLException {
+        int size = fetchSize(mode, fetchSize);
+        if(size <= 0){
+            return false;
+        }
+        //PostgreSQL 仅在 autoCommit=false 时使用游标分批读取
+        boolean changed = false;
+        if(connection.getAutoCommit()){
+            connection.setAutoCommit(false);
+            changed = true;
+        }
+        ps.setFetchSize(size);
+        return changed;
+    }
+
+    @Override
+    public void adaptFetchSize(ResultSet rs, ResultSetShape shape, FetchMode mode, int fetchSize) throws SQLException {
+        adaptiveFetchSize(rs, shape, mode, fetchSize);
+    }
+
     @Override
     public String nanoTimeSQL() {
         return "SELECT NOW()";
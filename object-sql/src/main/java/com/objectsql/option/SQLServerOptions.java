@@ -35,6 +35,43 @@ public class SQLServerOptions extends AbstractOptions{
             return "server";
     }
 
+    @Override
+    public int maxInsertParameters() {
+        //上限 2100，预留部分给驱动
+        return 2000;
+    }
+
+    @Override
+    public int maxInListSize() {
+        return 2000;
+    }
+
+    @Override
+    public String exists(String table, String conditions) {
+        if(ORMUtils.isEmpty(conditions)){
+            return "SELECT TOP 1 1 FROM " + table;
+        }
+        return "SELECT TOP 1 1 FROM " + table + " WHERE " + conditions;
+    }
+
+    @Override
+    protected String dual() {
+        return "";
+    }
+
+    //sys.partitions 的行数（堆或聚集索引）；执行计划需 SET SHOWPLAN，不使用
+    @Override
+    protected long tableRows(Connection connection, String schema, String table) throws SQLException {
+        String name = schema == null ? table : schema + "." + table;
+        return queryLong(connection, "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)", name);
+    }
+
+    //MERGE 语句必须以分号结束
+    @Override
+    public String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns) {
+        return merge(table, columns, conflictColumns, updateColumns, "") + ";";
+    }
+
     public boolean preSetParameter(PreparedStatement ps, Connection connection, String databaseType, int i, Pair pair) throws SQLException {
         Object obj = pair.getValue();
         ColumnType columnType = pair.getColumnType();
@@ -146,13 +183,14 @@ public class SQLServerOptions extends AbstractOptions{
     }
 
     @Override
-    public QueryInfo doQuery(IQuery query, Pageable page) {
+    protected QueryInfo renderQuery(IQuery query, Pageable page) {
         QueryInfo info = new QueryInfo();
         List<Pair> values = new ArrayList<Pair>();
         StringBuffer sb = new StringBuffer();
         sb.append("SELECT ");
         Map<String, String> asNames = new HashMap<String, String>();
         sb.append(selectColumns(query, null, asNames, values));
+        sb.append(windowCountColumn(query, page));
         String group = groups(query, null);
         if(page != null && ORMUtils.isEmpty(group)){
             String byOrders = orders(query, null, asNames);
@@ -413,17 +451,7 @@ public class SQLServerOptions extends AbstractOptions{
             ps = connection.prepareStatement(sql);
             rs = ps.executeQuery();
             while (rs.next()){
-                TableColumn tableColumn = new TableColumn(tableName, rs.getString("NAME"));
-                tableColumn.setType(rs.getString("TYPE"));
-                tableColumn.setLength(rs.getLong("PREC"));
-                tableColumn.setPrecision(rs.getInt("XPREC"));
-                tableColumn.setScale(rs.getInt("XSCALE"));
-                tableColumn.setNullable("1".equalsIgnoreCase(rs.getString("ISNULLABLE")));
-                tableColumn.setOrder(rs.getInt("COLORDER"));
-                tableColumn.setDefaultValue(rs.getString("VALUE"));
-                tableColumn.setComment(rs.getString("COMMENT"));
-                tableColumn.setIsPrimaryKey(tableColumn.getColumn().equalsIgnoreCase(primaryKey));
-                columns.add(tableColumn);
+                columns.add(column(rs, tableName, primaryKey));
             }
         } catch (SQLException e) {
             throw new ORMException(e);
@@ -444,6 +472,93 @@ public class SQLServerOptions extends AbstractOptions{
         return columns;
     }
 
+    //与 columns(connection, tableName) 相同的两次查询，取所有用户表
+    @Override
+    public Map<String, List<TableColumn>> schemaColumns(Connection connection) {
+        Map<String, List<TableColumn>> columns = new HashMap<String, List<TableColumn>>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Map<String, String> primaryKeys = new HashMap<String, String>();
+        try {
+            String sql = "SELECT OBJECT_NAME(idx.object_id) AS TABLE_NAME, colm.name FROM sys.columns colm, sys.indexes idx, sys.index_columns ic " +
+                    "where idx.index_id = ic.index_id and colm.column_id  = ic.column_id  " +
+                    "and idx.object_id = ic.object_id and colm.object_id = idx.object_id " +
+                    "and idx.is_primary_key = 1 order by ic.key_ordinal ";
+            ps = connection.prepareStatement(sql);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString(1);
+                if(!primaryKeys.containsKey(tableName)){
+                    primaryKeys.put(tableName, rs.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        try {
+            String sql = "select o.name AS TABLE_NAME, g.value AS COMMENT,e.text as VALUE,b.name AS TYPE, a.colorder, a.name,a.prec, a.scale, a.isnullable, a.xprec, a.xscale from dbo.syscolumns a " +
+                    "inner join sysobjects o on a.id = o.id and o.xtype = 'U' " +
+                    "left join sys.extended_properties g on a.id=g.major_id and a.colid=g.minor_id " +
+                    "left join syscomments e on a.cdefault=e.id " +
+                    "left join systypes b on a.xusertype=b.xusertype " +
+                    "order by o.name, a.colorder ";
+            ps = connection.prepareStatement(sql);
+            rs = ps.executeQuery();
+            while (rs.next()){
+                String tableName = rs.getString("TABLE_NAME");
+                List<TableColumn> list = columns.get(tableName);
+                if(list == null){
+                    list = new ArrayList<TableColumn>();
+                    columns.put(tableName, list);
+                }
+                list.add(column(rs, tableName, primaryKeys.get(tableName)));
+            }
+        } catch (SQLException e) {
+            throw new ORMException(e);
+        } finally {
+            if(ps != null){
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(rs != null){
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        return columns;
+    }
+
+    private TableColumn column(ResultSet rs, String tableName, String primaryKey) throws SQLException {
+        TableColumn tableColumn = new TableColumn(tableName, rs.getString("NAME"));
+        tableColumn.setType(rs.getString("TYPE"));
+        tableColumn.setLength(rs.getLong("PREC"));
+        tableColumn.setPrecision(rs.getInt("XPREC"));
+        tableColumn.setScale(rs.getInt("XSCALE"));
+        tableColumn.setNullable("1".equalsIgnoreCase(rs.getString("ISNULLABLE")));
+        tableColumn.setOrder(rs.getInt("COLORDER"));
+        tableColumn.setDefaultValue(rs.getString("VALUE"));
+        tableColumn.setComment(rs.getString("COMMENT"));
+        tableColumn.setIsPrimaryKey(tableColumn.getColumn().equalsIgnoreCase(primaryKey));
+        return tableColumn;
+    }
+
     @Override
     public List<String> createOrUpdateSqls(Connection connection, RdTable table, List<ColumnInfo> infos, boolean tableExisted, List<TableColumn> tableColumns) {
         String tableName = getCaseSensitive(table.name(), table.sensitive());
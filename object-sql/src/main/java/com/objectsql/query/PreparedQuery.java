@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.query;
+
+import com.objectsql.IBaseService;
+import com.objectsql.IMultiQuery;
+import com.objectsql.IQuery;
+import com.objectsql.exception.ORMException;
+import com.objectsql.handler.IQueryConvert;
+import com.objectsql.support.*;
+
+import java.util.*;
+
+/**
+ * 预编译查询：由 IBaseService.prepare 将 BaseQueryImpl/MultiQueryImpl 编译一次，
+ * 得到不可变的 SQL 与参数模板，可在多线程中通过 execute(params) 重复执行，不再重建查询对象。
+ * 条件值使用 PreparedQuery.param("name") 占位，支持比较、LIKE 系列、BETWEEN，
+ * IN 需要固定个数，如 whereIn("id", Arrays.asList(param("a"), param("b")))
+ */
+public final class PreparedQuery<T> {
+
+    //LIKE 等会把值拼接成字符串，用标记还原参数名
+    private static final char MARK = '\u0000';
+
+    private final IBaseService<?> service;
+    private final boolean allowed;
+    private final String sql;
+    private final Class<?> clazz;
+    private final List<Pair> pairs;
+    private final Slot [] slots;
+    private final IQueryConvert queryConvert;
+    private final FetchMode fetchMode;
+    private final int fetchSize;
+    private final long cacheTtl;
+    private final Set<String> tables;
+
+    public static Param param(String name){
+        return new Param(name);
+    }
+
+    private PreparedQuery(IBaseService<?> service, IQuery query, QueryInfo info){
+        this.service = service;
+        this.allowed = info != null;
+        this.queryConvert = query.getQueryConvert();
+        this.fetchMode = query.getFetchMode();
+        this.fetchSize = query.getFetchSize();
+        this.cacheTtl = query.getCacheTtl();
+        this.tables = Collections.unmodifiableSet(ResultCache.tables(query));
+        if(info == null){
+            this.sql = null;
+            this.clazz = query.getReturnClass();
+            this.pairs = Collections.emptyList();
+            this.slots = new Slot[0];
+            return;
+        }
+        this.sql = info.getSql();
+        this.clazz = info.getClazz();
+        List<Pair> values = info.getValues();
+        List<Slot> temp = new ArrayList<Slot>();
+        for(int i = 0; i < values.size(); i++){
+            Slot slot = Slot.parse(i, values.get(i).getValue());
+            if(slot != null){
+                temp.add(slot);
+            }
+        }
+        Set<Param> params = Collections.newSetFromMap(new IdentityHashMap<Param, Boolean>());
+        collect(query, params);
+        Set<String> names = new HashSet<String>();
+        for(Slot slot : temp){
+            names.add(slot.name);
+        }
+        for(Param param : params){
+            if(!names.contains(param.name)){
+                throw new ORMException("PreparedQuery parameter [" + param.name + "] is not supported in this position.");
+            }
+        }
+        this.pairs = Collections.unmodifiableList(new ArrayList<Pair>(values));
+        this.slots = temp.toArray(new Slot[temp.size()]);
+    }
+
+    public static <T> PreparedQuery<T> compile(IBaseService<?> service, IQuery query){
+        QueryInfo info = null;
+        if(query.dataPermission()){
+            info = query.doQuery();
+        }
+        return new PreparedQuery<T>(service, query, info);
+    }
+
+    public List<T> execute(){
+        return execute(new HashMap<String, Object>());
+    }
+
+    public List<T> execute(Map<String, Object> params){
+        return service.query(this, params);
+    }
+
+    public QueryInfo bind(Map<String, Object> params){
+        List<Pair> values = new ArrayList<Pair>(pairs);
+        for(Slot slot : slots){
+            if(params == null || !params.containsKey(slot.name)){
+                throw new ORMException("PreparedQuery parameter [" + slot.name + "] not found.");
+            }
+            Object value = params.get(slot.name);
+            if(slot.prefix != null){
+                value = slot.prefix + value + slot.suffix;
+            }
+            values.set(slot.index, copy(pairs.get(slot.index), value));
+        }
+        QueryInfo info = new QueryInfo();
+        info.setSql(sql);
+        info.setClazz(clazz);
+        info.setValues(values);
+        return info;
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Class<?> getReturnClass() {
+        return clazz;
+    }
+
+    public IQueryConvert getQueryConvert() {
+        return queryConvert;
+    }
+
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    //读取的表，用于查询结果缓存失效
+    public Set<String> getTables() {
+        return tables;
+    }
+
+    private static Pair copy(Pair template, Object value){
+        Pair pair = new Pair(value);
+        pair.setName(template.getName());
+        pair.setColumn(template.getColumn());
+        pair.setColumnType(template.getColumnType());
+        pair.setMetadata(template.getMetadata());
+        if(template.getName() != null || template.getType() == null){
+            pair.setType(template.getType());
+        }
+        return pair;
+    }
+
+    //查找查询树中的占位参数，用于检查是否都已编译进 SQL
+    private static void collect(IQuery query, Set<Param> params){
+        collect(query.getConditions(), params);
+        collect(query.getHavings(), params);
+        for(Column column : query.getFinalReturnColumns()){
+            if(column.getQuery() != null){
+                collect(column.getQuery(), params);
+            }
+        }
+        if(query instanceof IMultiQuery){
+            IMultiQuery multiQuery = (IMultiQuery) query;
+            for(Object table : multiQuery.getAliasTable().values()){
+                if(table instanceof IQuery){
+                    collect((IQuery) table, params);
+                }
+            }
+            List<Join> joins = multiQuery.getJoins();
+            if(joins != null){
+                for(Join join : joins){
+                    if(join.getTable() instanceof IQuery){
+                        collect((IQuery) join.getTable(), params);
+                    }
+                    collect(join.getConditions(), params);
+                }
+            }
+        }
+    }
+
+    private static void collect(List<Condition> conditions, Set<Param> params){
+        if(conditions == null){
+            return;
+        }
+        for(Condition condition : conditions){
+            collect(condition, params);
+        }
+    }
+
+    private static void collect(Condition condition, Set<Param> params){
+        if(condition == null){
+            return;
+        }
+        for(ConditionObject ext : condition.getConditions()){
+            Object object = ext.getObject();
+            if(object instanceof Expression){
+                collect((Expression) object, params);
+            }else if(object instanceof Condition){
+                collect((Condition) object, params);
+            }else if(object instanceof Expression[]){
+                for(Expression expression : (Expression[]) object){
+                    collect(expression, params);
+                }
+            }
+        }
+    }
+
+    private static void collect(Expression expression, Set<Param> params){
+        if(expression == null){
+            return;
+        }
+        collectValue(expression.getValue(), params);
+        collectValue(expression.getAndValue(), params);
+    }
+
+    private static void collectValue(Object value, Set<Param> params){
+        if(value instanceof Param){
+            params.add((Param) value);
+        }else if(value instanceof Collection){
+            for(Object obj : (Collection) value){
+                collectValue(obj, params);
+            }
+        }else if(value instanceof IQuery){
+            collect((IQuery) value, params);
+        }
+    }
+
+    //参数占位
+    public static final class Param {
+        private final String name;
+
+        private Param(String name){
+            if(name == null || "".equals(name) || name.indexOf(MARK) > -1){
+                throw new ORMException("PreparedQuery parameter name is empty.");
+            }
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return MARK + name + MARK;
+        }
+    }
+
+    private static final class Slot {
+        private int index;
+        private String name;
+        private String prefix;
+        private String suffix;
+
+        static Slot parse(int index, Object value){
+            Slot slot = null;
+            if(value instanceof Param){
+                slot = new Slot();
+                slot.name = ((Param) value).name;
+            }else if(value instanceof String){
+                String text = (String) value;
+                int start = text.indexOf(MARK);
+                int end = start > -1 ? text.indexOf(MARK, start + 1) : -1;
+                if(end > start){
+                    slot = new Slot();
+                    slot.name = text.substring(start + 1, end);
+                    slot.prefix = text.substring(0, start);
+                    slot.suffix = text.substring(end + 1);
+                }
+            }
+            if(slot != null){
+                slot.index = index;
+            }
+            return slot;
+        }
+    }
+}
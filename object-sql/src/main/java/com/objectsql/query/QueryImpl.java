@@ -38,6 +38,9 @@ public abstract class QueryImpl implements IQuery{
     protected Options options;
 
     private IQueryConvert queryConvert;
+    private FetchMode fetchMode;
+    private int fetchSize = 0;
+    private long cacheTtl = 0;
 
     @Override
     public IQueryConvert getQueryConvert() {
@@ -49,6 +52,36 @@ public abstract class QueryImpl implements IQuery{
         this.queryConvert = queryConvert;
     }
 
+    @Override
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    @Override
+    public void setFetchMode(FetchMode fetchMode) {
+        this.fetchMode = fetchMode;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    @Override
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
     protected void addCondition(Condition condition){
         if (condition != null){
             resetLessOrLessEqualDate(condition);
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.IBaseService;
+import com.objectsql.exception.ORMException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 批量加载作用域（类似 DataLoader），绑定当前线程：
+ * 作用域内 IBaseService.load(id) 只登记 id 并返回 Future，在 flush()、作用域结束、
+ * Future.get()/join() 或同一服务的 get(id) 时，每个服务以一次 getAll（分段 IN 查询）取回，相同 id 只查询一次
+ * 不缓存已取回的对象，作用域外 load(id) 直接查询
+ */
+public final class BatchScope {
+
+    private static final ThreadLocal<BatchScope> threadLocal = new ThreadLocal<BatchScope>();
+
+    //服务 -> 待加载 id -> Future
+    private final Map<IBaseService, Map<Object, BatchFuture>> pending = new LinkedHashMap<IBaseService, Map<Object, BatchFuture>>();
+
+    private BatchScope(){
+    }
+
+    public static BatchScope current(){
+        return threadLocal.get();
+    }
+
+    //嵌套时并入外层作用域
+    public static <T> T run(Callable<T> callable){
+        BatchScope scope = threadLocal.get();
+        if(scope != null){
+            return call(callable);
+        }
+        scope = new BatchScope();
+        threadLocal.set(scope);
+        try {
+            T result = call(callable);
+            scope.flush();
+            return result;
+        } finally {
+            threadLocal.remove();
+            scope.close();
+        }
+    }
+
+    private static <T> T call(Callable<T> callable){
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException("Batch scope error", e);
+        }
+    }
+
+    public <T> CompletableFuture<T> load(IBaseService<T> service, Object id){
+        if(id == null){
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<Object, BatchFuture> futures = pending.get(service);
+        if(futures == null){
+            futures = new LinkedHashMap<Object, BatchFuture>();
+            pending.put(service, futures);
+        }
+        BatchFuture future = futures.get(id);
+        if(future == null){
+            future = new BatchFuture(this);
+            futures.put(id, future);
+        }
+        return future;
+    }
+
+    //同步获取：与该服务已登记的 id 一起查询
+    public <T> T get(IBaseService<T> service, Object id){
+        CompletableFuture<T> future = load(service, id);
+        Map<Object, BatchFuture> futures = pending.remove(service);
+        if(futures != null){
+            flush(service, futures);
+        }
+        return future.join();
+    }
+
+    //完成回调中可能再次 load，循环直到没有待加载的 id
+    public void flush(){
+        while (!pending.isEmpty()){
+            Iterator<Map.Entry<IBaseService, Map<Object, BatchFuture>>> iterator = pending.entrySet().iterator();
+            Map.Entry<IBaseService, Map<Object, BatchFuture>> entry = iterator.next();
+            iterator.remove();
+            flush(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void flush(IBaseService service, Map<Object, BatchFuture> futures){
+        Map values = null;
+        try {
+            values = service.getAll(futures.keySet());
+        } catch (RuntimeException e) {
+            for(BatchFuture future : futures.values()){
+                future.completeExceptionally(e);
+            }
+            return;
+        }
+        for(Map.Entry<Object, BatchFuture> entry : futures.entrySet()){
+            entry.getValue().complete(values.get(entry.getKey()));
+        }
+    }
+
+    //作用域异常结束时，未完成的 Future 以异常结束，避免等待
+    private void close(){
+        for(Map<Object, BatchFuture> futures : pending.values()){
+            for(BatchFuture future : futures.values()){
+                future.completeExceptionally(new ORMException("Batch scope closed before loading."));
+            }
+        }
+        pending.clear();
+    }
+
+    //在作用域线程中等待结果时先 flush，避免同一线程等待自身
+    private static class BatchFuture<T> extends CompletableFuture<T> {
+
+        private BatchScope scope;
+
+        BatchFuture(BatchScope scope){
+            this.scope = scope;
+        }
+
+        private void flushIfNeeded(){
+            if(!isDone() && threadLocal.get() == scope){
+                scope.flush();
+            }
+        }
+
+        @Override
+        public T join() {
+            flushIfNeeded();
+            return super.join();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            flushIfNeeded();
+            return super.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            flushIfNeeded();
+            return super.get(timeout, unit);
+        }
+    }
+}
@@ -15,56 +15,237 @@
  */
 package com.objectsql.support;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import com.objectsql.utils.ORMUtils;
 
-public abstract class ChangeHolder {
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-	private static final ThreadLocal<String> threadLocal = new ThreadLocal<String>();
+/**
+ * 事务内待触发的变更（IChangedListener），由 TransactionManager 在事务开始时创建，提交后触发，回滚时丢弃
+ * 只绑定当前线程，不使用全局 Map；事务挂起（如 REQUIRES_NEW）时随事务资源一起挂起和恢复
+ * 可按 监听器 + 实体类 + 主键 合并同一实体的多次变更：保留第一次的 original，
+ * current 为各次写入字段的合并（更新传入的是部分字段），置空列取并集；无法合并时分别通知
+ */
+public final class ChangeHolder {
+
+	private static final ThreadLocal<ChangeHolder> threadLocal = new ThreadLocal<ChangeHolder>();
+
+	private static final AtomicLong sequence = new AtomicLong();
+
+	private final long id = sequence.incrementAndGet();
+	private final List<PreChangeCache> caches = new ArrayList<PreChangeCache>();
+	//合并 key -> caches 中的位置，合并为无变更时该位置置为 null
+	private Map<Key, Integer> index;
 
-	private static Map<String, List<PreChangeCache>> changeCacheMap = new HashMap<String, List<PreChangeCache>>();
+	private ChangeHolder(){
+	}
+
+	public static void begin(){
+		threadLocal.set(new ChangeHolder());
+	}
 
-	public static void cache(PreChangeCache cache){
-		String key = get();
-		List<PreChangeCache> caches = changeCacheMap.get(key);
-		if(caches == null){
-			caches = new ArrayList<PreChangeCache>();
+	//挂起当前事务的变更，返回值交给 resume 恢复
+	public static ChangeHolder suspend(){
+		ChangeHolder holder = threadLocal.get();
+		threadLocal.remove();
+		return holder;
+	}
+
+	public static void resume(ChangeHolder holder){
+		if(holder == null){
+			threadLocal.remove();
+		}else{
+			threadLocal.set(holder);
 		}
-		caches.add(cache);
-		changeCacheMap.put(key, caches);
 	}
 
+	public static ChangeHolder current(){
+		return threadLocal.get();
+	}
+
+	//无事务时返回 false
+	public static boolean cache(PreChangeCache cache){
+		return cache(cache, null, null);
+	}
+
+	/**
+	 * @param clazz 实体类，与 id 都不为空时合并同一实体的变更
+	 * @param id 主键值
+	 */
+	public static boolean cache(PreChangeCache cache, Class clazz, Object id){
+		ChangeHolder holder = threadLocal.get();
+		if(holder == null){
+			return false;
+		}
+		if(clazz == null || id == null){
+			holder.caches.add(cache);
+		}else{
+			holder.merge(new Key(cache.getChangedListener(), clazz, id), cache);
+		}
+		return true;
+	}
+
+	//提交后触发当前事务的变更，先解除绑定，监听器中可开启新事务
 	public static void change(){
-		String key = get();
-		List<PreChangeCache> changeCaches = changeCacheMap.get(key);
-		if(changeCaches != null){
-			for(PreChangeCache changeCache : changeCaches) {
-				changeCache.changed();
+		ChangeHolder holder = threadLocal.get();
+		remove();
+		if(holder != null){
+			for(PreChangeCache changeCache : holder.caches) {
+				if(changeCache != null) {
+					changeCache.changed();
+				}
 			}
 		}
-		remove();
 	}
 
 	public static void remove() {
-		String key = threadLocal.get();
-		changeCacheMap.remove(key);
-        threadLocal.remove();
+		threadLocal.remove();
 	}
 
+	@Deprecated
 	public static void set(String change) {
 		if (change == null) {
 			remove();
 		}else {
-            threadLocal.set(change);
+			begin();
 		}
 	}
 
+	//当前事务的标识，用于调试信息
 	public static String get() {
-        return threadLocal.get();
+		ChangeHolder holder = threadLocal.get();
+		return holder == null ? null : "transaction-" + holder.id;
+	}
+
+	public int size(){
+		int size = 0;
+		for(PreChangeCache cache : caches){
+			if(cache != null){
+				size++;
+			}
+		}
+		return size;
+	}
+
+	private void merge(Key key, PreChangeCache cache){
+		if(index == null){
+			index = new HashMap<Key, Integer>();
+		}
+		Integer position = index.get(key);
+		PreChangeCache previous = position == null ? null : caches.get(position);
+		if(previous == null){
+			index.put(key, caches.size());
+			caches.add(cache);
+			return;
+		}
+		ORMType first = previous.getOrmType();
+		ORMType last = cache.getOrmType();
+		ORMType type = last;
+		if(first == ORMType.INSERT){
+			if(last == ORMType.DELETE){
+				//插入后删除，无变更
+				caches.set(position, null);
+				index.remove(key);
+				return;
+			}
+			type = ORMType.INSERT;
+		}else if(first == ORMType.DELETE && last == ORMType.INSERT){
+			type = ORMType.UPDATE;
+		}
+		ORMOption previousOption = previous.getOrmOption() == null ? new ORMOption() : previous.getOrmOption();
+		ORMOption option = cache.getOrmOption() == null ? new ORMOption() : cache.getOrmOption();
+		Object current = option.getCurrent();
+		boolean updateNull = option.isUpdateNull();
+		String [] nullColumns = option.getUpdateNullColumns();
+		if(first == ORMType.DELETE && last == ORMType.INSERT){
+			//删除后插入，current 为整行
+			updateNull = true;
+			nullColumns = null;
+		}else if(last != ORMType.DELETE){
+			current = overlay(key.clazz, previousOption.getCurrent(), option);
+			if(current == null){
+				index.put(key, caches.size());
+				caches.add(cache);
+				return;
+			}
+			if(first == ORMType.INSERT){
+				updateNull = false;
+				nullColumns = null;
+			}else{
+				updateNull = previousOption.isUpdateNull() || option.isUpdateNull();
+				nullColumns = mergeNullColumns(key.clazz, previousOption, option);
+			}
+		}
+		ORMOption merged = new ORMOption(updateNull, nullColumns,
+				first == ORMType.INSERT ? null : previous.getOriginal(), current);
+		caches.set(position, new PreChangeCache(cache.getChangedListener(), type, merged));
 	}
 
+	//之前的 current 复制后写入本次更新的字段，无法复制时返回 null
+	private static Object overlay(Class clazz, Object base, ORMOption option){
+		List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+		if(base == null || infoList == null){
+			return null;
+		}
+		Object merged = SingleFlight.copy(base);
+		if(merged == base){
+			return null;
+		}
+		Object value = option.getCurrent();
+		List<String> ncs = option.getUpdateNullColumns() == null ? Collections.<String>emptyList() : Arrays.asList(option.getUpdateNullColumns());
+		for(ColumnInfo info : infoList){
+			Object fieldValue = value == null ? null : ORMUtils.getFieldValue(value, info);
+			if(fieldValue != null || option.isUpdateNull() || ncs.contains(info.getColumnName())){
+				ORMUtils.setFieldValue(merged, info, fieldValue);
+			}
+		}
+		return merged;
+	}
 
+	//之前置空的列若本次写入了值则移除
+	private static String [] mergeNullColumns(Class clazz, ORMOption previous, ORMOption option){
+		Set<String> columns = new LinkedHashSet<String>();
+		if(previous.getUpdateNullColumns() != null){
+			columns.addAll(Arrays.asList(previous.getUpdateNullColumns()));
+		}
+		Object value = option.getCurrent();
+		if(value != null){
+			for(ColumnInfo info : ORMUtils.getColumnInfo(clazz)){
+				if(ORMUtils.getFieldValue(value, info) != null){
+					columns.remove(info.getColumnName());
+				}
+			}
+		}
+		if(option.getUpdateNullColumns() != null){
+			columns.addAll(Arrays.asList(option.getUpdateNullColumns()));
+		}
+		return columns.isEmpty() ? null : columns.toArray(new String[columns.size()]);
+	}
+
+	//监听器按对象标识比较
+	private static class Key {
+		private final Object listener;
+		private final Class clazz;
+		private final Object id;
+
+		Key(Object listener, Class clazz, Object id){
+			this.listener = listener;
+			this.clazz = clazz;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)){
+				return false;
+			}
+			Key key = (Key) o;
+			return key.listener == listener && key.clazz.equals(clazz) && key.id.equals(id);
+		}
 
-}
\ No newline at end of file
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(listener) * 31 + clazz.hashCode()) * 31 + id.hashCode();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.utils.ORMUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IChangedListener 异步通知：相同 key（实体类 + 主键）按提交顺序串行执行，不同 key 并行
+ * key 按哈希分到固定数量的串行队列（lanes），同时执行的任务不超过队列数；
+ * 排队总数达到 capacity 时提交线程等待（背压）；等待超过 acquireTimeout 或被中断时不再等待，
+ * 通知仍加入所属队列保持顺序，队列空闲时由提交线程依次执行（含之前排队的通知），
+ * 避免监听器中再次提交变更时互相等待
+ */
+public final class ChangedDispatcher {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 10000L;
+
+    private final Executor executor;
+    private final Lane [] lanes;
+    private final int capacity;
+    private final Semaphore permits;
+    private volatile long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    //超出 capacity 加入队列、尚未执行完成的通知数
+    private final AtomicInteger overflowPending = new AtomicInteger();
+    private volatile long lastLag;
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public ChangedDispatcher(){
+        this(defaultExecutor(), DEFAULT_CAPACITY, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param executor 执行通知的线程池
+     * @param capacity 最多排队的通知数
+     * @param lanes 串行队列数，即最大并行数
+     */
+    public ChangedDispatcher(Executor executor, int capacity, int lanes){
+        ORMUtils.whenTrue(executor == null, "Changed dispatcher executor is null.");
+        ORMUtils.whenTrue(capacity <= 0 || lanes <= 0, "Changed dispatcher capacity and lanes should be positive.");
+        this.executor = executor;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+        this.lanes = new Lane[lanes];
+        for(int i = 0; i < lanes; i++){
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    //JDK 21 及以上使用虚拟线程，否则使用守护线程池
+    public static Executor defaultExecutor(){
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "objectsql-changed-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    //等待排队位置的最长时间（毫秒）
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public void dispatch(Object key, Runnable task){
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if(!acquired){
+            overflowCount.incrementAndGet();
+            overflowPending.incrementAndGet();
+        }
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= (hash >>> 16);
+        lanes[(hash & 0x7fffffff) % lanes.length].add(new Task(task, acquired), !acquired);
+    }
+
+    //等待已提交的通知执行完成
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getQueueSize() > 0){
+            if(System.currentTimeMillis() >= deadline){
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    //排队及执行中的通知数
+    public int getQueueSize(){
+        return capacity - permits.availablePermits() + overflowPending.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDispatchedCount(){
+        return dispatchedCount.get();
+    }
+
+    public long getFailedCount(){
+        return failedCount.get();
+    }
+
+    //等待排队位置超时或被中断的通知数
+    public long getOverflowCount(){
+        return overflowCount.get();
+    }
+
+    //超时后所属队列空闲，由提交线程执行队列的次数
+    public long getCallerRunsCount(){
+        return callerRunsCount.get();
+    }
+
+    //最近一次通知从提交到开始执行的时间（毫秒）
+    public long getLastLag(){
+        return lastLag;
+    }
+
+    public long getMaxLag(){
+        return maxLag.get();
+    }
+
+    private void execute(Task task){
+        long lag = (System.nanoTime() - task.time) / 1000000L;
+        lastLag = lag;
+        long max = maxLag.get();
+        while (lag > max && !maxLag.compareAndSet(max, lag)){
+            max = maxLag.get();
+        }
+        try {
+            task.runnable.run();
+        } catch (Throwable e) {
+            failedCount.incrementAndGet();
+            ORMUtils.handleDebugInfo(ChangedDispatcher.class, "dispatch", e);
+        } finally {
+            dispatchedCount.incrementAndGet();
+            if(task.permitted){
+                permits.release();
+            }else{
+                overflowPending.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final boolean permitted;
+        private final long time = System.nanoTime();
+
+        Task(Runnable runnable, boolean permitted){
+            this.runnable = runnable;
+            this.permitted = permitted;
+        }
+    }
+
+    //串行队列：同时只有一个线程执行，按加入顺序
+    private class Lane implements Runnable {
+        private final ArrayDeque<Task> tasks = new ArrayDeque<Task>();
+        private boolean running;
+
+        //callerRuns 为 true 时队列空闲则在当前线程执行，否则由正在执行的线程按顺序执行
+        void add(Task task, boolean callerRuns){
+            synchronized (this){
+                tasks.add(task);
+                if(callerRuns){
+                    if(running){
+                        return;
+                    }
+                    running = true;
+                }
+            }
+            if(callerRuns){
+                callerRunsCount.incrementAndGet();
+                run();
+            }else{
+                schedule();
+            }
+        }
+
+        private void schedule(){
+            synchronized (this){
+                if(running || tasks.isEmpty()){
+                    return;
+                }
+                running = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                while (true){
+                    Task task;
+                    synchronized (this){
+                        task = tasks.poll();
+                        if(task == null){
+                            running = false;
+                            drained = true;
+                            return;
+                        }
+                    }
+                    execute(task);
+                }
+            } finally {
+                //异常退出时重新调度剩余的通知
+                if(!drained){
+                    synchronized (this){
+                        running = false;
+                    }
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.utils.ORMUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体的列计划：列信息、各列是否可写、主键，按 实体 + 方言 预先计算并缓存
+ * SQL Server 的 TIMESTAMP（rowversion）列由数据库维护，插入/更新时不可写
+ */
+public final class ColumnPlan {
+
+    private static final Map<Class, ColumnPlan> plans = new ConcurrentHashMap<Class, ColumnPlan>();
+    private static final Map<Class, ColumnPlan> skipTimestampPlans = new ConcurrentHashMap<Class, ColumnPlan>();
+
+    private final List<ColumnInfo> columns;
+    private final boolean [] writable;
+    private final ColumnInfo primaryKey;
+
+    private ColumnPlan(Class clazz, boolean skipTimestamp){
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+        ORMUtils.whenTrue(infoList == null, "Get columns cache is empty.");
+        this.columns = infoList;
+        this.writable = new boolean[infoList.size()];
+        ColumnInfo pk = null;
+        for(int i = 0; i < infoList.size(); i++){
+            ColumnInfo info = infoList.get(i);
+            writable[i] = !(skipTimestamp && info.getColumnType() == ColumnType.TIMESTAMP);
+            if(pk == null && info.getPrimaryKey()){
+                pk = info;
+            }
+        }
+        this.primaryKey = pk;
+    }
+
+    public static ColumnPlan get(Class clazz, boolean skipTimestamp){
+        Map<Class, ColumnPlan> cache = skipTimestamp ? skipTimestampPlans : plans;
+        ColumnPlan plan = cache.get(clazz);
+        if(plan == null){
+            plan = new ColumnPlan(clazz, skipTimestamp);
+            cache.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    public List<ColumnInfo> getColumns() {
+        return columns;
+    }
+
+    public int size(){
+        return columns.size();
+    }
+
+    public boolean isWritable(int index){
+        return writable[index];
+    }
+
+    //第一个主键列，无主键时为 null
+    public ColumnInfo getPrimaryKey() {
+        return primaryKey;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.exception.ORMException;
+
+import java.util.*;
+
+/**
+ * 二级缓存区域（一个实体类一个），key 为 数据源 + 主键
+ * 存入及读取时均复制对象，调用方修改返回的对象不影响缓存；不缓存 null
+ * LRU：超过容量淘汰最久未访问的条目
+ * W_TINY_LFU：新条目先进入窗口区（约 1%），窗口区淘汰的条目与主区最久未访问的条目按访问频率（Count-Min Sketch）比较，频率高者留在主区
+ */
+public class EntityCache {
+
+    private final int maxSize;
+    private final long expireMillis;
+    private final CachePolicy policy;
+
+    //LRU 时为全部条目，W_TINY_LFU 时为主区
+    private final LinkedHashMap<Object, Entry> main = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<Object, Entry> window;
+    private final int windowSize;
+    private final FrequencySketch sketch;
+
+    //每次失效加一，加载期间发生失效时不放入缓存
+    private long generation;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    public EntityCache(int maxSize, long expireSeconds, CachePolicy policy){
+        if(maxSize <= 0){
+            throw new ORMException("Entity cache max size must be greater than 0 : " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.expireMillis = expireSeconds > 0 ? expireSeconds * 1000 : 0;
+        this.policy = policy == null ? CachePolicy.LRU : policy;
+        if(this.policy == CachePolicy.W_TINY_LFU && maxSize > 1){
+            this.windowSize = Math.max(1, maxSize / 100);
+            this.window = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+            this.sketch = new FrequencySketch(maxSize);
+        }else{
+            this.windowSize = 0;
+            this.window = null;
+            this.sketch = null;
+        }
+    }
+
+    public static Object key(Object dataSource, Object id){
+        return Arrays.asList(new SingleFlight.Identity(dataSource), String.valueOf(id));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getExpireMillis() {
+        return expireMillis;
+    }
+
+    public CachePolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized Object get(Object key){
+        if(sketch != null){
+            sketch.increment(key);
+        }
+        Entry entry = main.get(key);
+        if(entry == null && window != null){
+            entry = window.get(key);
+        }
+        if(entry != null && entry.expired(System.currentTimeMillis())){
+            main.remove(key);
+            if(window != null){
+                window.remove(key);
+            }
+            evictionCount++;
+            entry = null;
+        }
+        if(entry == null){
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return SingleFlight.copy(entry.value);
+    }
+
+    public synchronized long generation(){
+        return generation;
+    }
+
+    /**
+     * @param generation 加载前取得的 generation()，之后有失效时不放入
+     */
+    public synchronized boolean put(Object key, Object value, long generation){
+        if(value == null || generation != this.generation){
+            return false;
+        }
+        Entry entry = new Entry(SingleFlight.copy(value), expireMillis > 0 ? System.currentTimeMillis() + expireMillis : 0);
+        if(window == null){
+            main.put(key, entry);
+            if(main.size() > maxSize){
+                main.remove(main.keySet().iterator().next());
+                evictionCount++;
+            }
+            return true;
+        }
+        if(main.containsKey(key)){
+            main.put(key, entry);
+            return true;
+        }
+        window.put(key, entry);
+        if(window.size() <= windowSize){
+            return true;
+        }
+        Map.Entry<Object, Entry> candidate = window.entrySet().iterator().next();
+        Object candidateKey = candidate.getKey();
+        Entry candidateEntry = candidate.getValue();
+        window.remove(candidateKey);
+        if(main.size() < maxSize - windowSize){
+            main.put(candidateKey, candidateEntry);
+            return true;
+        }
+        Object victimKey = main.keySet().iterator().next();
+        if(sketch.frequency(candidateKey) > sketch.frequency(victimKey)){
+            main.remove(victimKey);
+            main.put(candidateKey, candidateEntry);
+        }
+        evictionCount++;
+        return true;
+    }
+
+    public synchronized void evict(Object key){
+        generation++;
+        boolean removed = main.remove(key) != null;
+        if(window != null && window.remove(key) != null){
+            removed = true;
+        }
+        if(removed){
+            invalidationCount++;
+        }
+    }
+
+    public synchronized void clear(){
+        generation++;
+        invalidationCount += size();
+        main.clear();
+        if(window != null){
+            window.clear();
+        }
+    }
+
+    //只清空 key(dataSource, id) 中为该数据源的条目
+    public synchronized void clear(Object dataSource){
+        generation++;
+        Object identity = new SingleFlight.Identity(dataSource);
+        invalidationCount += clear(main, identity);
+        if(window != null){
+            invalidationCount += clear(window, identity);
+        }
+    }
+
+    private static int clear(Map<Object, Entry> map, Object identity){
+        int count = 0;
+        Iterator<Object> iterator = map.keySet().iterator();
+        while (iterator.hasNext()){
+            Object key = iterator.next();
+            if(key instanceof List && !((List) key).isEmpty() && identity.equals(((List) key).get(0))){
+                iterator.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int size(){
+        return main.size() + (window == null ? 0 : window.size());
+    }
+
+    public synchronized CacheStats getStats(){
+        return new CacheStats(hitCount, missCount, evictionCount, invalidationCount, size());
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        Entry(Object value, long expireAt){
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        boolean expired(long now){
+            return expireAt > 0 && now >= expireAt;
+        }
+    }
+
+    //4 行 Count-Min Sketch（每行约 4 倍容量），计数上限 15，累计次数达到 10 倍容量时全部减半
+    private static class FrequencySketch {
+
+        private static final int [] SEEDS = {0x97CB3127, 0xB8CF8C25, 0x9E3779B9, 0x85EBCA6B};
+
+        private final byte [][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximum){
+            int width = Integer.highestOneBit(Math.max(16, maximum) - 1) << 3;
+            table = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * maximum;
+        }
+
+        void increment(Object key){
+            int hash = key.hashCode();
+            boolean added = false;
+            for(int i = 0; i < SEEDS.length; i++){
+                int index = index(hash, i);
+                if(table[i][index] < 15){
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize){
+                reset();
+            }
+        }
+
+        int frequency(Object key){
+            int hash = key.hashCode();
+            int frequency = 15;
+            for(int i = 0; i < SEEDS.length; i++){
+                frequency = Math.min(frequency, table[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i){
+            int h = hash * SEEDS[i];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void reset(){
+            for(byte [] row : table){
+                for(int i = 0; i < row.length; i++){
+                    row[i] = (byte)(row[i] >> 1);
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
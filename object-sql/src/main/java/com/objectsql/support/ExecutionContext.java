@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import javax.sql.DataSource;
+import java.util.Locale;
+
+/**
+ * 一次操作的执行上下文（不可变）：数据源（DynamicDataSource 已解析为当前数据源）、方言、数据库类型
+ * 由 ObjectSQLManager 按数据源缓存，显式传给 SQLHelperCreator，不再依赖 DatabaseTypeHolder
+ */
+public final class ExecutionContext {
+
+    private final DataSource dataSource;
+    private final Options options;
+    private final String databaseType;
+    private final boolean skipTimestamp;
+
+    public ExecutionContext(DataSource dataSource, Options options, String databaseType){
+        this.dataSource = dataSource;
+        this.options = options;
+        this.databaseType = databaseType == null ? null : databaseType.toUpperCase(Locale.ROOT);
+        this.skipTimestamp = this.databaseType != null && this.databaseType.contains("SERVER");
+    }
+
+    //兼容只有 Options 的调用，数据库类型取自当前线程
+    public static ExecutionContext of(Options options){
+        return new ExecutionContext(null, options, DatabaseTypeHolder.get());
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public String getDatabaseType() {
+        return databaseType;
+    }
+
+    public ColumnPlan getColumnPlan(Class clazz){
+        return ColumnPlan.get(clazz, skipTimestamp);
+    }
+}
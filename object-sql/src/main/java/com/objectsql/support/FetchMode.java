@@ -0,0 +1,22 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+public enum FetchMode {
+    DEFAULT,//驱动默认，仅在指定 fetchSize 时设置
+    STREAM,//逐行流式读取（MySQL Integer.MIN_VALUE）
+    CURSOR//服务端游标分批读取（MySQL 需 useCursorFetch=true，PostgreSQL 需关闭 autoCommit）
+}
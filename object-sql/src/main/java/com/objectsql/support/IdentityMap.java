@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.utils.ORMUtils;
+
+import java.util.*;
+
+/**
+ * 事务内的一级缓存（identity map），由 TransactionManager 在事务开始时创建，提交或回滚时丢弃
+ * 事务中 get(id) 返回本事务已加载的同一对象；按主键更新后替换为合并了更新字段的新对象，删除后返回 null，
+ * 按条件更新或删除时清空该类，原生 SQL 写入时全部清空
+ */
+public final class IdentityMap {
+
+    private static final ThreadLocal<IdentityMap> threadLocal = new ThreadLocal<IdentityMap>();
+
+    private static final Object DELETED = new Object();
+
+    private final Map<Class, Map<Object, Object>> entities = new HashMap<Class, Map<Object, Object>>();
+
+    private IdentityMap(){
+    }
+
+    public static void begin(){
+        threadLocal.set(new IdentityMap());
+    }
+
+    public static void end(){
+        threadLocal.remove();
+    }
+
+    //挂起当前事务的一级缓存，返回值交给 resume 恢复
+    public static IdentityMap suspend(){
+        IdentityMap identityMap = threadLocal.get();
+        threadLocal.remove();
+        return identityMap;
+    }
+
+    public static void resume(IdentityMap identityMap){
+        if(identityMap == null){
+            threadLocal.remove();
+        }else{
+            threadLocal.set(identityMap);
+        }
+    }
+
+    public static IdentityMap current(){
+        return threadLocal.get();
+    }
+
+    public boolean contains(Class clazz, Object key){
+        Map<Object, Object> map = entities.get(clazz);
+        return map != null && map.containsKey(key);
+    }
+
+    //已删除时返回 null
+    public Object get(Class clazz, Object key){
+        Map<Object, Object> map = entities.get(clazz);
+        Object value = map == null ? null : map.get(key);
+        return value == DELETED ? null : value;
+    }
+
+    public void put(Class clazz, Object key, Object value){
+        if(value == null){
+            return;
+        }
+        Map<Object, Object> map = entities.get(clazz);
+        if(map == null){
+            map = new HashMap<Object, Object>();
+            entities.put(clazz, map);
+        }
+        map.put(key, value);
+    }
+
+    //按主键更新：已加载时替换为合并了更新字段的新对象，之前返回的对象保持不变
+    public void update(Class clazz, Object key, Object value, boolean updateNull, String [] nullColumns){
+        Object current = get(clazz, key);
+        if(current == null){
+            remove(clazz, key);
+            return;
+        }
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+        Object merged = SingleFlight.copy(current);
+        if(infoList == null || merged == current){
+            remove(clazz, key);
+            return;
+        }
+        List<String> ncs = nullColumns == null ? Collections.<String>emptyList() : Arrays.asList(nullColumns);
+        for(ColumnInfo info : infoList){
+            Object fieldValue = ORMUtils.getFieldValue(value, info);
+            if(fieldValue != null || updateNull || ncs.contains(info.getColumnName())){
+                ORMUtils.setFieldValue(merged, info, fieldValue);
+            }
+        }
+        put(clazz, key, merged);
+    }
+
+    public void delete(Class clazz, Object key){
+        put(clazz, key, DELETED);
+    }
+
+    public void remove(Class clazz, Object key){
+        Map<Object, Object> map = entities.get(clazz);
+        if(map != null){
+            map.remove(key);
+        }
+    }
+
+    public void clear(Class clazz){
+        entities.remove(clazz);
+    }
+
+    public void clear(){
+        entities.clear();
+    }
+}
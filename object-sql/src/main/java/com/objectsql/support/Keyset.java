@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.IBaseQuery;
+import com.objectsql.IMultiQuery;
+import com.objectsql.IQuery;
+import com.objectsql.exception.ORMException;
+import com.objectsql.utils.ORMUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 游标分页（keyset / seek）
+ * 排序列末尾补充主键保证顺序唯一，游标为上一页最后一行的排序列值；
+ * 下一页条件：(o1 > v1) OR (o1 = v1 AND o2 > v2) OR ...，DESC 列使用 <，不再使用 OFFSET
+ * 排序列须为普通列（非函数、CASE、字段别名），且出现在查询结果中，值不能为 null
+ */
+public final class Keyset {
+
+    private Keyset(){
+    }
+
+    //查询排序列 + 主键（未包含时，ASC）
+    public static List<Order> orders(IQuery query){
+        List<Order> orders = new ArrayList<Order>(query.getOrders());
+        String alias = null;
+        Class<?> clazz = null;
+        if(query instanceof IBaseQuery){
+            clazz = query.getTable();
+        }else if(query instanceof IMultiQuery){
+            IMultiQuery multiQuery = (IMultiQuery) query;
+            List<String> aliasList = multiQuery.getAliasList();
+            if(aliasList != null && !aliasList.isEmpty()){
+                alias = aliasList.get(0);
+                Object table = multiQuery.getAliasTable().get(alias);
+                if(table instanceof Class){
+                    clazz = (Class<?>) table;
+                }
+            }
+        }
+        if(clazz == null){
+            return orders;
+        }
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(clazz);
+        if(infoList == null){
+            return orders;
+        }
+        for(ColumnInfo info : infoList){
+            if(!Boolean.TRUE.equals(info.getPrimaryKey())){
+                continue;
+            }
+            boolean contains = false;
+            for(Order order : orders){
+                Column column = order.getColumn();
+                if(info.getColumnName().equalsIgnoreCase(column.getName())
+                        && (alias == null || column.getAlias() == null || alias.equals(column.getAlias()))){
+                    contains = true;
+                    break;
+                }
+            }
+            if(!contains){
+                orders.add(new Order(new Column(alias, info.getColumnName()), Order.ASC));
+            }
+        }
+        return orders;
+    }
+
+    //游标之后的条件，cursor 为空时返回 null
+    public static Condition condition(List<Order> orders, String cursor){
+        if(ORMUtils.isEmpty(cursor)){
+            return null;
+        }
+        List<Object> values = decode(cursor);
+        if(values.size() != orders.size()){
+            throw new ORMException("Keyset cursor does not match the query orders: " + cursor);
+        }
+        Condition condition = new Condition();
+        for(int i = 0; i < orders.size(); i++){
+            Condition part = new Condition();
+            for(int j = 0; j < i; j++){
+                part.and(new Expression(column(orders.get(j)), values.get(j), ExpressionType.CDT_EQUAL));
+            }
+            ExpressionType type = isDesc(orders.get(i)) ? ExpressionType.CDT_LESS : ExpressionType.CDT_MORE;
+            part.and(new Expression(column(orders.get(i)), values.get(i), type));
+            condition.or(part);
+        }
+        return condition;
+    }
+
+    //由最后一行生成下一页游标
+    public static String next(Object row, List<Order> orders){
+        if(row == null){
+            return null;
+        }
+        List<Object> values = new ArrayList<Object>(orders.size());
+        for(Order order : orders){
+            Column column = order.getColumn();
+            Object value = value(row, column);
+            if(value == null){
+                throw new ORMException("Keyset column is null or not selected: " + column.getName());
+            }
+            values.add(value);
+        }
+        return encode(values);
+    }
+
+    private static boolean isDesc(Order order){
+        return order.getOrder() != null && Order.DESC.equalsIgnoreCase(order.getOrder().trim());
+    }
+
+    //条件使用新的列对象，渲染时不受排序列别名替换的影响
+    private static Column column(Order order){
+        Column column = order.getColumn();
+        if(column instanceof CaseColumn || column.getQuery() != null || column.getType() != null
+                || !ORMUtils.isEmpty(column.getFunction()) || !ORMUtils.isEmpty(column.getFormat())){
+            throw new ORMException("Keyset pagination supports plain order columns only: " + column.getName());
+        }
+        return new Column(column.getAlias(), column.getName());
+    }
+
+    private static Object value(Object row, Column column){
+        String name = column.getName();
+        if(row instanceof Map){
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) row).entrySet()){
+                String key = String.valueOf(entry.getKey());
+                if(key.equalsIgnoreCase(name) || key.equalsIgnoreCase(column.getAsName())){
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+        List<ColumnInfo> infoList = ORMUtils.getColumnInfo(row.getClass());
+        if(infoList != null){
+            for(ColumnInfo info : infoList){
+                if(name.equalsIgnoreCase(info.getColumnName())){
+                    return ORMUtils.getFieldValue(row, info);
+                }
+            }
+        }
+        String fieldName = name.replace("_", "");
+        for(ColumnInfo info : ORMUtils.getExtendFields(row.getClass())){
+            if(fieldName.equalsIgnoreCase(info.getName()) || info.getName().equalsIgnoreCase(column.getAsName())){
+                return ORMUtils.getFieldValue(row, info);
+            }
+        }
+        return null;
+    }
+
+    //类型 + 长度 + 值，Base64(URL) 编码
+    public static String encode(List<Object> values){
+        StringBuffer sb = new StringBuffer();
+        for(Object value : values){
+            char type;
+            String text;
+            if(value instanceof Integer){
+                type = 'i';
+                text = value.toString();
+            }else if(value instanceof Long){
+                type = 'l';
+                text = value.toString();
+            }else if(value instanceof Short){
+                type = 'h';
+                text = value.toString();
+            }else if(value instanceof Byte){
+                type = 'y';
+                text = value.toString();
+            }else if(value instanceof Double){
+                type = 'd';
+                text = value.toString();
+            }else if(value instanceof Float){
+                type = 'f';
+                text = value.toString();
+            }else if(value instanceof BigDecimal){
+                type = 'b';
+                text = ((BigDecimal) value).toPlainString();
+            }else if(value instanceof BigInteger){
+                type = 'g';
+                text = value.toString();
+            }else if(value instanceof Boolean){
+                type = 'z';
+                text = value.toString();
+            }else if(value instanceof java.sql.Timestamp){
+                java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+                type = 'T';
+                text = timestamp.getTime() + "." + timestamp.getNanos();
+            }else if(value instanceof java.sql.Date){
+                type = 'D';
+                text = value.toString();
+            }else if(value instanceof Date){
+                type = 't';
+                text = String.valueOf(((Date) value).getTime());
+            }else if(value instanceof LocalDateTime){
+                type = 'L';
+                text = value.toString();
+            }else if(value instanceof LocalDate){
+                type = 'A';
+                text = value.toString();
+            }else{
+                type = 's';
+                text = value.toString();
+            }
+            sb.append(type);
+            sb.append(text.length());
+            sb.append(':');
+            sb.append(text);
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new ORMException("Encode keyset cursor error", e);
+        }
+    }
+
+    public static List<Object> decode(String cursor){
+        List<Object> values = new ArrayList<Object>();
+        try {
+            String text = new String(Base64.getUrlDecoder().decode(cursor), "UTF-8");
+            int index = 0;
+            while (index < text.length()){
+                char type = text.charAt(index);
+                int colon = text.indexOf(':', index);
+                int length = Integer.parseInt(text.substring(index + 1, colon));
+                String value = text.substring(colon + 1, colon + 1 + length);
+                index = colon + 1 + length;
+                switch (type){
+                    case 'i':
+                        values.add(Integer.valueOf(value));
+                        break;
+                    case 'l':
+                        values.add(Long.valueOf(value));
+                        break;
+                    case 'h':
+                        values.add(Short.valueOf(value));
+                        break;
+                    case 'y':
+                        values.add(Byte.valueOf(value));
+                        break;
+                    case 'd':
+                        values.add(Double.valueOf(value));
+                        break;
+                    case 'f':
+                        values.add(Float.valueOf(value));
+                        break;
+                    case 'b':
+                        values.add(new BigDecimal(value));
+                        break;
+                    case 'g':
+                        values.add(new BigInteger(value));
+                        break;
+                    case 'z':
+                        values.add(Boolean.valueOf(value));
+                        break;
+                    case 'T':
+                        int dot = value.indexOf('.');
+                        java.sql.Timestamp timestamp = new java.sql.Timestamp(Long.parseLong(value.substring(0, dot)));
+                        timestamp.setNanos(Integer.parseInt(value.substring(dot + 1)));
+                        values.add(timestamp);
+                        break;
+                    case 'D':
+                        values.add(java.sql.Date.valueOf(value));
+                        break;
+                    case 't':
+                        values.add(new Date(Long.parseLong(value)));
+                        break;
+                    case 'L':
+                        values.add(LocalDateTime.parse(value));
+                        break;
+                    case 'A':
+                        values.add(LocalDate.parse(value));
+                        break;
+                    case 's':
+                        values.add(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("type " + type);
+                }
+            }
+        } catch (Exception e) {
+            throw new ORMException("Invalid keyset cursor: " + cursor, e);
+        }
+        return values;
+    }
+}
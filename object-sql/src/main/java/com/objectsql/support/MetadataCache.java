@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.exception.ORMException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据库元数据缓存（表、列、列类型），按 数据源 + 种类 + 表名 缓存，返回副本
+ * 每个数据源有版本号：refresh 时递增并清空，加载期间发生 refresh/失效的结果不放入；
+ * 可整个 schema 一次加载（表列表 + 所有列），未包含的表按需单独加载；expire 为 0 时不过期
+ */
+public final class MetadataCache {
+
+    public static final String TABLE = "table";
+    public static final String RD_TABLE = "rdTable";
+    public static final String COLUMNS = "columns";
+    public static final String RD_COLUMNS = "rdColumns";
+    public static final String COLUMN_CLASSES = "columnClasses";
+
+    //表不存在等空结果同样缓存
+    private static final Object NULL = new Object();
+
+    private final ConcurrentHashMap<Object, Schema> schemas = new ConcurrentHashMap<Object, Schema>();
+
+    private volatile long expire;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public MetadataCache(long expireSeconds){
+        setExpire(expireSeconds);
+    }
+
+    public void setExpire(long expireSeconds){
+        this.expire = expireSeconds > 0 ? expireSeconds * 1000L : 0;
+    }
+
+    private Schema schema(Object dataSource){
+        Object key = new SingleFlight.Identity(dataSource);
+        Schema schema = schemas.get(key);
+        if(schema == null){
+            Schema temp = new Schema();
+            schema = schemas.putIfAbsent(key, temp);
+            if(schema == null){
+                schema = temp;
+            }
+        }
+        return schema;
+    }
+
+    private boolean expired(long time, long now){
+        return expire > 0 && now - time >= expire;
+    }
+
+    //未缓存或已过期时执行 loader 并放入
+    public <T> T get(Object dataSource, String kind, String table, Callable<T> loader){
+        Schema schema = schema(dataSource);
+        String key = kind + ":" + table;
+        long version;
+        synchronized (schema){
+            Entry entry = schema.entries.get(key);
+            if(entry != null && !expired(entry.time, System.currentTimeMillis())){
+                hitCount.incrementAndGet();
+                return entry.value == NULL ? null : (T)SingleFlight.copy(entry.value);
+            }
+            version = schema.version;
+        }
+        missCount.incrementAndGet();
+        T value;
+        try {
+            value = loader.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException("Metadata load error", e);
+        }
+        synchronized (schema){
+            if(schema.version == version){
+                schema.entries.put(key, new Entry(ResultCache.table(table), value == null ? NULL : SingleFlight.copy(value)));
+            }
+        }
+        return value;
+    }
+
+    //是否已整个加载且未过期
+    public boolean isLoaded(Object dataSource){
+        Schema schema = schema(dataSource);
+        synchronized (schema){
+            return schema.loadedTime > 0 && !expired(schema.loadedTime, System.currentTimeMillis());
+        }
+    }
+
+    public long version(Object dataSource){
+        Schema schema = schema(dataSource);
+        synchronized (schema){
+            return schema.version;
+        }
+    }
+
+    /**
+     * 放入整个 schema 的元数据，version 为加载前取得的版本，期间 refresh 过则丢弃
+     * @param tables 所有表（为 null 时不放入）
+     * @param columns 表名 -> 列（为 null 时不放入）
+     */
+    public void load(Object dataSource, long version, List<Table> tables, Map<String, List<TableColumn>> columns){
+        Schema schema = schema(dataSource);
+        synchronized (schema){
+            if(schema.version != version){
+                return;
+            }
+            if(tables != null){
+                for(Table table : tables){
+                    schema.entries.put(TABLE + ":" + table.getName(), new Entry(ResultCache.table(table.getName()), table));
+                }
+            }
+            if(columns != null){
+                for(Map.Entry<String, List<TableColumn>> entry : columns.entrySet()){
+                    schema.entries.put(COLUMNS + ":" + entry.getKey(), new Entry(ResultCache.table(entry.getKey()), entry.getValue()));
+                }
+            }
+            schema.loadedTime = System.currentTimeMillis();
+        }
+    }
+
+    //表结构变更后失效该表（不区分大小写、忽略 schema 前缀）
+    public void invalidate(Object dataSource, String table){
+        Schema schema = schema(dataSource);
+        String name = ResultCache.table(table);
+        synchronized (schema){
+            schema.version++;
+            Iterator<Entry> iterator = schema.entries.values().iterator();
+            while (iterator.hasNext()){
+                if(iterator.next().table.equals(name)){
+                    iterator.remove();
+                    invalidationCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    //清空数据源的缓存，为 null 时全部清空
+    public void refresh(Object dataSource){
+        Collection<Schema> targets = dataSource == null ? schemas.values() : Collections.singletonList(schema(dataSource));
+        for(Schema schema : targets){
+            synchronized (schema){
+                schema.version++;
+                invalidationCount.addAndGet(schema.entries.size());
+                schema.entries.clear();
+                schema.loadedTime = 0;
+            }
+        }
+    }
+
+    public int size(){
+        int size = 0;
+        for(Schema schema : schemas.values()){
+            synchronized (schema){
+                size += schema.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public CacheStats getStats(){
+        return new CacheStats(hitCount.get(), missCount.get(), 0, invalidationCount.get(), size());
+    }
+
+    private static class Schema {
+        private long version;
+        private long loadedTime;
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    }
+
+    private static class Entry {
+        private final String table;
+        private final Object value;
+        private final long time = System.currentTimeMillis();
+
+        Entry(String table, Object value){
+            this.table = table;
+            this.value = value;
+        }
+    }
+}
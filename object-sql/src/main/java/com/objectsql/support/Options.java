@@ -22,7 +22,9 @@ import com.objectsql.helper.SQLHelper;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +58,10 @@ public interface Options {
 
     List<Table> tables(Connection connection, String keyword);
     List<TableColumn> columns(Connection connection, String table);
+    //当前 schema 所有表的列（表名 -> 列，一次目录查询），与 columns(connection, table) 结果一致；不支持时返回 null
+    default Map<String, List<TableColumn>> schemaColumns(Connection connection){
+        return null;
+    }
 
     List<String> createOrUpdateSqls(Connection connection, RdTable table, List<ColumnInfo> columnInfoList, boolean tableExisted, List<TableColumn> tableColumns);
     List<String> createOrUpdateSqls(Connection connection, Table table, List<TableColumn> columns, List<TableColumn> tableColumns, boolean tableExisted);
@@ -64,4 +70,70 @@ public interface Options {
     String getClassName(TableColumn column);
     String dropTable(Table table);
 
+    //游标读取设置，返回 true 表示关闭了 autoCommit，释放连接前需恢复
+    default boolean prepareFetch(Connection connection, PreparedStatement ps, FetchMode mode, int fetchSize) throws SQLException {
+        if(fetchSize > 0){
+            ps.setFetchSize(fetchSize);
+        }
+        return false;
+    }
+    //未指定 fetchSize 时根据行宽调整后续批次大小
+    default void adaptFetchSize(ResultSet rs, ResultSetShape shape, FetchMode mode, int fetchSize) throws SQLException {
+    }
+
+    //多行 INSERT：单条语句参数个数与行数上限（不大于 1 时不使用多行 INSERT），是否可取回每行的自增主键
+    default int maxInsertParameters(){
+        return 32767;
+    }
+    default int maxInsertRows(){
+        return 1;
+    }
+    default boolean multiRowInsertKeys(){
+        return false;
+    }
+    //由单行 INSERT 生成 rows 行的 INSERT
+    default String multiRowInsert(String insertSQL, int rows){
+        if(rows == 1){
+            return insertSQL;
+        }
+        throw new ORMException("Multi-row insert is not supported, rows : " + rows);
+    }
+
+    //IN 列表单条语句最多的参数个数（按主键批量查询时分段）
+    default int maxInListSize(){
+        return 1000;
+    }
+
+    //按统计信息估算行数：sql 为空时取表的统计行数，否则取执行计划的估算行数；无法估算时返回 -1
+    default long estimateCount(Connection connection, String table, String sql, List<Pair> values) throws SQLException {
+        return -1;
+    }
+
+    //存在判断：取到一行即返回，不统计总数
+    default String exists(String table, String conditions){
+        if(conditions == null || conditions.trim().isEmpty()){
+            return "SELECT 1 FROM " + table;
+        }
+        return "SELECT 1 FROM " + table + " WHERE " + conditions;
+    }
+    //多个条件一次判断，每列对应一个条件（1 存在，0 不存在）；不支持时返回 null，逐个条件判断
+    default String exists(String table, List<String> conditions){
+        return null;
+    }
+
+    //是否支持 COUNT(*) OVER() 随分页数据返回总数
+    default boolean windowCount(){
+        return false;
+    }
+
+    //插入或更新：columns 为插入列（参数顺序），冲突时按 conflictColumns 匹配并更新 updateColumns
+    default String upsert(String table, List<String> columns, List<String> conflictColumns, List<String> updateColumns){
+        throw new ORMException("Upsert is not supported, database : " + databaseType());
+    }
+
+    //原生批量导入（COPY / LOAD DATA / CSVREAD），返回导入行数；不支持时返回 -1 且不读取 rows
+    default long bulkLoad(Connection connection, String table, List<String> columns, Iterator<List<Pair>> rows) throws SQLException {
+        return -1;
+    }
+
 }
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+public enum PageCountMode {
+    COUNT,//先 COUNT 再查询数据（默认）
+    WINDOW,//COUNT(*) OVER() 随数据一次返回，方言不支持或游标分页时使用 COUNT
+    PARALLEL,//COUNT 与数据查询在两个连接上并发执行，事务中使用 COUNT
+    NONE;//不统计总数，多取一行判断 hasNext
+
+    //WINDOW 模式附加的总数列
+    public static final String WINDOW_COLUMN = "ORM_TOTAL_";
+}
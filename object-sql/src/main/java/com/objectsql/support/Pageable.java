@@ -36,12 +36,32 @@ public class Pageable<S> implements Serializable {
 	@RdColumn(title = "数据列表")
 	public List<? extends Object> rows;
 
+	@RdColumn(title = "总数统计方式", description = "为空时使用 service 的配置")
+	public PageCountMode countMode;
+	@RdColumn(title = "是否有下一页")
+	public Boolean hasNext;
+
+	@RdColumn(title = "估算总数", description = "按统计信息估算，估算值不小于阈值时不再精确统计")
+	public Boolean estimate;
+	@RdColumn(title = "总数是否为估算值")
+	public Boolean estimated;
+
+	@RdColumn(title = "游标分页", description = "按排序列 + 主键定位，不使用偏移")
+	public Boolean keyset;
+	@RdColumn(title = "游标", description = "上一页返回的 nextCursor，首页为空")
+	public String cursor;
+	@RdColumn(title = "下一页游标", description = "为空时没有下一页")
+	public String nextCursor;
+
 	public void setOffset(Integer offset) {
 		this.offset = offset;
 	}
 
-	//优先，使用offset
+	//优先，使用offset；游标分页不使用偏移
 	public Integer getOffset(){
+		if(isKeyset()){
+			return 0;
+		}
 		if(offset != null){
 			return offset;
 		}
@@ -86,6 +106,77 @@ public class Pageable<S> implements Serializable {
 		this.total = total;
 	}
 
+	//游标分页：Pageable.keyset(20)，下一页 page.setCursor(last.getNextCursor())
+	public static Pageable keyset(Integer size){
+		Pageable pageable = new Pageable(1, size);
+		pageable.setKeyset(true);
+		return pageable;
+	}
+
+	public PageCountMode getCountMode() {
+		return countMode;
+	}
+
+	public void setCountMode(PageCountMode countMode) {
+		this.countMode = countMode;
+	}
+
+	public Boolean getHasNext() {
+		return hasNext;
+	}
+
+	public void setHasNext(Boolean hasNext) {
+		this.hasNext = hasNext;
+	}
+
+	public boolean isEstimate() {
+		return Boolean.TRUE.equals(estimate);
+	}
+
+	public Boolean getEstimate() {
+		return estimate;
+	}
+
+	public void setEstimate(Boolean estimate) {
+		this.estimate = estimate;
+	}
+
+	public Boolean getEstimated() {
+		return estimated;
+	}
+
+	public void setEstimated(Boolean estimated) {
+		this.estimated = estimated;
+	}
+
+	public boolean isKeyset() {
+		return Boolean.TRUE.equals(keyset);
+	}
+
+	public Boolean getKeyset() {
+		return keyset;
+	}
+
+	public void setKeyset(Boolean keyset) {
+		this.keyset = keyset;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
 	public <T> List<T> getRows() {
 		return (List<T>)this.rows;
 	}
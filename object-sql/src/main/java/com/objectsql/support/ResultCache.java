@@ -0,0 +1,419 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.IBaseQuery;
+import com.objectsql.IMultiQuery;
+import com.objectsql.IQuery;
+import com.objectsql.exception.ORMException;
+import com.objectsql.utils.ORMUtils;
+
+import java.lang.reflect.Field;
+import java.time.temporal.Temporal;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * 查询结果缓存：key 为 数据源 + 返回类型 + SQL + 参数值，条目标记读取的表，写入这些表时失效
+ * 按估算的内存大小（字节）限制总量，超出时淘汰最久未访问的条目；存入及读取时均复制结果
+ * 原生 SQL 无法得知读取的表，标记为 ALL_TABLES，任何写入都会使其失效
+ */
+public class ResultCache {
+
+    public static final String ALL_TABLES = "*";
+
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<Long> scopeTtl = new ThreadLocal<Long>();
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    //表 -> 条目
+    private final Map<String, Set<Object>> tableIndex = new HashMap<String, Set<Object>>();
+
+    private long maxWeight;
+    private long weight;
+
+    //失效序号：加载前取得 sequence()，加载期间读取的表失效时不放入
+    private long sequence;
+    private long clearSequence;
+    private final Map<String, Long> invalidated = new HashMap<String, Long>();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    public ResultCache(){
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public ResultCache(long maxWeight){
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * 作用域内当前线程的查询（query、list(condition)、queryMapList 等）按 ttl 缓存，IQuery 设置了 cacheTtl 时以其为准
+     */
+    public static <T> T scope(long ttlSeconds, Callable<T> callable){
+        Long previous = scopeTtl.get();
+        scopeTtl.set(ttlSeconds);
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException("Result cache scope error", e);
+        } finally {
+            if(previous == null){
+                scopeTtl.remove();
+            }else{
+                scopeTtl.set(previous);
+            }
+        }
+    }
+
+    public static long scopeTtl(){
+        Long ttl = scopeTtl.get();
+        return ttl == null ? 0 : ttl.longValue();
+    }
+
+    public static String table(String name){
+        if(name == null){
+            return ALL_TABLES;
+        }
+        String table = name.trim();
+        int index = table.lastIndexOf('.');
+        if(index > -1){
+            table = table.substring(index + 1);
+        }
+        return table.replace("`", "").replace("\"", "").replace("[", "").replace("]", "").toUpperCase(Locale.ROOT);
+    }
+
+    public static String table(Class<?> clazz){
+        return table(ORMUtils.getTableName(clazz));
+    }
+
+    //查询读取的表：主表、关联表、子查询（表、关联、条件、返回列中）
+    public static Set<String> tables(IQuery query){
+        Set<String> tables = new HashSet<String>();
+        addQuery(tables, query);
+        return tables;
+    }
+
+    public static Set<String> tables(Class<?> clazz, Condition condition){
+        Set<String> tables = new HashSet<String>();
+        tables.add(table(clazz));
+        addCondition(tables, condition);
+        return tables;
+    }
+
+    private static void addQuery(Set<String> tables, IQuery query){
+        if(query instanceof IBaseQuery){
+            addTable(tables, query.getTable());
+        }else if(query instanceof IMultiQuery){
+            IMultiQuery multiQuery = (IMultiQuery) query;
+            for(Object table : multiQuery.getAliasTable().values()){
+                addTable(tables, table);
+            }
+            for(Join join : multiQuery.getJoins()){
+                addTable(tables, join.getTable());
+                addConditions(tables, join.getConditions());
+            }
+        }else{
+            tables.add(ALL_TABLES);
+        }
+        addConditions(tables, query.getConditions());
+        addConditions(tables, query.getHavings());
+        List<Column> columns = query.getReturnColumns();
+        if(columns != null){
+            for(Column column : columns){
+                addValue(tables, column);
+            }
+        }
+    }
+
+    private static void addTable(Set<String> tables, Object table){
+        if(table instanceof Class){
+            tables.add(table((Class<?>) table));
+        }else if(table instanceof String){
+            tables.add(table((String) table));
+        }else if(table instanceof IQuery){
+            addQuery(tables, (IQuery) table);
+        }else{
+            tables.add(ALL_TABLES);
+        }
+    }
+
+    private static void addConditions(Set<String> tables, List<Condition> conditions){
+        if(conditions != null){
+            for(Condition condition : conditions){
+                addCondition(tables, condition);
+            }
+        }
+    }
+
+    private static void addCondition(Set<String> tables, Condition condition){
+        if(condition == null){
+            return;
+        }
+        for(ConditionObject conditionObject : condition.getConditions()){
+            addValue(tables, conditionObject.getObject());
+        }
+    }
+
+    private static void addValue(Set<String> tables, Object value){
+        if(value instanceof IQuery){
+            addQuery(tables, (IQuery) value);
+        }else if(value instanceof Condition){
+            addCondition(tables, (Condition) value);
+        }else if(value instanceof Expression){
+            Expression expression = (Expression) value;
+            addValue(tables, expression.getLeft());
+            addValue(tables, expression.getValue());
+            addValue(tables, expression.getAndValue());
+        }else if(value instanceof Expression[]){
+            for(Expression expression : (Expression[]) value){
+                addValue(tables, expression);
+            }
+        }else if(value instanceof CaseColumn){
+            CaseColumn caseColumn = (CaseColumn) value;
+            for(Map.Entry<Condition, Object> entry : caseColumn.getConditions().entrySet()){
+                addCondition(tables, entry.getKey());
+                addValue(tables, entry.getValue());
+            }
+            addValue(tables, caseColumn.getElseValue());
+        }else if(value instanceof Column){
+            Column column = (Column) value;
+            addValue(tables, column.getQuery());
+            addValue(tables, column.getValue());
+        }else if(value instanceof Collection){
+            for(Object obj : (Collection) value){
+                addValue(tables, obj);
+            }
+        }
+    }
+
+    public synchronized void setMaxWeight(long maxWeight){
+        this.maxWeight = maxWeight;
+        evictToWeight();
+    }
+
+    public synchronized long getMaxWeight(){
+        return maxWeight;
+    }
+
+    public synchronized Object get(Object key){
+        Entry entry = entries.get(key);
+        if(entry != null && entry.expireAt <= System.currentTimeMillis()){
+            remove(key);
+            evictionCount++;
+            entry = null;
+        }
+        if(entry == null){
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return SingleFlight.copy(entry.value);
+    }
+
+    public synchronized long sequence(){
+        return sequence;
+    }
+
+    /**
+     * @param sequence 加载前取得的 sequence()
+     */
+    public synchronized boolean put(Object key, Object value, Set<String> tables, long ttlSeconds, long sequence){
+        if(value == null || ttlSeconds <= 0 || tables == null || tables.isEmpty() || isInvalidated(tables, sequence)){
+            return false;
+        }
+        long size = weigh(value);
+        if(size > maxWeight){
+            return false;
+        }
+        remove(key);
+        Entry entry = new Entry(SingleFlight.copy(value), tables, size, System.currentTimeMillis() + ttlSeconds * 1000);
+        entries.put(key, entry);
+        weight += size;
+        for(String table : tables){
+            Set<Object> keys = tableIndex.get(table);
+            if(keys == null){
+                keys = new HashSet<Object>();
+                tableIndex.put(table, keys);
+            }
+            keys.add(key);
+        }
+        evictToWeight();
+        return true;
+    }
+
+    private boolean isInvalidated(Set<String> tables, long start){
+        if(clearSequence > start){
+            return true;
+        }
+        if(tables.contains(ALL_TABLES)){
+            return sequence > start;
+        }
+        for(String table : tables){
+            Long value = invalidated.get(table);
+            if(value != null && value.longValue() > start){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //table 为 null 或 ALL_TABLES 时全部失效，否则该表及 ALL_TABLES 标记的条目失效
+    public synchronized void invalidate(String table){
+        sequence++;
+        if(table == null || ALL_TABLES.equals(table)){
+            clearSequence = sequence;
+            invalidationCount += entries.size();
+            entries.clear();
+            tableIndex.clear();
+            weight = 0;
+            return;
+        }
+        invalidated.put(table, sequence);
+        removeTable(table);
+        removeTable(ALL_TABLES);
+    }
+
+    public void clear(){
+        invalidate(null);
+    }
+
+    private void removeTable(String table){
+        Set<Object> keys = tableIndex.get(table);
+        if(keys == null){
+            return;
+        }
+        for(Object key : new ArrayList<Object>(keys)){
+            if(remove(key)){
+                invalidationCount++;
+            }
+        }
+    }
+
+    private boolean remove(Object key){
+        Entry entry = entries.remove(key);
+        if(entry == null){
+            return false;
+        }
+        weight -= entry.weight;
+        for(String table : entry.tables){
+            Set<Object> keys = tableIndex.get(table);
+            if(keys != null){
+                keys.remove(key);
+                if(keys.isEmpty()){
+                    tableIndex.remove(table);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void evictToWeight(){
+        while (weight > maxWeight && !entries.isEmpty()){
+            remove(entries.keySet().iterator().next());
+            evictionCount++;
+        }
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    public synchronized long weight(){
+        return weight;
+    }
+
+    public synchronized CacheStats getStats(){
+        return new CacheStats(hitCount, missCount, evictionCount, invalidationCount, entries.size());
+    }
+
+    //估算占用的字节数
+    static long weigh(Object value){
+        if(value == null){
+            return 8;
+        }
+        if(value instanceof String){
+            return 40 + 2L * ((String) value).length();
+        }
+        if(value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum){
+            return 16;
+        }
+        if(value instanceof Date || value instanceof Temporal){
+            return 24;
+        }
+        if(value instanceof byte[]){
+            return 16 + ((byte[]) value).length;
+        }
+        if(value instanceof char[]){
+            return 16 + 2L * ((char[]) value).length;
+        }
+        if(value instanceof Object[]){
+            long size = 16;
+            for(Object obj : (Object[]) value){
+                size += 8 + weigh(obj);
+            }
+            return size;
+        }
+        if(value instanceof Collection){
+            long size = 40;
+            for(Object obj : (Collection) value){
+                size += 8 + weigh(obj);
+            }
+            return size;
+        }
+        if(value instanceof Map){
+            long size = 48;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()){
+                size += 32 + weigh(entry.getKey()) + weigh(entry.getValue());
+            }
+            return size;
+        }
+        Class<?> clazz = value.getClass();
+        if(clazz.isArray() || clazz.getName().startsWith("java.")){
+            return 64;
+        }
+        long size = 16;
+        try {
+            for(Field field : SingleFlight.fields(clazz)){
+                Object fieldValue = field.get(value);
+                size += 8 + (field.getType().isPrimitive() ? 0 : weigh(fieldValue));
+            }
+        } catch (IllegalAccessException e) {
+            size += 64;
+        }
+        return size;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final Set<String> tables;
+        private final long weight;
+        private final long expireAt;
+
+        Entry(Object value, Set<String> tables, long weight, long expireAt){
+            this.value = value;
+            this.tables = tables;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.query.QueryUtils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * 结果集结构描述，每次执行只读取一次 ResultSetMetaData
+ * 下标与 JDBC 一致，从 1 开始
+ */
+public class ResultSetShape {
+
+    private ResultSetMetaData metaData;
+    private int columnCount;
+    private String [] labels;
+    private String [] names;
+    private String [] displayNames;
+    private int [] types;
+    private int [] displaySizes;
+    private String key;
+
+    private ResultSetShape(){}
+
+    public static ResultSetShape create(ResultSet rs) throws SQLException {
+        ResultSetShape shape = new ResultSetShape();
+        ResultSetMetaData meta = rs.getMetaData();
+        int count = meta.getColumnCount();
+        shape.metaData = meta;
+        shape.columnCount = count;
+        shape.labels = new String[count + 1];
+        shape.names = new String[count + 1];
+        shape.displayNames = new String[count + 1];
+        shape.types = new int[count + 1];
+        shape.displaySizes = new int[count + 1];
+        StringBuffer key = new StringBuffer();
+        for(int i = 1; i <= count; i++){
+            shape.labels[i] = meta.getColumnLabel(i);
+            shape.names[i] = meta.getColumnName(i);
+            shape.displayNames[i] = QueryUtils.displayNameOrAsName(shape.labels[i], shape.names[i]);
+            shape.types[i] = meta.getColumnType(i);
+            shape.displaySizes[i] = meta.getColumnDisplaySize(i);
+            if(i > 1){
+                key.append(",");
+            }
+            key.append(shape.labels[i]).append(":").append(shape.names[i]);
+        }
+        shape.key = key.toString();
+        return shape;
+    }
+
+    public ResultSetMetaData getMetaData() {
+        return metaData;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getDisplayName(int index) {
+        return displayNames[index];
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public int getDisplaySize(int index) {
+        return displaySizes[index];
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 @objectsql.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.objectsql.support;
+
+import com.objectsql.exception.ORMException;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 相同读取合并执行（single-flight）：同一 key 同时只有一个线程访问数据库，其他线程等待其结果
+ * 结果不缓存，执行结束即移除；每个调用方得到结果的副本（List/Map/实体浅复制，Date/数组复制）
+ * 首个线程因 Error 中断或超过等待时间未完成时，等待的线程自行执行
+ */
+public final class SingleFlight {
+
+    public static final long DEFAULT_WAIT_MILLIS = 30000L;
+
+    //等待的线程改为自行执行
+    private static final Object RETRY = new Object();
+
+    private static final ConcurrentHashMap<Object, Flight> flights = new ConcurrentHashMap<Object, Flight>();
+
+    private static volatile long waitMillis = DEFAULT_WAIT_MILLIS;
+
+    private static final Map<Class, Field []> fieldsMap = new ConcurrentHashMap<Class, Field[]>();
+
+    private static final Map<Class, Constructor> constructorMap = new ConcurrentHashMap<Class, Constructor>();
+
+    private SingleFlight(){
+    }
+
+    public static Object key(Object dataSource, Class<?> clazz, String sql, List<Pair> values){
+        List<Object> key = new ArrayList<Object>(values == null ? 3 : values.size() + 3);
+        key.add(new Identity(dataSource));
+        key.add(clazz);
+        key.add(sql);
+        if(values != null){
+            for(Pair pair : values){
+                key.add(pair.getValue());
+            }
+        }
+        return key;
+    }
+
+    public static long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public static void setWaitMillis(long waitMillis) {
+        SingleFlight.waitMillis = waitMillis;
+    }
+
+    public static <T> T execute(Object key, Callable<T> callable, Runnable beforeWait){
+        return execute(key, callable, beforeWait, null);
+    }
+
+    /**
+     * @param key 查询标识
+     * @param callable 首个线程执行的查询
+     * @param beforeWait 等待其他线程的结果前执行，如释放已获取的连接
+     * @param fallback 等待的线程需要自行执行时使用，为 null 时使用 callable
+     */
+    public static <T> T execute(Object key, Callable<T> callable, Runnable beforeWait, Callable<T> fallback){
+        Flight flight = new Flight();
+        Flight current = flights.putIfAbsent(key, flight);
+        if(current != null){
+            if(beforeWait != null){
+                beforeWait.run();
+            }
+            Object result = current.await(waitMillis);
+            if(result == RETRY){
+                return call(fallback != null ? fallback : callable);
+            }
+            return (T)copy(result);
+        }
+        boolean completed = false;
+        try {
+            T result = callable.call();
+            flight.complete(result, null);
+            completed = true;
+            return (T)copy(result);
+        } catch (RuntimeException e) {
+            flight.complete(null, e);
+            completed = true;
+            throw e;
+        } catch (Exception e) {
+            ORMException exception = new ORMException("Single flight error", e);
+            flight.complete(null, exception);
+            completed = true;
+            throw exception;
+        } finally {
+            //Error 等未处理的异常，等待的线程自行执行
+            if(!completed){
+                flight.complete(RETRY, null);
+            }
+            flights.remove(key, flight);
+        }
+    }
+
+    private static <T> T call(Callable<T> callable){
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException("Single flight error", e);
+        }
+    }
+
+    public static int size(){
+        return flights.size();
+    }
+
+    static Object copy(Object value){
+        if(value == null || value instanceof String || value instanceof Number
+                || value instanceof Boolean || value instanceof Character || value instanceof Enum){
+            return value;
+        }
+        if(value instanceof List){
+            List list = (List) value;
+            List result = new ArrayList(list.size());
+            for(Object obj : list){
+                result.add(copy(obj));
+            }
+            return result;
+        }
+        if(value instanceof Map){
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+            for(Map.Entry<Object, Object> entry : map.entrySet()){
+                result.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return result;
+        }
+        if(value instanceof Date){
+            return ((Date) value).clone();
+        }
+        Class<?> clazz = value.getClass();
+        if(clazz.isArray()){
+            int length = Array.getLength(value);
+            Object result = Array.newInstance(clazz.getComponentType(), length);
+            System.arraycopy(value, 0, result, 0, length);
+            return result;
+        }
+        if(clazz.getName().startsWith("java.")){
+            return value;
+        }
+        try {
+            Constructor<?> constructor = constructorMap.get(clazz);
+            if(constructor == null){
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                constructorMap.put(clazz, constructor);
+            }
+            Object result = constructor.newInstance();
+            for(Field field : fields(clazz)){
+                Object fieldValue = field.get(value);
+                if(fieldValue instanceof Date){
+                    fieldValue = ((Date) fieldValue).clone();
+                }
+                field.set(result, fieldValue);
+            }
+            return result;
+        } catch (Exception e) {
+            //无法复制时共享同一对象
+            return value;
+        }
+    }
+
+    static Field [] fields(Class<?> clazz){
+        Field [] fields = fieldsMap.get(clazz);
+        if(fields == null){
+            List<Field> temp = new ArrayList<Field>();
+            Class<?> current = clazz;
+            while (current != null && current != Object.class){
+                for(Field field : current.getDeclaredFields()){
+                    int modifiers = field.getModifiers();
+                    if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)){
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    temp.add(field);
+                }
+                current = current.getSuperclass();
+            }
+            fields = temp.toArray(new Field[temp.size()]);
+            fieldsMap.put(clazz, fields);
+        }
+        return fields;
+    }
+
+    private static class Flight {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private Object result;
+        private RuntimeException exception;
+
+        void complete(Object result, RuntimeException exception){
+            this.result = result;
+            this.exception = exception;
+            latch.countDown();
+        }
+
+        Object await(long millis){
+            try {
+                if(!latch.await(millis, TimeUnit.MILLISECONDS)){
+                    return RETRY;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ORMException("Single flight interrupted", e);
+            }
+            if(exception != null){
+                throw exception;
+            }
+            return result;
+        }
+    }
+
+    //数据源按对象标识比较
+    static class Identity {
+        private final Object target;
+
+        Identity(Object target){
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).target == target;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(target);
+        }
+    }
+}
@@ -16,13 +16,12 @@
 package com.objectsql.transaction;
 
 import com.objectsql.support.ChangeHolder;
+import com.objectsql.support.IdentityMap;
 import com.objectsql.utils.ORMUtils;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.jta.JtaTransactionManager;
 import org.springframework.transaction.support.DefaultTransactionStatus;
 
-import java.util.UUID;
-
 public class MultiTransactionManager extends JtaTransactionManager {
 
     public MultiTransactionManager() {
@@ -31,24 +30,65 @@ public class MultiTransactionManager extends JtaTransactionManager {
 
     @Override
     protected void doBegin(Object transaction, TransactionDefinition definition) {
-        String key = "jta-transaction-" + UUID.randomUUID().toString();
-        ORMUtils.handleDebugInfo(MultiTransactionManager.class, "begin", key);
-        ChangeHolder.set(key);
-        super.doBegin(transaction, definition);
+        ChangeHolder.begin();
+        IdentityMap.begin();
+        ORMUtils.handleDebugInfo(MultiTransactionManager.class, "begin", ChangeHolder.get());
+        try {
+            super.doBegin(transaction, definition);
+        } catch (RuntimeException e) {
+            //开启失败时不会再提交或回滚
+            ChangeHolder.remove();
+            IdentityMap.end();
+            throw e;
+        }
     }
 
     @Override
     protected void doCommit(DefaultTransactionStatus status) {
         ORMUtils.handleDebugInfo(MultiTransactionManager.class, "commit", ChangeHolder.get());
-        super.doCommit(status);
+        try {
+            super.doCommit(status);
+        } catch (RuntimeException e) {
+            //提交失败不一定回滚（rollbackOnCommitFailure），变更直接丢弃
+            ChangeHolder.remove();
+            throw e;
+        } finally {
+            IdentityMap.end();
+        }
         ChangeHolder.change();
     }
 
+    @Override
+    protected Object doSuspend(Object transaction) {
+        return new SuspendedChanges(super.doSuspend(transaction), ChangeHolder.suspend(), IdentityMap.suspend());
+    }
+
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+        SuspendedChanges suspended = (SuspendedChanges) suspendedResources;
+        ChangeHolder.resume(suspended.changes);
+        IdentityMap.resume(suspended.identityMap);
+        super.doResume(transaction, suspended.resources);
+    }
+
     @Override
     protected void doRollback(DefaultTransactionStatus status) {
         ORMUtils.handleDebugInfo(MultiTransactionManager.class, "rollback", ChangeHolder.get());
         ChangeHolder.remove();
+        IdentityMap.end();
         super.doRollback(status);
 
     }
+
+    private static class SuspendedChanges {
+        private final Object resources;
+        private final ChangeHolder changes;
+        private final IdentityMap identityMap;
+
+        SuspendedChanges(Object resources, ChangeHolder changes, IdentityMap identityMap){
+            this.resources = resources;
+            this.changes = changes;
+            this.identityMap = identityMap;
+        }
+    }
 }
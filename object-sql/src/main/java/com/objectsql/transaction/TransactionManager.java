@@ -16,13 +16,14 @@
 package com.objectsql.transaction;
 
 import com.objectsql.support.ChangeHolder;
+import com.objectsql.support.IdentityMap;
 import com.objectsql.utils.ORMUtils;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.support.DefaultTransactionStatus;
 
 import javax.sql.DataSource;
-import java.util.UUID;
 
 public class TransactionManager extends DataSourceTransactionManager {
 
@@ -36,24 +37,103 @@ public class TransactionManager extends DataSourceTransactionManager {
 
     @Override
     protected void doBegin(Object transaction, TransactionDefinition definition) {
-        String key = "transaction-" + UUID.randomUUID().toString();
-        ORMUtils.handleDebugInfo(TransactionManager.class, "begin", key);
-        ChangeHolder.set(key);
-        super.doBegin(transaction, definition);
+        ChangeHolder.begin();
+        IdentityMap.begin();
+        ORMUtils.handleDebugInfo(TransactionManager.class, "begin", ChangeHolder.get());
+        try {
+            super.doBegin(transaction, definition);
+        } catch (RuntimeException e) {
+            //开启失败时不会再提交或回滚
+            ChangeHolder.remove();
+            IdentityMap.end();
+            throw e;
+        }
     }
 
     @Override
     protected void doCommit(DefaultTransactionStatus status) {
         ORMUtils.handleDebugInfo(TransactionManager.class, "commit", ChangeHolder.get());
-        super.doCommit(status);
+        try {
+            super.doCommit(status);
+        } catch (RuntimeException e) {
+            //提交失败不一定回滚（rollbackOnCommitFailure），变更直接丢弃
+            ChangeHolder.remove();
+            throw e;
+        } finally {
+            IdentityMap.end();
+        }
         ChangeHolder.change();
     }
 
+    @Override
+    protected Object doSuspend(Object transaction) {
+        return new SuspendedChanges(super.doSuspend(transaction), ChangeHolder.suspend(), IdentityMap.suspend());
+    }
+
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+        SuspendedChanges suspended = (SuspendedChanges) suspendedResources;
+        ChangeHolder.resume(suspended.changes);
+        IdentityMap.resume(suspended.identityMap);
+        super.doResume(transaction, suspended.resources);
+    }
+
     @Override
     protected void doRollback(DefaultTransactionStatus status) {
         ORMUtils.handleDebugInfo(TransactionManager.class, "rollback", ChangeHolder.get());
         ChangeHolder.remove();
+        IdentityMap.end();
         super.doRollback(status);
 
     }
+
+    //回滚到保存点（PROPAGATION_NESTED）后一级缓存中的对象可能已被撤销，清空后重新加载
+    @Override
+    protected DefaultTransactionStatus newTransactionStatus(TransactionDefinition definition, Object transaction,
+                                                            boolean newTransaction, boolean newSynchronization,
+                                                            boolean debug, Object suspendedResources) {
+        DefaultTransactionStatus status = super.newTransactionStatus(definition, transaction, newTransaction,
+                newSynchronization, debug, suspendedResources);
+        return new SavepointStatus(status.getTransaction(), status.isNewTransaction(), status.isNewSynchronization(),
+                status.isReadOnly(), status.isDebug(), status.getSuspendedResources());
+    }
+
+    private static class SavepointStatus extends DefaultTransactionStatus {
+
+        SavepointStatus(Object transaction, boolean newTransaction, boolean newSynchronization,
+                        boolean readOnly, boolean debug, Object suspendedResources) {
+            super(transaction, newTransaction, newSynchronization, readOnly, debug, suspendedResources);
+        }
+
+        @Override
+        public void rollbackToHeldSavepoint() throws TransactionException {
+            super.rollbackToHeldSavepoint();
+            clearIdentityMap();
+        }
+
+        @Override
+        public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+            super.rollbackToSavepoint(savepoint);
+            clearIdentityMap();
+        }
+
+        private void clearIdentityMap(){
+            IdentityMap identityMap = IdentityMap.current();
+            if(identityMap != null){
+                identityMap.clear();
+            }
+        }
+    }
+
+    private static class SuspendedChanges {
+        private final Object resources;
+        private final ChangeHolder changes;
+        private final IdentityMap identityMap;
+
+        SuspendedChanges(Object resources, ChangeHolder changes, IdentityMap identityMap){
+            this.resources = resources;
+            this.changes = changes;
+            this.identityMap = identityMap;
+        }
+    }
 }